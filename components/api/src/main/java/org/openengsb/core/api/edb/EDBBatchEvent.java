@@ -25,12 +25,15 @@ import org.openengsb.core.api.model.OpenEngSBModel;
 /**
  * Represents a batch possibility to send a list of insert, delete and create commands. The reason for this batch event
  * is that it make it possible to do several inserts, updates and deletes in one commit of the EDB. If you use the other
- * three events, every event will be handled in an own EDB commit.
+ * three events, every event will be handled in an own EDB commit. If the EDB splits large batches into slices, every
+ * slice is saved in its own commit. The commits of a batch share its batch id, which is created by the EDB if it is not
+ * set. Sending a batch which failed again with the same batch id and content continues after its last saved slice.
  */
 public class EDBBatchEvent extends EDBEvent {
     private List<OpenEngSBModel> inserts;
     private List<OpenEngSBModel> updates;
     private List<OpenEngSBModel> deletes;
+    private String batchId;
 
     public EDBBatchEvent() {
         inserts = new ArrayList<OpenEngSBModel>();
@@ -62,4 +65,12 @@ public class EDBBatchEvent extends EDBEvent {
         return deletes;
     }
 
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
 }
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.api.edb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the changes of one commit of the EDB for the change feed: the commit itself and the oids which have been
+ * inserted, updated or deleted by it.
+ */
+public class EDBChange {
+    private EDBCommit commit;
+    private List<String> inserts;
+    private List<String> updates;
+    private List<String> deletions;
+
+    public EDBChange(EDBCommit commit) {
+        this.commit = commit;
+        inserts = new ArrayList<String>();
+        updates = new ArrayList<String>();
+        deletions = new ArrayList<String>();
+    }
+
+    public EDBCommit getCommit() {
+        return commit;
+    }
+
+    /**
+     * returns the revision number of the commit, which defines the order of the changes
+     */
+    public Long getRevisionNumber() {
+        return commit.getRevisionNumber();
+    }
+
+    public List<String> getInserts() {
+        return inserts;
+    }
+
+    public List<String> getUpdates() {
+        return updates;
+    }
+
+    public List<String> getDeletions() {
+        return deletions;
+    }
+}
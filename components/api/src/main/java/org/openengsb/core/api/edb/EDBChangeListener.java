@@ -0,0 +1,30 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.api.edb;
+
+/**
+ * Receives the changes of the EDB in the order of their commits. A listener can be registered at the
+ * EngineeringDatabaseService or as an OSGi service with this interface.
+ */
+public interface EDBChangeListener {
+
+    /**
+     * is called once for every commit after it has been committed successfully
+     */
+    void onChange(EDBChange change);
+}
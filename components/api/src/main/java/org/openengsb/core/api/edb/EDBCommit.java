@@ -62,6 +62,12 @@ public interface EDBCommit {
      */
     Long getTimestamp();
 
+    /**
+     * Get the commit's revision number. The revision numbers are unique and increase with every commit, so they define
+     * the order of the commits, even if several commits share the same timestamp.
+     */
+    Long getRevisionNumber();
+
     /**
      * Get the commit's context id.
      */
@@ -82,4 +88,9 @@ public interface EDBCommit {
      * this setter should be called by the EnterpriseDatabaseService at the commit procedure
      */
     void setTimestamp(Long timestamp);
+
+    /**
+     * this setter should be called by the EnterpriseDatabaseService at the commit procedure
+     */
+    void setRevisionNumber(Long revisionNumber);
 }
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.api.edb;
+
+import java.io.Serializable;
+
+/**
+ * Describes a range of values which can be used as value in the query maps of the EngineeringDatabaseService. Instead
+ * of comparing the value of the key for equality, the value has to be inside the range. The bounds of the range can be
+ * numbers, dates or strings. If a bound is null, the range is open on this side.
+ */
+@SuppressWarnings("serial")
+public final class EDBRange implements Serializable {
+    private Comparable<?> lower;
+    private boolean lowerInclusive;
+    private Comparable<?> upper;
+    private boolean upperInclusive;
+
+    private EDBRange(Comparable<?> lower, boolean lowerInclusive, Comparable<?> upper, boolean upperInclusive) {
+        if (lower == null && upper == null) {
+            throw new IllegalArgumentException("at least one bound of a range has to be defined");
+        }
+        if (lower != null && upper != null && !lower.getClass().equals(upper.getClass())) {
+            throw new IllegalArgumentException("both bounds of a range need to have the same type");
+        }
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * Creates a range which contains all values which are greater than the given value.
+     */
+    public static EDBRange greaterThan(Comparable<?> value) {
+        return new EDBRange(value, false, null, false);
+    }
+
+    /**
+     * Creates a range which contains all values which are greater than or equal to the given value.
+     */
+    public static EDBRange greaterThanOrEqual(Comparable<?> value) {
+        return new EDBRange(value, true, null, false);
+    }
+
+    /**
+     * Creates a range which contains all values which are less than the given value.
+     */
+    public static EDBRange lessThan(Comparable<?> value) {
+        return new EDBRange(null, false, value, false);
+    }
+
+    /**
+     * Creates a range which contains all values which are less than or equal to the given value.
+     */
+    public static EDBRange lessThanOrEqual(Comparable<?> value) {
+        return new EDBRange(null, false, value, true);
+    }
+
+    /**
+     * Creates a range which contains all values between lower and upper (inclusive).
+     */
+    public static EDBRange between(Comparable<?> lower, Comparable<?> upper) {
+        return new EDBRange(lower, true, upper, true);
+    }
+
+    public Comparable<?> getLower() {
+        return lower;
+    }
+
+    public boolean isLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    public Comparable<?> getUpper() {
+        return upper;
+    }
+
+    public boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    /**
+     * Returns the type of the bounds of this range.
+     */
+    public Class<?> getBoundType() {
+        return lower != null ? lower.getClass() : upper.getClass();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(lowerInclusive ? "[" : "(");
+        if (lower != null) {
+            builder.append(lower);
+        }
+        builder.append(", ");
+        if (upper != null) {
+            builder.append(upper);
+        }
+        builder.append(upperInclusive ? "]" : ")");
+        return builder.toString();
+    }
+}
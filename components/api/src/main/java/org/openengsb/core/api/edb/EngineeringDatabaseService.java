@@ -17,9 +17,12 @@
 
 package org.openengsb.core.api.edb;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.openengsb.core.api.model.OpenEngSBModel;
+
 /**
  * Defines the connection to the engineering database.
  */
@@ -30,7 +33,8 @@ public interface EngineeringDatabaseService {
     EDBCommit createCommit(String committer, String context);
 
     /**
-     * Commit the provided commit object and returns the corresponding time stamp for the commit.
+     * Commit the provided commit object and returns its revision number. The revision numbers identify the commits
+     * and order them, even if several commits get the same time stamp.
      */
     Long commit(EDBCommit obj) throws EDBException;
 
@@ -49,6 +53,19 @@ public interface EngineeringDatabaseService {
      */
     List<EDBObject> getHead() throws EDBException;
 
+    /**
+     * Retrieve a page of the current state. The objects are ordered by their OID, so consecutive pages don't overlap
+     * as long as the state isn't changed in between.
+     */
+    List<EDBObject> getHead(int offset, int limit) throws EDBException;
+
+    /**
+     * Iterate over the current state. The objects are loaded in chunks ordered by their OID and converted to EDBObjects
+     * when they are retrieved from the iterator. The iterator returns the state at the time it was created, even if
+     * commits are done while iterating.
+     */
+    Iterator<EDBObject> iterateHead() throws EDBException;
+
     /**
      * Retrieve the history of an object with a specified OID.
      */
@@ -60,16 +77,34 @@ public interface EngineeringDatabaseService {
     List<EDBObject> getHistory(String oid, Long from, Long to) throws EDBException;
 
     /**
-     * Get the Log for an object between two timestamps (inclusive).
+     * Get the Log for an object between two timestamps (inclusive). The timestamps are resolved to the revisions of
+     * the commits in this time, see getLogByRevision.
      */
     List<EDBLogEntry> getLog(String oid, Long from, Long to) throws EDBException;
 
+    /**
+     * Get the Log for an object between the commits with the revision numbers from and to (inclusive).
+     */
+    List<EDBLogEntry> getLogByRevision(String oid, Long from, Long to) throws EDBException;
+
     /**
      * Retrieve the full state for a provided timestamp. Note, there need not exist a commit for this exact timestamp.
-     * It will be equivalent retrieving the head from the latest commit before or at the exact time provided.
+     * It will be equivalent retrieving the head from the latest commit before or at the exact time provided, see
+     * getHeadByRevision.
      */
     List<EDBObject> getHead(long timestamp) throws EDBException;
 
+    /**
+     * Retrieve the full state after the commit with the given revision number.
+     */
+    List<EDBObject> getHeadByRevision(long revision) throws EDBException;
+
+    /**
+     * Iterate over the full state for a provided timestamp. The objects are loaded in chunks ordered by their OID and
+     * converted to EDBObjects when they are retrieved from the iterator.
+     */
+    Iterator<EDBObject> iterateHead(long timestamp) throws EDBException;
+
     /**
      * Convenience function to query for a single key-value pair in the current state.
      */
@@ -80,6 +115,30 @@ public interface EngineeringDatabaseService {
      */
     List<EDBObject> query(Map<String, Object> query) throws EDBException;
 
+    /**
+     * Retrieve a page of the result of query(Map<String, Object> query). The objects are ordered by their OID.
+     */
+    List<EDBObject> query(Map<String, Object> query, int offset, int limit) throws EDBException;
+
+    /**
+     * Iterate over the result of query(Map<String, Object> query). The objects are loaded in chunks ordered by their
+     * OID and converted to EDBObjects when they are retrieved from the iterator. The iterator returns the result in
+     * the state at the time it was created, even if commits are done while iterating.
+     */
+    Iterator<EDBObject> iterateQuery(Map<String, Object> query) throws EDBException;
+
+    /**
+     * Query for the objects with the provided key-value pairs in the state at the given timestamp. Only the version of
+     * every OID which was current at this time is checked. The objects are ordered by their OID.
+     */
+    List<EDBObject> query(Map<String, Object> query, long timestamp) throws EDBException;
+
+    /**
+     * Iterate over the result of query(Map<String, Object> query, long timestamp). The objects are loaded in chunks
+     * from the database and converted to EDBObjects when they are retrieved from the iterator.
+     */
+    Iterator<EDBObject> iterateQuery(Map<String, Object> query, long timestamp) throws EDBException;
+
     /**
      * Convenience function to query for a commit with a single matching key-value pair.
      */
@@ -91,11 +150,16 @@ public interface EngineeringDatabaseService {
     List<EDBCommit> getCommits(Map<String, Object> query) throws EDBException;
 
     /**
-     * Convenience function to get a commit for a timestamp. In this case, if the timestamp doesn't exist, null is
-     * returned. Exceptions are only thrown for database errors.
+     * Convenience function to get the latest commit before or at the provided timestamp. If several commits have this
+     * timestamp, the one with the highest revision number is returned. Use getCommitByRevision to get a specific one.
      */
     EDBCommit getCommit(Long from) throws EDBException;
 
+    /**
+     * Returns the commit with the given revision number.
+     */
+    EDBCommit getCommitByRevision(Long revision) throws EDBException;
+
     /**
      * Convenience function to query for a commit with a single matching key-value pair.
      */
@@ -107,15 +171,26 @@ public interface EngineeringDatabaseService {
     EDBCommit getLastCommit(Map<String, Object> query) throws EDBException;
 
     /**
-     * Compare two states and show the differences.
+     * Compare the states after the latest commits before or at the two timestamps and show the differences.
      */
     EDBDiff getDiff(Long firstTimestamp, Long secondTimestamp) throws EDBException;
 
+    /**
+     * Compare the states after the commits with the two revision numbers and show the differences.
+     */
+    EDBDiff getDiffByRevision(Long firstRevision, Long secondRevision) throws EDBException;
+
     /**
      * Find all OIDs which have been "resurrected" (deleted and recreated)
      */
     List<String> getResurrectedOIDs() throws EDBException;
 
+    /**
+     * Find all OIDs which have been resurrected between the timestamps from and to. If from or to is null, the time
+     * window is open at this side.
+     */
+    List<String> getResurrectedOIDs(Long from, Long to) throws EDBException;
+
     /**
      * Fixed-Complex-Query - Get all objects at the state of last commit which matches the provided query.
      */
@@ -125,6 +200,30 @@ public interface EngineeringDatabaseService {
      * Convenience function, see getStateofLastCommitMatching(Map<String, Object> query)
      */
     List<EDBObject> getStateOfLastCommitMatching(String key, Object value) throws EDBException;
+
+    /**
+     * Saves the current state under the given tag. The versions of a tagged state are never removed by the history
+     * compaction. Returns the revision number of the newest commit of the tagged state.
+     */
+    Long createTag(String tag) throws EDBException;
+
+    /**
+     * Returns all objects of the state which has been saved under the given tag.
+     */
+    List<EDBObject> getTaggedState(String tag) throws EDBException;
+
+    /**
+     * Removes at most maxVersions old versions which are outside of the configured retention policy and returns the
+     * number of removed versions. The newest version of an object is never removed. Should be called repeatedly until
+     * it returns less than maxVersions, so that every call runs in a small transaction.
+     */
+    int compactHistory(int maxVersions) throws EDBException;
+
+    /**
+     * Imports the versions of an archive file which has been written by the history compaction back into the
+     * history. Versions which are already saved are skipped. Returns the number of imported versions.
+     */
+    int importArchive(String archiveFile) throws EDBException;
     
     /**
      * processes an edb insert event
@@ -145,4 +244,33 @@ public interface EngineeringDatabaseService {
      * processes an edb batch event
      */
     void processEDBBatchEvent(EDBBatchEvent event) throws EDBException;
+
+    /**
+     * Registers a listener for the change feed. If fromRevision is null, the listener only gets the changes which are
+     * committed from now on. Otherwise all changes of the commits with a revision number greater than fromRevision
+     * are delivered first, so a consumer can resume where it stopped.
+     */
+    void addChangeListener(EDBChangeListener listener, Long fromRevision) throws EDBException;
+
+    /**
+     * Removes a listener of the change feed.
+     */
+    void removeChangeListener(EDBChangeListener listener) throws EDBException;
+
+    /**
+     * Returns the changes of at most max commits with a revision number greater than fromRevision in the order of the
+     * commits.
+     */
+    List<EDBChange> getChanges(Long fromRevision, int max) throws EDBException;
+
+    /**
+     * Inserts all models of the iterator (and their sub models) in one commit. The models are read and written in
+     * large chunks, so the iterator may stream them in. The domain, connector and instance id of the source event are
+     * used to build the oids. Every oid may only be contained once, otherwise the import fails. If emptyTarget is true,
+     * the caller guarantees that none of the oids has been saved yet, so no existence checks are done and the import
+     * fails if one of them has been saved already. The listener, which may be null, is informed after every written
+     * chunk. Returns the revision number of the commit.
+     */
+    Long bulkImport(EDBEvent source, Iterator<OpenEngSBModel> models, boolean emptyTarget,
+            EDBImportListener listener) throws EDBException;
 }
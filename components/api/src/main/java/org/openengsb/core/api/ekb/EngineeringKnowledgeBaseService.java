@@ -17,6 +17,7 @@
 
 package org.openengsb.core.api.ekb;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -59,4 +60,17 @@ public interface EngineeringKnowledgeBaseService {
      */
     <T extends OpenEngSBModel> List<T> queryForModels(Class<T> model, Map<String, Object> queryMap);
 
+    /**
+     * Like queryForModels(Class<T> model, Map<String, Object> queryMap), but returns only the page of models beginning
+     * at offset with at most limit elements.
+     */
+    <T extends OpenEngSBModel> List<T> queryForModels(Class<T> model, Map<String, Object> queryMap, int offset,
+            int limit);
+
+    /**
+     * Like queryForModels(Class<T> model, Map<String, Object> queryMap), but the models are loaded in chunks and
+     * converted when they are retrieved from the iterator.
+     */
+    <T extends OpenEngSBModel> Iterator<T> iterateModels(Class<T> model, Map<String, Object> queryMap);
+
 }
@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.openengsb.core.api.edb.EDBInsertEvent;
+import org.openengsb.core.api.edb.EDBObject;
+import org.openengsb.core.api.model.OpenEngSBModel;
+import org.openengsb.core.api.model.OpenEngSBModelEntry;
+import org.openengsb.core.edb.internal.JPACommit;
+import org.openengsb.core.edb.internal.JPADatabase;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A JPADatabase on an embedded H2 database, which is filled with dataSize objects of keys entries each. Every object
+ * is saved historyDepth times, so the history of every oid contains that many versions and the diff between the first
+ * and the last commit contains all objects. When the database is opened and closed is decided by the {@link State}
+ * subclasses. The parameters can be changed on the command line, e.g. "-p dataSize=100000 -p database=file" or
+ * "-p compactOIDs=false" to leave out the runs with compact oids.
+ */
+public abstract class AbstractEDBBenchmarkState {
+    private static final String COMMITTER = "benchmark";
+    private static final String CONTEXT = "benchmark";
+    private static final int FILL_CHUNK_SIZE = 500;
+    private static final int FULL_VERSION_INTERVAL = 10;
+    private static final String DOMAIN = "benchmarkdomain";
+    private static final String CONNECTOR = "benchmarkconnector";
+
+    /**
+     * number of objects which are saved before the benchmarks run
+     */
+    @Param({ "1000", "10000" })
+    public int dataSize;
+    /**
+     * number of versions which are saved of every object
+     */
+    @Param({ "1", "10" })
+    public int historyDepth;
+    /**
+     * number of entries of every object, besides its name and version
+     */
+    @Param({ "10" })
+    public int keys;
+    /**
+     * number of objects which are saved by one commit of the commit benchmark
+     */
+    @Param({ "1" })
+    public int commitSize;
+    /**
+     * "mem" for an in-memory database or "file" for a database in the target directory
+     */
+    @Param({ "mem" })
+    public String database;
+    /**
+     * records the EDB metrics while the benchmarks run, to measure the overhead of the instrumentation
+     */
+    @Param({ "false" })
+    public boolean metrics;
+    /**
+     * saves the objects under oids whose domain and connector prefix is replaced by a short code
+     */
+    @Param({ "false", "true" })
+    public boolean compactOIDs;
+    /**
+     * saves only every tenth version of an object full and the versions in between as deltas
+     */
+    @Param({ "false", "true" })
+    public boolean deltaVersions;
+    /**
+     * saves the entries of the full versions as one compressed payload. The name is indexed in all runs, so the query
+     * benchmark works with the payloads and compares the same index.
+     */
+    @Param({ "false", "true" })
+    public boolean payloadEncoding;
+
+    private JPADatabase db;
+    private List<String> oids;
+    private String connectionURL;
+    private File directory;
+    private long firstRevision;
+    private long lastRevision;
+    private int nextObject;
+    private int nextVersion;
+
+    /**
+     * opens a new database and fills it with the objects
+     */
+    protected void open() {
+        connectionURL = createConnectionURL();
+        Properties properties = new Properties();
+        properties.put("openjpa.ConnectionURL", connectionURL);
+        db = new JPADatabase();
+        db.open(properties);
+        db.getMetrics().setEnabled(metrics);
+        db.setIndexedKeys(Arrays.asList("name"));
+        if (deltaVersions) {
+            db.setFullVersionInterval(FULL_VERSION_INTERVAL);
+        }
+        db.setPayloadEncoding(payloadEncoding);
+        if (compactOIDs) {
+            db.setCompactOIDs(true);
+            registerOIDPrefix();
+        }
+
+        oids = new ArrayList<String>(dataSize);
+        for (int i = 0; i < dataSize; i++) {
+            oids.add(DOMAIN + "/" + CONNECTOR + "/object" + i);
+        }
+        firstRevision = 0;
+        nextObject = 0;
+        for (int version = 0; version < historyDepth; version++) {
+            for (int i = 0; i < dataSize; i += FILL_CHUNK_SIZE) {
+                long revision = commit(oids.subList(i, Math.min(i + FILL_CHUNK_SIZE, dataSize)), version);
+                if (firstRevision == 0) {
+                    firstRevision = revision;
+                }
+                lastRevision = revision;
+            }
+        }
+        nextVersion = historyDepth;
+    }
+
+    /**
+     * closes the database and drops it, so the next database does not share the memory or the disk with it
+     */
+    protected void close() throws SQLException {
+        db.close();
+        shutdownDatabase();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                file.delete();
+            }
+            directory.delete();
+            directory = null;
+        }
+    }
+
+    private void shutdownDatabase() throws SQLException {
+        Connection connection = DriverManager.getConnection(connectionURL);
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("SHUTDOWN");
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * inserts a model of the benchmark domain and connector, so the code of their oid prefix is registered and the
+     * objects which are saved under oids with this prefix afterwards are saved under the code
+     */
+    private void registerOIDPrefix() {
+        OpenEngSBModel model = new PrefixModel();
+        model.addOpenEngSBModelEntry(new OpenEngSBModelEntry("edbId", "prefix", String.class));
+        EDBInsertEvent event = new EDBInsertEvent(model);
+        event.setDomainId(DOMAIN);
+        event.setConnectorId(CONNECTOR);
+        event.setInstanceId(CONNECTOR);
+        db.processEDBInsertEvent(event);
+    }
+
+    private String createConnectionURL() {
+        String name = "edb-benchmark-" + UUID.randomUUID();
+        if ("file".equals(database)) {
+            directory = new File("target", name);
+            directory.mkdirs();
+            return "jdbc:h2:" + new File(directory, "edb").getAbsolutePath();
+        }
+        // the database has to outlive the connections of the thread bound entity managers
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1";
+    }
+
+    /**
+     * saves the given version of the objects with the given oids in one commit and returns its revision
+     */
+    private long commit(List<String> commitOids, int version) {
+        JPACommit commit = db.createCommit(COMMITTER, CONTEXT);
+        for (String oid : commitOids) {
+            commit.add(createObject(oid, version));
+        }
+        return db.commit(commit);
+    }
+
+    private EDBObject createObject(String oid, int version) {
+        EDBObject object = new EDBObject(oid);
+        object.put("name", oid);
+        object.put("version", version);
+        for (int i = 0; i < keys; i++) {
+            object.put("key" + i, "value " + i + " of version " + version);
+        }
+        return object;
+    }
+
+    /**
+     * saves a new version of the next commitSize objects in one commit and returns its revision
+     */
+    public long commitNextVersion() {
+        JPACommit commit = db.createCommit(COMMITTER, CONTEXT);
+        for (int i = 0; i < commitSize; i++) {
+            commit.add(createObject(nextOID(), nextVersion));
+        }
+        nextVersion++;
+        return db.commit(commit);
+    }
+
+    /**
+     * returns the oids of the saved objects one after another
+     */
+    public String nextOID() {
+        String oid = oids.get(nextObject);
+        nextObject = (nextObject + 1) % oids.size();
+        return oid;
+    }
+
+    public JPADatabase getDatabase() {
+        return db;
+    }
+
+    /**
+     * returns the revision of the first commit which filled the database
+     */
+    public long getFirstRevision() {
+        return firstRevision;
+    }
+
+    /**
+     * returns the revision of the last commit which filled the database
+     */
+    public long getLastRevision() {
+        return lastRevision;
+    }
+
+    /**
+     * the model which registers the oid prefix of the benchmark objects
+     */
+    private static final class PrefixModel implements OpenEngSBModel {
+        private final List<OpenEngSBModelEntry> entries = new ArrayList<OpenEngSBModelEntry>();
+
+        @Override
+        public List<OpenEngSBModelEntry> getOpenEngSBModelEntries() {
+            return new ArrayList<OpenEngSBModelEntry>(entries);
+        }
+
+        @Override
+        public void addOpenEngSBModelEntry(OpenEngSBModelEntry entry) {
+            entries.add(entry);
+        }
+
+        @Override
+        public void removeOpenEngSBModelEntry(String key) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (entries.get(i).getKey().equals(key)) {
+                    entries.remove(i);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.core.api.edb.EDBDiff;
+import org.openengsb.core.api.edb.EDBObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the commit and read paths of the JPADatabase. The reads measure their average latency, the commits
+ * their throughput. The reads run against the database which is filled by the EDBBenchmarkState, the commits against
+ * the one of the EDBCommitBenchmarkState. The results returned to JMH keep the JIT from eliminating the calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EDBBenchmark {
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long commit(EDBCommitBenchmarkState state) {
+        return state.commitNextVersion();
+    }
+
+    @Benchmark
+    public EDBObject getObject(EDBBenchmarkState state) {
+        return state.getDatabase().getObject(state.nextOID());
+    }
+
+    @Benchmark
+    public List<EDBObject> getHead(EDBBenchmarkState state) {
+        return state.getDatabase().getHead();
+    }
+
+    @Benchmark
+    public List<EDBObject> query(EDBBenchmarkState state) {
+        return state.getDatabase().query("name", state.nextOID());
+    }
+
+    @Benchmark
+    public List<EDBObject> getHistory(EDBBenchmarkState state) {
+        return state.getDatabase().getHistory(state.nextOID());
+    }
+
+    @Benchmark
+    public EDBDiff getDiff(EDBBenchmarkState state) {
+        return state.getDatabase().getDiffByRevision(state.getFirstRevision(), state.getLastRevision());
+    }
+}
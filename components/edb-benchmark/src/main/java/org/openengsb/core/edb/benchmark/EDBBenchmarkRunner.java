@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the EDB benchmarks with the JMH command line. Unless other options are given, the results are written as JSON
+ * to target/edb-benchmark.json, so that they can be compared between builds. All JMH options are supported, e.g.
+ * "-p dataSize=100000" or "-rf csv -rff results.csv".
+ */
+public final class EDBBenchmarkRunner {
+    private static final String DEFAULT_RESULT_FORMAT = "json";
+    private static final String DEFAULT_RESULT_FILE = "target/edb-benchmark.json";
+
+    private EDBBenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add(DEFAULT_RESULT_FORMAT);
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add(DEFAULT_RESULT_FILE);
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.benchmark;
+
+import java.sql.SQLException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The database of the commit benchmark, which is filled anew before every iteration. Every commit adds a version to
+ * the history of an object, so a database which lived through the whole trial would make each iteration slower than
+ * the one before. This way every iteration starts at historyDepth versions and only grows by the commits of its own
+ * time.
+ */
+@State(Scope.Benchmark)
+public class EDBCommitBenchmarkState extends AbstractEDBBenchmarkState {
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws SQLException {
+        close();
+    }
+}
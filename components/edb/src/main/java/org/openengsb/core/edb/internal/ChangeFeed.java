@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openengsb.core.api.edb.EDBChange;
+import org.openengsb.core.api.edb.EDBChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the changes of the EDB to the registered listeners in the order of their revisions. Since concurrent
+ * commits may finish in another order than their revisions were allocated, every allocated revision has to be either
+ * published or skipped. A change is only delivered after all changes with lower revisions. The thread which holds the
+ * delivery lock delivers all changes which are ready, other threads only queue their changes and return.
+ */
+public class ChangeFeed {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeed.class);
+    private static final int REPLAY_CHUNK_SIZE = 100;
+
+    private final JPADatabase database;
+    private final List<EDBChangeListener> listeners = new CopyOnWriteArrayList<EDBChangeListener>();
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private final Map<Long, EDBChange> ready = new HashMap<Long, EDBChange>();
+    private final Map<Long, Long> skipped = new HashMap<Long, Long>();
+    private long nextRevision = 1;
+
+    public ChangeFeed(JPADatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * queues the change of a successful commit for the delivery
+     */
+    public void publish(EDBChange change) {
+        synchronized (ready) {
+            ready.put(change.getRevisionNumber(), change);
+        }
+        deliverReady();
+    }
+
+    /**
+     * marks the given revision as not committed, so the changes with higher revisions don't wait for it
+     */
+    public void skip(long revision) {
+        skip(revision, revision);
+    }
+
+    /**
+     * marks all revisions between from and to (both inclusive) as not committed
+     */
+    public void skip(long from, long to) {
+        if (to < from) {
+            return;
+        }
+        synchronized (ready) {
+            skipped.put(from, to);
+        }
+        deliverReady();
+    }
+
+    /**
+     * returns true if at least one listener is registered
+     */
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * registers the given listener. If fromRevision is not null, the changes which have been delivered since this
+     * revision are replayed out of the database first. No other changes are delivered meanwhile, so the listener
+     * gets every change exactly once and in order.
+     */
+    public void addListener(EDBChangeListener listener, Long fromRevision) {
+        if (fromRevision == null) {
+            listeners.add(listener);
+            return;
+        }
+        deliveryLock.lock();
+        try {
+            long delivered;
+            synchronized (ready) {
+                delivered = nextRevision - 1;
+            }
+            long position = fromRevision;
+            boolean done = false;
+            while (!done) {
+                List<EDBChange> changes = database.getChanges(position, delivered, REPLAY_CHUNK_SIZE);
+                for (EDBChange change : changes) {
+                    if (change.getRevisionNumber() > delivered) {
+                        done = true;
+                        break;
+                    }
+                    deliver(listener, change);
+                    position = change.getRevisionNumber();
+                }
+                done |= changes.size() < REPLAY_CHUNK_SIZE;
+            }
+            listeners.add(listener);
+            drain();
+        } finally {
+            deliveryLock.unlock();
+        }
+        deliverReady();
+    }
+
+    /**
+     * registers the given listener for the changes which are committed from now on. Used as bind method for the
+     * listeners which are registered as OSGi services.
+     */
+    public void addListener(EDBChangeListener listener) {
+        if (listener != null) {
+            addListener(listener, null);
+        }
+    }
+
+    public void removeListener(EDBChangeListener listener) {
+        if (listener != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * delivers the ready changes, unless another thread is already doing so. The check after releasing the lock
+     * catches changes which have been queued after the other thread finished draining but before it released the lock.
+     */
+    private void deliverReady() {
+        while (deliveryLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                deliveryLock.unlock();
+            }
+            synchronized (ready) {
+                if (!ready.containsKey(nextRevision) && !skipped.containsKey(nextRevision)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * delivers the changes as long as the next revision is ready. Must be called with the delivery lock held.
+     */
+    private void drain() {
+        while (true) {
+            EDBChange change;
+            synchronized (ready) {
+                Long skippedTo = skipped.remove(nextRevision);
+                if (skippedTo != null) {
+                    nextRevision = skippedTo + 1;
+                    continue;
+                }
+                change = ready.remove(nextRevision);
+                if (change == null) {
+                    return;
+                }
+                nextRevision++;
+            }
+            for (EDBChangeListener listener : listeners) {
+                deliver(listener, change);
+            }
+        }
+    }
+
+    private void deliver(EDBChangeListener listener, EDBChange change) {
+        try {
+            listener.onChange(change);
+        } catch (RuntimeException e) {
+            LOGGER.warn("change listener " + listener + " failed to process the revision "
+                    + change.getRevisionNumber(), e);
+        }
+    }
+}
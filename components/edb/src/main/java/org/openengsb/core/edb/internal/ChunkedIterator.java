@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator which loads the underlying elements chunk by chunk and converts every element when it is retrieved. Only
+ * the current chunk is kept in memory, so that big results can be processed without loading them completely. The
+ * chunks are ordered by the keys of their elements and every chunk begins after the key of the last element of the
+ * chunk before, so that a chunk is found directly instead of skipping all elements in front of it.
+ */
+public abstract class ChunkedIterator<S, T> implements Iterator<T> {
+    private int chunkSize;
+    private String lastKey;
+    private int position;
+    private boolean exhausted;
+    private List<S> chunk;
+
+    public ChunkedIterator(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * loads the elements with a key greater than the given one ordered by their keys, or the first elements if the
+     * key is null. If less than max elements are returned, there are no more elements.
+     */
+    protected abstract List<S> loadChunk(String afterKey, int max);
+
+    /**
+     * returns the key of a loaded element, after which the next chunk begins
+     */
+    protected abstract String getKey(S element);
+
+    /**
+     * converts a loaded element to the element which is returned by the iterator
+     */
+    protected abstract T convert(S element);
+
+    /**
+     * is called before the next chunk is loaded, when all elements of the given chunk were retrieved
+     */
+    protected void release(List<S> chunk) {
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (chunk == null || position >= chunk.size()) {
+            if (chunk != null && !chunk.isEmpty()) {
+                lastKey = getKey(chunk.get(chunk.size() - 1));
+                release(chunk);
+                chunk = Collections.emptyList();
+            }
+            if (exhausted) {
+                return false;
+            }
+            chunk = loadChunk(lastKey, chunkSize);
+            position = 0;
+            exhausted = chunk.size() < chunkSize;
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return convert(chunk.get(position++));
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("elements can't be removed from this iterator");
+    }
+}
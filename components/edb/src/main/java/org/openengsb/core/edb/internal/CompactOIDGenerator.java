@@ -0,0 +1,66 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openengsb.core.api.edb.EDBEvent;
+import org.openengsb.core.api.model.OpenEngSBModel;
+
+/**
+ * Creates short oids. The domain and connector id prefix is replaced by its code out of the OIDPrefixRegistry, unless
+ * objects have already been saved under the long prefix. Models without edbId get a time ordered 64 bit id instead of
+ * a random UUID, so new oids are appended at the end of the oid indexes. The ids are only unique as long as one EDB
+ * instance writes into the database, like the revision numbers.
+ */
+public class CompactOIDGenerator implements OIDGenerator {
+    private static final int SEQUENCE_BITS = 12;
+    private static final int RADIX = 36;
+
+    private final OIDPrefixRegistry prefixes;
+    private final AtomicLong lastId = new AtomicLong();
+
+    public CompactOIDGenerator(OIDPrefixRegistry prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    @Override
+    public String createOID(OpenEngSBModel model, EDBEvent event) {
+        String prefix = ModelConverterUtils.createOIDPrefix(event);
+        String code = prefixes.getCode(prefix);
+        String modelId = ModelConverterUtils.getOpenEngSBModelId(model);
+        if (modelId == null) {
+            modelId = Long.toString(nextId(), RADIX);
+        }
+        return code != null ? code + modelId : prefix + modelId;
+    }
+
+    /**
+     * returns an id which is higher than all ids returned before. Its upper bits contain the current time, so the ids
+     * of a restarted EDB are higher too.
+     */
+    private long nextId() {
+        while (true) {
+            long last = lastId.get();
+            long id = Math.max(System.currentTimeMillis() << SEQUENCE_BITS, last + 1);
+            if (lastId.compareAndSet(last, id)) {
+                return id;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import org.openengsb.core.api.edb.EDBEvent;
+import org.openengsb.core.api.model.OpenEngSBModel;
+
+/**
+ * Creates oids out of the domain id, the connector id and the edbId of the model, or a random UUID if the model has no
+ * edbId.
+ */
+public class DefaultOIDGenerator implements OIDGenerator {
+
+    @Override
+    public String createOID(OpenEngSBModel model, EDBEvent event) {
+        return ModelConverterUtils.createOID(model, event);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openengsb.core.edb.internal.dao.JPADao;
+
+/**
+ * Encodes versions as deltas to the previous version of their oid and decodes them back to full versions. A delta
+ * version only contains the entries which changed since the previous version and a removal entry for every key which
+ * was removed. Its full state is rebuilt by applying all versions from its base revision, which is the revision of
+ * the full version the chain starts with, up to its own revision.
+ */
+public class DeltaCodec {
+    private static final int QUERY_CHUNK_SIZE = 500;
+
+    private final JPADao dao;
+
+    public DeltaCodec(JPADao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * creates the delta version of the given full object, which follows the given previous version of its oid
+     */
+    public JPAObject encode(JPAObject object, JPAObject previous) {
+        Map<String, JPAEntry> before = toMap(decode(Collections.singletonList(previous)).get(0));
+        List<JPAEntry> changed = new ArrayList<JPAEntry>();
+        for (JPAEntry entry : object.getPairs()) {
+            JPAEntry old = before.remove(entry.getKey());
+            if (old == null || !old.hasSameValue(entry)) {
+                changed.add(entry);
+            }
+        }
+        for (String key : before.keySet()) {
+            changed.add(JPAEntry.createRemoval(key));
+        }
+        JPAObject delta = new JPAObject(object.getOID(), object.getTimestamp(), object.getRevision(),
+            object.isDeleted(), changed);
+        delta.setBaseRevision(previous.getBaseRevision());
+        delta.setCommit(object.getCommit());
+        return delta;
+    }
+
+    /**
+     * returns the full versions of the given objects in the same order. Full versions are returned as they are, for
+     * delta versions a new, not persisted JPAObject with all entries is created. The chains of the delta versions are
+     * loaded with one query per chunk of oids.
+     */
+    public List<JPAObject> decode(List<JPAObject> objects) {
+        List<JPAObject> deltas = new ArrayList<JPAObject>();
+        for (JPAObject object : objects) {
+            if (object.isDelta()) {
+                deltas.add(object);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return objects;
+        }
+        Map<String, List<JPAObject>> chains = loadChains(deltas);
+        List<JPAObject> result = new ArrayList<JPAObject>(objects.size());
+        for (JPAObject object : objects) {
+            result.add(object.isDelta() ? merge(object, chains.get(object.getOID())) : object);
+        }
+        return result;
+    }
+
+    /**
+     * loads the versions of the oids of the given delta versions which lie between the lowest base revision and the
+     * highest revision of every chunk, grouped by their oid and ordered by their revision
+     */
+    private Map<String, List<JPAObject>> loadChains(List<JPAObject> deltas) {
+        Map<String, List<JPAObject>> chains = new HashMap<String, List<JPAObject>>();
+        for (int i = 0; i < deltas.size(); i += QUERY_CHUNK_SIZE) {
+            List<JPAObject> chunk = deltas.subList(i, Math.min(i + QUERY_CHUNK_SIZE, deltas.size()));
+            List<String> oids = new ArrayList<String>();
+            long from = Long.MAX_VALUE;
+            long to = Long.MIN_VALUE;
+            for (JPAObject delta : chunk) {
+                oids.add(delta.getOID());
+                from = Math.min(from, delta.getBaseRevision());
+                to = Math.max(to, delta.getRevision());
+            }
+            for (JPAObject version : dao.getJPAObjectVersions(oids, from, to)) {
+                List<JPAObject> chain = chains.get(version.getOID());
+                if (chain == null) {
+                    chain = new ArrayList<JPAObject>();
+                    chains.put(version.getOID(), chain);
+                }
+                chain.add(version);
+            }
+        }
+        return chains;
+    }
+
+    /**
+     * applies the versions of the chain of the given delta version in their order. Deleted versions are skipped, since
+     * they only appear in the range of a chain if the oid was saved and deleted by the same commit.
+     */
+    private JPAObject merge(JPAObject delta, List<JPAObject> chain) {
+        Map<String, JPAEntry> entries = new LinkedHashMap<String, JPAEntry>();
+        for (JPAObject version : chain) {
+            if (version.getRevision() < delta.getBaseRevision() || version.getRevision() > delta.getRevision()
+                    || version.isDeleted()) {
+                continue;
+            }
+            for (JPAEntry entry : version.getPairs()) {
+                if (entry.isRemoval()) {
+                    entries.remove(entry.getKey());
+                } else {
+                    entries.put(entry.getKey(), entry);
+                }
+            }
+        }
+        JPAObject full = new JPAObject(delta.getOID(), delta.getTimestamp(), delta.getRevision(), delta.isDeleted(),
+            new ArrayList<JPAEntry>(entries.values()));
+        full.setCommit(delta.getCommit());
+        return full;
+    }
+
+    private Map<String, JPAEntry> toMap(JPAObject object) {
+        Map<String, JPAEntry> entries = new LinkedHashMap<String, JPAEntry>();
+        for (JPAEntry entry : object.getPairs()) {
+            entries.put(entry.getKey(), entry);
+        }
+        return entries;
+    }
+}
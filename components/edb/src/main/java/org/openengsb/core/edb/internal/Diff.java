@@ -17,9 +17,8 @@
 
 package org.openengsb.core.edb.internal;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -38,10 +37,11 @@ public class Diff implements EDBDiff {
     private List<EDBObject> startState;
     private List<EDBObject> endState;
     private HashMap<String, EDBObjectDiff> diff;
+    private JPADatabase database;
 
     public Diff(JPACommit startCommit, JPACommit endCommit, List<EDBObject> startState,
             List<EDBObject> endState) throws EDBException {
-        if (endCommit.getTimestamp() < startCommit.getTimestamp()) {
+        if (endCommit.getRevisionNumber() < startCommit.getRevisionNumber()) {
             this.startCommit = endCommit;
             this.endCommit = startCommit;
             this.startState = endState;
@@ -53,32 +53,51 @@ public class Diff implements EDBDiff {
             this.endState = endState;
         }
 
-        createObjectDiffs();
+        createObjectDiffs(this.startState, this.endState);
         LOGGER.debug("Diff created. Difference count = " + diff.size());
     }
 
     /**
-     * Analyzes the start and end state and creates for every object that is different an objectdiff entry
+     * Creates a diff which only compares the given objects, which have to be the states of the oids which were changed
+     * by the commits between the start and the end commit. The complete start and end states are only loaded out of
+     * the database if they are requested.
      */
-    private void createObjectDiffs() throws EDBException {
+    public Diff(JPACommit startCommit, JPACommit endCommit, List<EDBObject> changedStartObjects,
+            List<EDBObject> changedEndObjects, JPADatabase database) throws EDBException {
+        this.startCommit = startCommit;
+        this.endCommit = endCommit;
+        this.database = database;
+
+        createObjectDiffs(changedStartObjects, changedEndObjects);
+        LOGGER.debug("Incremental diff created. Difference count = " + diff.size());
+    }
+
+    /**
+     * Analyzes the start and end state and creates for every object that is different an objectdiff entry. The objects
+     * of both states are matched by their oid.
+     */
+    private void createObjectDiffs(List<EDBObject> start, List<EDBObject> end) throws EDBException {
         diff = new HashMap<String, EDBObjectDiff>();
-        List<EDBObject> tempList = new ArrayList<EDBObject>();
-        for (EDBObject o : this.endState) {
-            tempList.add(o);
+        Map<String, EDBObject> endObjects = new LinkedHashMap<String, EDBObject>();
+        for (EDBObject o : end) {
+            endObjects.put(o.getOID(), o);
         }
 
-        addModifiedOrDeletedObjects(tempList);
-        addNewObjects(tempList);
+        addModifiedOrDeletedObjects(start, endObjects);
+        addNewObjects(endObjects);
     }
 
     /**
      * add all modified or deleted objects to the diff collection. As base to indicate if something changed the start
-     * state and the list of elements from the end state is taken.
+     * state and the map of elements from the end state is taken. The matched elements are removed from the map.
      */
-    private void addModifiedOrDeletedObjects(List<EDBObject> tempList) {
-        for (EDBObject a : this.startState) {
+    private void addModifiedOrDeletedObjects(List<EDBObject> start, Map<String, EDBObject> endObjects) {
+        for (EDBObject a : start) {
             String oid = a.getOID();
-            EDBObject b = removeIfExist(oid, tempList);
+            EDBObject b = endObjects.remove(oid);
+            if (b == null) {
+                LOGGER.debug(oid + " wasn't found in the list of end state objects");
+            }
             ObjectDiff odiff = new ObjectDiff(this.startCommit, this.endCommit, a, b);
             if (odiff.getDifferenceCount() > 0) {
                 diff.put(oid, odiff);
@@ -87,11 +106,11 @@ public class Diff implements EDBDiff {
     }
 
     /**
-     * add all new object to the diff collection. As base to indicate if an object is new, the list of elements from the
-     * end state which are left is taken.
+     * add all new object to the diff collection. As base to indicate if an object is new, the elements from the end
+     * state which are left in the map are taken.
      */
-    private void addNewObjects(List<EDBObject> tempList) {
-        for (EDBObject b : tempList) {
+    private void addNewObjects(Map<String, EDBObject> endObjects) {
+        for (EDBObject b : endObjects.values()) {
             String oid = b.getOID();
             ObjectDiff odiff = new ObjectDiff(this.startCommit, this.endCommit, null, b);
             if (odiff.getDifferenceCount() > 0) {
@@ -100,23 +119,6 @@ public class Diff implements EDBDiff {
         }
     }
 
-    /**
-     * Removes the element with the given oid if it exists in the list and returns it. If it not exists, null will be
-     * returned.
-     */
-    private EDBObject removeIfExist(String oid, List<EDBObject> tempList) {
-        Iterator<EDBObject> iterator = tempList.iterator();
-        while (iterator.hasNext()) {
-            EDBObject obj = iterator.next();
-            if (obj.getOID().equals(oid)) {
-                iterator.remove();
-                return obj;
-            }
-        }
-        LOGGER.debug(oid + " wasn't found in the list of end state objects");
-        return null;
-    }
-
     @Override
     public Map<String, EDBObjectDiff> getObjectDiffs() {
         return diff;
@@ -134,11 +136,17 @@ public class Diff implements EDBDiff {
 
     @Override
     public List<EDBObject> getStartState() {
+        if (startState == null) {
+            startState = database.getHeadByRevision(startCommit.getRevisionNumber());
+        }
         return startState;
     }
 
     @Override
     public List<EDBObject> getEndState() {
+        if (endState == null) {
+            endState = database.getHeadByRevision(endCommit.getRevisionNumber());
+        }
         return endState;
     }
 
@@ -0,0 +1,225 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the latencies and row counts of the operations of the EDB and counts its conflicts. The metrics are
+ * registered as MBeans at the platform MBean server. As long as the metrics are disabled, start does not even read
+ * the clock and record returns immediately, so the instrumented code only pays for reading one volatile field. The
+ * conflict counters are rare and recorded regardless of the switch.
+ */
+public class EDBMetrics implements EDBMetricsMBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EDBMetrics.class);
+    private static final String DOMAIN = "org.openengsb.edb";
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    /**
+     * the timed operations. STATEMENT times the single database statements of the JPADao.
+     */
+    public enum Operation {
+        COMMIT("commit"), GET_OBJECT("getObject"), GET_HEAD("getHead"), QUERY("query"),
+        GET_HISTORY("getHistory"), GET_DIFF("getDiff"), STATEMENT("statement");
+
+        private final String name;
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private volatile boolean enabled = false;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final AtomicLong writtenObjects = new AtomicLong();
+    private final AtomicLong writtenEntries = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong concurrentModifications = new AtomicLong();
+    private final AtomicLong rejectedUpdates = new AtomicLong();
+    private final AtomicLong mergedUpdates = new AtomicLong();
+    private final AtomicLong resumedBatches = new AtomicLong();
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public EDBMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies[operation.ordinal()] = new LatencyHistogram(operation.getName());
+        }
+    }
+
+    /**
+     * registers the metrics and the latencies of all operations at the platform MBean server. If the names are
+     * already taken by the metrics of another EDB, none of the MBeans is registered. A failed registration is only
+     * logged, the EDB works without its MBeans.
+     */
+    public synchronized void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=EDBMetrics"), this);
+            for (LatencyHistogram latency : latencies) {
+                register(server, new ObjectName(DOMAIN + ":type=EDBMetrics,operation=" + latency.getName()),
+                    latency);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("could not register the EDB metrics", e);
+            unregister();
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        if (server.isRegistered(name)) {
+            throw new InstanceAlreadyExistsException(name + " is already registered");
+        }
+        server.registerMBean(mbean, name);
+        registered.add(name);
+        LOGGER.debug("registered the MBean {}", name);
+    }
+
+    public synchronized void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOGGER.warn("could not unregister the MBean " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * returns the start time of a call which is passed to record, or a marker if the metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * records the latency of a call of the given operation which started at the given time and the number of rows it
+     * loaded or wrote
+     */
+    public void record(Operation operation, long start, long rows) {
+        if (start != NOT_TIMED) {
+            latencies[operation.ordinal()].record(System.nanoTime() - start, rows);
+        }
+    }
+
+    /**
+     * records the size of a commit with the given number of JPAObjects, JPAEntries and rows in total, if the metrics
+     * are enabled
+     */
+    public void countWrites(long objects, long entries, long rows) {
+        if (enabled) {
+            writtenObjects.addAndGet(objects);
+            writtenEntries.addAndGet(entries);
+            writtenRows.addAndGet(rows);
+        }
+    }
+
+    public void countConcurrentModification() {
+        concurrentModifications.incrementAndGet();
+    }
+
+    public void countRejectedUpdate() {
+        rejectedUpdates.incrementAndGet();
+    }
+
+    public void countMergedUpdates(int updates) {
+        mergedUpdates.addAndGet(updates);
+    }
+
+    public void countResumedBatch() {
+        resumedBatches.incrementAndGet();
+    }
+
+    public LatencyHistogram getLatency(Operation operation) {
+        return latencies[operation.ordinal()];
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        LOGGER.info("{} the EDB metrics", enabled ? "enabling" : "disabling");
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getWrittenObjects() {
+        return writtenObjects.get();
+    }
+
+    @Override
+    public long getWrittenEntries() {
+        return writtenEntries.get();
+    }
+
+    @Override
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    @Override
+    public long getConcurrentModifications() {
+        return concurrentModifications.get();
+    }
+
+    @Override
+    public long getRejectedUpdates() {
+        return rejectedUpdates.get();
+    }
+
+    @Override
+    public long getMergedUpdates() {
+        return mergedUpdates.get();
+    }
+
+    @Override
+    public long getResumedBatches() {
+        return resumedBatches.get();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        writtenObjects.set(0);
+        writtenEntries.set(0);
+        writtenRows.set(0);
+        concurrentModifications.set(0);
+        resumedBatches.set(0);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+/**
+ * the management interface of the EDBMetrics. The latencies of the single operations are registered as
+ * LatencyHistogram MBeans of their own.
+ */
+public interface EDBMetricsMBean {
+
+    boolean isEnabled();
+
+    /**
+     * switches the recording of latencies and row counts on or off. The conflict counters are always recorded.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * returns the number of JPAObjects which were written by commits, including the deletion markers
+     */
+    long getWrittenObjects();
+
+    /**
+     * returns the number of JPAEntries which were written by commits. A version which is saved as delta or payload
+     * only writes the entries it keeps as JPAEntries.
+     */
+    long getWrittenEntries();
+
+    /**
+     * returns the number of rows which were written by commits, which are the commits, JPAObjects and JPAEntries
+     * together with the head objects, resurrections, oid prefixes and the added and removed secondary index entries
+     */
+    long getWrittenRows();
+
+    /**
+     * returns the number of commits which failed because another commit changed one of their oids at the same time
+     */
+    long getConcurrentModifications();
+
+    /**
+     * returns the number of updates which were rejected because of a conflict with a newer version of their model
+     */
+    long getRejectedUpdates();
+
+    /**
+     * returns the number of updates of older model versions which were merged with the versions saved in between
+     */
+    long getMergedUpdates();
+
+    /**
+     * returns the number of sliced batch events which were sent again and resumed after their last committed slice
+     */
+    long getResumedBatches();
+
+    /**
+     * resets the latencies and counters. The numbers of rejected and merged updates are kept, since the JPADatabase
+     * returns them as totals since its start.
+     */
+    void reset();
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openengsb.core.api.edb.EDBObject;
+
+/**
+ * A bounded cache of the newest EDBObject per oid, which evicts the least recently used objects if it is full. The
+ * cache only hands out and saves copies, so the callers can not change the cached objects. Every update of the cache
+ * by a commit increases the generation of the cache. Objects which were loaded from the database before such an update
+ * are not put into the cache any more, since they could be stale. The cache only sees the commits of its own JVM, so
+ * it assumes that no other node writes into the same database.
+ */
+public class EDBObjectCache {
+    private final Map<String, EDBObject> objects;
+    private long generation;
+    private long hits;
+    private long misses;
+
+    public EDBObjectCache(final int maxSize) {
+        objects = new LinkedHashMap<String, EDBObject>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EDBObject> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * returns a copy of the cached object with the given oid or null if the oid is not cached
+     */
+    public synchronized EDBObject get(String oid) {
+        EDBObject object = objects.get(oid);
+        if (object == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(object);
+    }
+
+    /**
+     * returns the generation which has to be passed to put for objects which are loaded from the database afterwards
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * puts the given object, which was loaded from the database, into the cache if no commit updated the cache since
+     * the given generation was retrieved
+     */
+    public synchronized void put(EDBObject object, long loadedGeneration) {
+        if (loadedGeneration == generation) {
+            objects.put(object.getOID(), copy(object));
+        }
+    }
+
+    /**
+     * replaces the cached objects with the given newly committed objects
+     */
+    public synchronized void update(Collection<EDBObject> committed) {
+        generation++;
+        for (EDBObject object : committed) {
+            objects.put(object.getOID(), copy(object));
+        }
+    }
+
+    /**
+     * removes all objects from the cache
+     */
+    public synchronized void clear() {
+        generation++;
+        objects.clear();
+    }
+
+    public synchronized int getSize() {
+        return objects.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static EDBObject copy(EDBObject object) {
+        return new EDBObject((Map<String, Object>) object);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.openengsb.core.api.edb.EDBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Merges EDBEvents which arrive at nearly the same time into one commit. The thread whose event is the first in the
+ * queue becomes the leader. It waits until the window is over or enough events are queued and then lets the
+ * JPADatabase commit a group of compatible events from the front of the queue in its own transaction. The other
+ * threads wait until the transaction of the leader is completed and get the outcome of their events. If the group
+ * can't be committed, its events are committed one by one, so an event only fails because of its own changes. Since
+ * always a prefix of the queue is committed, events which touch the same oids are committed in the order they arrived.
+ */
+public class GroupCommitPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitPipeline.class);
+
+    private final JPADatabase database;
+    private final long window;
+    private final int maxSize;
+    private final LinkedList<QueuedEDBEvent> queue = new LinkedList<QueuedEDBEvent>();
+    private boolean leaderActive = false;
+
+    public GroupCommitPipeline(JPADatabase database, long window, int maxSize) {
+        this.database = database;
+        this.window = window;
+        this.maxSize = Math.max(maxSize, 1);
+    }
+
+    /**
+     * queues the event and returns as soon as it has been committed. If the event could not be committed, the reason
+     * is thrown as EDBException.
+     */
+    public void submit(QueuedEDBEvent event) throws EDBException {
+        boolean interrupted = false;
+        List<QueuedEDBEvent> candidates;
+        synchronized (queue) {
+            queue.add(event);
+            queue.notifyAll();
+            // events which the leader has taken out of the queue wait until its transaction is completed
+            while (!event.isDone() && (leaderActive || queue.peekFirst() != event)) {
+                interrupted |= waitForQueue(0);
+            }
+            if (event.isDone()) {
+                finish(event, interrupted);
+                return;
+            }
+            leaderActive = true;
+            long end = System.currentTimeMillis() + window;
+            long remaining = window;
+            while (queue.size() < maxSize && remaining > 0) {
+                interrupted |= waitForQueue(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            candidates = new ArrayList<QueuedEDBEvent>(queue.subList(0, Math.min(maxSize, queue.size())));
+        }
+        int processed = 0;
+        try {
+            processed = database.processEventGroup(this, candidates);
+        } finally {
+            synchronized (queue) {
+                for (int i = 0; i < processed; i++) {
+                    queue.removeFirst();
+                }
+                // events which already got their outcome must not stay in front of the queue, even if the group failed
+                for (Iterator<QueuedEDBEvent> iterator = queue.iterator(); iterator.hasNext();) {
+                    if (iterator.next().isDone()) {
+                        iterator.remove();
+                    }
+                }
+                if (!event.isDone()) {
+                    queue.remove(event);
+                    event.fail(new EDBException("the event could not be committed"));
+                }
+                leaderActive = false;
+                queue.notifyAll();
+            }
+        }
+        LOGGER.debug("committed a group of {} events", processed);
+        finish(event, interrupted);
+    }
+
+    /**
+     * marks the given events with the outcome of the transaction in which they were committed and wakes up their
+     * callers. The events are successful if no error is given.
+     */
+    void complete(List<QueuedEDBEvent> events, EDBException error) {
+        synchronized (queue) {
+            for (QueuedEDBEvent event : events) {
+                if (error == null) {
+                    event.succeed();
+                } else {
+                    event.fail(error);
+                }
+            }
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * waits at most the given time in milliseconds (or infinitely if it is 0) for a change of the queue and returns
+     * true if the thread was interrupted while waiting
+     */
+    private boolean waitForQueue(long timeout) {
+        try {
+            queue.wait(timeout);
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+
+    private void finish(QueuedEDBEvent event, boolean interrupted) throws EDBException {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (event.getError() != null) {
+            throw event.getError();
+        }
+    }
+}
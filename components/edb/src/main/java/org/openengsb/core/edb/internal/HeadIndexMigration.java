@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.openengsb.core.edb.internal.dao.JPADao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The steps which migrate a database that was filled by an older version of the EDB. Every step only works on what is
+ * still missing and commits its work in chunks through the JPADatabase, which runs the migration in a transaction of
+ * its own.
+ */
+public class HeadIndexMigration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadIndexMigration.class);
+    private static final int HEAD_INDEX_BUILD_CHUNK_SIZE = 1000;
+
+    private final EntityManager entityManager;
+    private final JPADao dao;
+    private final DeltaCodec deltaCodec;
+    private final IndexDefinition indexDefinition;
+    private final JPADatabase database;
+
+    public HeadIndexMigration(EntityManager entityManager, JPADao dao, DeltaCodec deltaCodec,
+            IndexDefinition indexDefinition, JPADatabase database) {
+        this.entityManager = entityManager;
+        this.dao = dao;
+        this.deltaCodec = deltaCodec;
+        this.indexDefinition = indexDefinition;
+        this.database = database;
+    }
+
+    /**
+     * numbers the commits which were saved before the revisions were introduced in the order of their timestamps and
+     * gives every JPAObject without a revision the revision of the commit with its timestamp
+     */
+    public void backfillRevisions() {
+        long revision = dao.getMaxRevision();
+        List<JPACommit> commits = dao.getJPACommitsWithoutRevision(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!commits.isEmpty()) {
+            LOGGER.info("filling in the revisions of {} commits", commits.size());
+            for (JPACommit commit : commits) {
+                commit.setRevisionNumber(++revision);
+            }
+            database.commitMigrationChunk();
+            commits = dao.getJPACommitsWithoutRevision(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+
+        List<JPAObject> objects = dao.getJPAObjectsWithoutRevision(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!objects.isEmpty()) {
+            LOGGER.info("filling in the revisions of {} objects", objects.size());
+            List<Long> timestamps = new ArrayList<Long>();
+            for (JPAObject object : objects) {
+                timestamps.add(object.getTimestamp());
+            }
+            Map<Long, Long> revisions = dao.getRevisionsOfTimestamps(timestamps);
+            for (JPAObject object : objects) {
+                Long objectRevision = revisions.get(object.getTimestamp());
+                object.setRevision(objectRevision != null ? objectRevision : 0L);
+            }
+            database.commitMigrationChunk();
+            objects = dao.getJPAObjectsWithoutRevision(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * sets the commit reference of every JPAObject which has none to the commit with its revision. Objects whose commit
+     * doesn't exist any more are skipped.
+     */
+    public void backfillCommitReferences() {
+        int orphans = 0;
+        List<JPAObject> objects = dao.getJPAObjectsWithoutCommit(orphans, HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!objects.isEmpty()) {
+            LOGGER.info("filling in the commit references of {} objects", objects.size());
+            Set<Long> revisions = new HashSet<Long>();
+            for (JPAObject object : objects) {
+                revisions.add(object.getRevision());
+            }
+            Map<Long, JPACommit> commits = new HashMap<Long, JPACommit>();
+            for (JPACommit commit : dao.getJPACommitsOfRevisions(new ArrayList<Long>(revisions))) {
+                commits.put(commit.getRevisionNumber(), commit);
+            }
+            for (JPAObject object : objects) {
+                JPACommit commit = commits.get(object.getRevision());
+                if (commit != null) {
+                    object.setCommit(commit);
+                } else {
+                    orphans++;
+                }
+            }
+            database.commitMigrationChunk();
+            if (objects.size() < HEAD_INDEX_BUILD_CHUNK_SIZE) {
+                break;
+            }
+            objects = dao.getJPAObjectsWithoutCommit(orphans, HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * creates the JPAHeadObjects for all oids out of the history
+     */
+    public void buildHeadIndex() {
+        LOGGER.info("building up the head objects of the EDB out of the history");
+        String lastOid = null;
+        List<JPAObject> objects;
+        do {
+            objects = dao.getNewestJPAObjectsFromHistory(lastOid, HEAD_INDEX_BUILD_CHUNK_SIZE);
+            Map<String, JPAHeadObject> heads = new HashMap<String, JPAHeadObject>();
+            database.loadHeads(JPADatabase.getOIDs(objects), heads);
+            for (JPAObject object : objects) {
+                JPAHeadObject head = heads.get(object.getOID());
+                if (head == null) {
+                    head = new JPAHeadObject(object.getOID());
+                    head.setObject(object);
+                    head.setVersion(null);
+                    head.setResurrections(null);
+                    entityManager.persist(head);
+                    heads.put(object.getOID(), head);
+                } else if (object.isDeleted()) {
+                    // an object which was added and deleted in the same commit counts as deleted
+                    head.setObject(object);
+                }
+            }
+            if (!objects.isEmpty()) {
+                lastOid = objects.get(objects.size() - 1).getOID();
+            }
+            database.commitMigrationChunk();
+        } while (objects.size() == HEAD_INDEX_BUILD_CHUNK_SIZE);
+        LOGGER.info("head objects of the EDB successfully built up");
+    }
+
+    /**
+     * sets the version counters of all JPAHeadObjects which have none to the number of their saved versions
+     */
+    public void backfillVersionCounters() {
+        List<JPAHeadObject> heads = dao.getJPAHeadObjectsWithoutVersion(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!heads.isEmpty()) {
+            LOGGER.info("filling in the version counters of {} head objects", heads.size());
+            List<String> oids = new ArrayList<String>();
+            for (JPAHeadObject head : heads) {
+                oids.add(head.getOID());
+            }
+            Map<String, Integer> versions = dao.countVersionsFromHistory(oids);
+            for (JPAHeadObject head : heads) {
+                Integer version = versions.get(head.getOID());
+                head.setVersion(version != null ? version : 0);
+            }
+            database.commitMigrationChunk();
+            heads = dao.getJPAHeadObjectsWithoutVersion(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * saves the JPAResurrections of all oids whose JPAHeadObject has no resurrection counter out of the history and
+     * sets the counter
+     */
+    public void backfillResurrections() {
+        List<JPAHeadObject> heads = dao.getJPAHeadObjectsWithoutResurrections(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!heads.isEmpty()) {
+            LOGGER.info("building up the resurrections of {} head objects", heads.size());
+            Map<String, JPAHeadObject> headsByOid = new HashMap<String, JPAHeadObject>();
+            for (JPAHeadObject head : heads) {
+                head.setResurrections(0);
+                headsByOid.put(head.getOID(), head);
+            }
+            for (JPAResurrection resurrection : dao.createJPAResurrectionsFromHistory(
+                new ArrayList<String>(headsByOid.keySet()))) {
+                entityManager.persist(resurrection);
+                headsByOid.get(resurrection.getOID()).countResurrection();
+            }
+            database.commitMigrationChunk();
+            heads = dao.getJPAHeadObjectsWithoutResurrections(HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * drops the secondary indexes of all keys which are no longer declared and builds up the indexes of all declared
+     * keys which are not completely built up yet. Entries which were left over from an earlier declaration of a key
+     * are dropped before its index is built up again, since they may be stale. If decodeHead is set, the indexes are
+     * built up out of the decoded current state, since it may be saved as deltas or payloads.
+     */
+    public void buildSecondaryIndexes(boolean decodeHead) {
+        Set<String> builtKeys = new HashSet<String>();
+        for (JPAIndexedKey indexedKey : dao.getJPAIndexedKeys()) {
+            if (indexDefinition.isIndexed(indexedKey.getKey())) {
+                builtKeys.add(indexedKey.getKey());
+            } else {
+                LOGGER.info("dropping the secondary index of the key {}", indexedKey.getKey());
+                removeIndexEntriesOfKey(indexedKey.getKey());
+                // the marker is detached by the chunk commits of the removal
+                entityManager.remove(entityManager.find(JPAIndexedKey.class, indexedKey.getKey()));
+                database.commitMigrationChunk();
+            }
+        }
+        for (String key : indexDefinition.getKeys()) {
+            if (builtKeys.contains(key)) {
+                continue;
+            }
+            LOGGER.info("building up the secondary index of the key {}", key);
+            removeIndexEntriesOfKey(key);
+            if (decodeHead) {
+                buildSecondaryIndexFromDecodedHead(key);
+            } else {
+                String lastOid = null;
+                List<JPAIndexEntry> entries;
+                do {
+                    entries = dao.createJPAIndexEntriesFromHead(key, lastOid, HEAD_INDEX_BUILD_CHUNK_SIZE);
+                    for (JPAIndexEntry entry : entries) {
+                        entityManager.persist(entry);
+                        lastOid = entry.getOID();
+                    }
+                    database.commitMigrationChunk();
+                } while (entries.size() == HEAD_INDEX_BUILD_CHUNK_SIZE);
+            }
+            entityManager.persist(new JPAIndexedKey(key));
+            database.commitMigrationChunk();
+        }
+    }
+
+    /**
+     * removes all JPAIndexEntries of the given key
+     */
+    private void removeIndexEntriesOfKey(String key) {
+        List<JPAIndexEntry> entries = dao.getJPAIndexEntriesOfKey(key, HEAD_INDEX_BUILD_CHUNK_SIZE);
+        while (!entries.isEmpty()) {
+            for (JPAIndexEntry entry : entries) {
+                entityManager.remove(entry);
+            }
+            database.commitMigrationChunk();
+            entries = dao.getJPAIndexEntriesOfKey(key, HEAD_INDEX_BUILD_CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * builds up the secondary index of the given key out of the decoded objects of the current state, since the
+     * current version of an oid may be saved as delta which doesn't contain the key, or as payload without a JPAEntry
+     * for a key which was not queryable when it was saved
+     */
+    private void buildSecondaryIndexFromDecodedHead(String key) {
+        String lastOid = null;
+        List<JPAObject> objects;
+        do {
+            objects = dao.getHeadJPAObjects(lastOid, HEAD_INDEX_BUILD_CHUNK_SIZE);
+            for (JPAObject object : deltaCodec.decode(objects)) {
+                for (JPAEntry entry : object.getPairs()) {
+                    if (entry.getKey().equals(key) && entry.getStringValue() != null) {
+                        entityManager.persist(new JPAIndexEntry(object.getOID(), key, entry.getStringValue()));
+                    }
+                }
+                lastOid = object.getOID();
+            }
+            database.commitMigrationChunk();
+        } while (objects.size() == HEAD_INDEX_BUILD_CHUNK_SIZE);
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openengsb.core.api.edb.EDBEvent;
+import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.api.model.OpenEngSBModel;
+import org.openengsb.core.api.model.OpenEngSBModelEntry;
+import org.openengsb.core.edb.internal.dao.JPADao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the oids of all models (including their sub models) of an EDBEvent and loads the JPAHeadObjects of these
+ * oids with a few set based queries. This way the existence, deletion and version checks which are done while
+ * processing the event need no database round trip per model. It also remembers the oids whose models have to be
+ * merged with the versions which were saved since the model was read.
+ */
+public class HeadObjectLookup {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HeadObjectLookup.class);
+    private static final int QUERY_CHUNK_SIZE = 500;
+
+    private JPADao dao;
+    private OIDGenerator oidGenerator;
+    private EDBEvent event;
+    private Map<OpenEngSBModel, String> oids;
+    private Set<String> pending;
+    private Map<String, JPAHeadObject> heads;
+    private Map<String, Integer> mergeBases;
+
+    public HeadObjectLookup(JPADao dao, OIDGenerator oidGenerator, EDBEvent event) {
+        this.dao = dao;
+        this.oidGenerator = oidGenerator;
+        this.event = event;
+        oids = new IdentityHashMap<OpenEngSBModel, String>();
+        pending = new LinkedHashSet<String>();
+        heads = new HashMap<String, JPAHeadObject>();
+        mergeBases = new HashMap<String, Integer>();
+    }
+
+    /**
+     * adds the given models and all their sub models to the lookup. Their head objects are loaded with the next call
+     * of load.
+     */
+    public void addModels(List<OpenEngSBModel> models) {
+        if (models == null) {
+            return;
+        }
+        for (OpenEngSBModel model : models) {
+            addModel(model);
+        }
+    }
+
+    private void addModel(OpenEngSBModel model) {
+        if (oids.containsKey(model)) {
+            return;
+        }
+        String oid = oidGenerator.createOID(model, event);
+        oids.put(model, oid);
+        if (!heads.containsKey(oid)) {
+            pending.add(oid);
+        }
+        for (OpenEngSBModelEntry entry : model.getOpenEngSBModelEntries()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            if (OpenEngSBModel.class.isAssignableFrom(entry.getType())) {
+                addModel((OpenEngSBModel) entry.getValue());
+            } else if (List.class.isAssignableFrom(entry.getType())) {
+                for (Object element : (List<?>) entry.getValue()) {
+                    if (element instanceof OpenEngSBModel) {
+                        addModel((OpenEngSBModel) element);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * loads the head objects of all added oids which haven't been loaded yet
+     */
+    public void load() throws EDBException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        LOGGER.debug("loading the head objects of {} oids", pending.size());
+        List<String> chunk = new ArrayList<String>();
+        for (String oid : pending) {
+            heads.put(oid, null);
+            chunk.add(oid);
+            if (chunk.size() == QUERY_CHUNK_SIZE) {
+                loadChunk(chunk);
+                chunk.clear();
+            }
+        }
+        loadChunk(chunk);
+        pending.clear();
+    }
+
+    /**
+     * marks all added oids which haven't been loaded yet as not existing without asking the database. May only be
+     * used if the caller guarantees that none of these oids has been saved yet.
+     */
+    public void assumeNew() {
+        for (String oid : pending) {
+            heads.put(oid, null);
+        }
+        pending.clear();
+    }
+
+    private void loadChunk(List<String> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        for (JPAHeadObject head : dao.getJPAHeadObjects(chunk)) {
+            heads.put(head.getOID(), head);
+        }
+    }
+
+    /**
+     * returns the oids of all models which were added to the lookup
+     */
+    public Set<String> getOIDs() {
+        return new HashSet<String>(oids.values());
+    }
+
+    public EDBEvent getEvent() {
+        return event;
+    }
+
+    /**
+     * returns the oid of the given model. The oid is only created once per model, so that models without an edbId get
+     * the same oid every time this method is called.
+     */
+    public String getOID(OpenEngSBModel model) {
+        String oid = oids.get(model);
+        if (oid == null) {
+            oid = oidGenerator.createOID(model, event);
+            oids.put(model, oid);
+        }
+        return oid;
+    }
+
+    /**
+     * returns the head object of the given oid or null if there is no object saved under this oid. Oids which were not
+     * loaded in advance are loaded from the database.
+     */
+    public JPAHeadObject getHead(String oid) throws EDBException {
+        if (!heads.containsKey(oid)) {
+            heads.put(oid, dao.getJPAHeadObject(oid));
+        }
+        return heads.get(oid);
+    }
+
+    /**
+     * returns the head objects which have been loaded so far by their oid. Oids without a head object are mapped to
+     * null. The commit of the event updates these head objects instead of loading them again.
+     */
+    public Map<String, JPAHeadObject> getHeads() {
+        return new HashMap<String, JPAHeadObject>(heads);
+    }
+
+    /**
+     * returns true if there is an object saved under the given oid which is not deleted
+     */
+    public boolean isActive(String oid) throws EDBException {
+        JPAHeadObject head = getHead(oid);
+        return head != null && !head.isDeleted();
+    }
+
+    /**
+     * returns the version of the object saved under the given oid or 0 if there is no object with this oid
+     */
+    public Integer getVersion(String oid) throws EDBException {
+        JPAHeadObject head = getHead(oid);
+        return head != null ? head.getVersion() : 0;
+    }
+
+    /**
+     * marks that the model of the given oid was read at the given version and has to be merged with the newer versions
+     */
+    public void markForMerge(String oid, Integer version) {
+        mergeBases.put(oid, version);
+    }
+
+    /**
+     * returns the version at which the model of the given oid was read if it has to be merged, or null otherwise
+     */
+    public Integer getMergeBase(String oid) {
+        return mergeBases.get(oid);
+    }
+
+    /**
+     * returns the number of models which are merged with the newer versions of their oid
+     */
+    public int getMergeCount() {
+        return mergeBases.size();
+    }
+}
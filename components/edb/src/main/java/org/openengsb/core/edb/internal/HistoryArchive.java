@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openengsb.core.api.edb.EDBException;
+
+/**
+ * Reads and writes the gzip compressed archive files of the history compaction. An archive file contains the removed
+ * JPAObjects with their oid, timestamp, revision and all JPAEntries, so that they can be imported into the history
+ * again. The values are saved with their type, so they are restored as they were saved.
+ */
+public final class HistoryArchive {
+    private static final int FORMAT_VERSION = 1;
+
+    private HistoryArchive() {
+    }
+
+    /**
+     * writes the given JPAObjects into a new archive file
+     */
+    public static void write(File file, List<JPAObject> objects) throws EDBException {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+            out.writeInt(FORMAT_VERSION);
+            for (JPAObject object : objects) {
+                out.writeBoolean(true);
+                writeObject(out, object);
+            }
+            out.writeBoolean(false);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            throw new EDBException("failed to write the archive file " + file, e);
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * reads all JPAObjects of the given archive file
+     */
+    public static List<JPAObject> read(File file) throws EDBException {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new EDBException("unsupported archive format " + version + " of the file " + file);
+            }
+            List<JPAObject> objects = new ArrayList<JPAObject>();
+            while (in.readBoolean()) {
+                objects.add(readObject(in));
+            }
+            return objects;
+        } catch (EOFException e) {
+            throw new EDBException("the archive file " + file + " is incomplete", e);
+        } catch (IOException e) {
+            throw new EDBException("failed to read the archive file " + file, e);
+        } finally {
+            close(in);
+        }
+    }
+
+    private static void writeObject(DataOutputStream out, JPAObject object) throws IOException {
+        out.writeUTF(object.getOID());
+        out.writeLong(object.getTimestamp());
+        out.writeLong(object.getRevision());
+        out.writeBoolean(object.isDeleted());
+        out.writeInt(object.getPairs().size());
+        for (JPAEntry entry : object.getPairs()) {
+            out.writeUTF(entry.getKey());
+            writeValue(out, entry);
+        }
+    }
+
+    private static JPAObject readObject(DataInputStream in) throws IOException {
+        String oid = in.readUTF();
+        long timestamp = in.readLong();
+        long revision = in.readLong();
+        boolean deleted = in.readBoolean();
+        int size = in.readInt();
+        List<JPAEntry> entries = new ArrayList<JPAEntry>(size);
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            entries.add(new JPAEntry(key, readValue(in)));
+        }
+        return new JPAObject(oid, timestamp, revision, deleted, entries);
+    }
+
+    /**
+     * writes the type of the entry followed by its value. Types without a typed column are written as string.
+     */
+    private static void writeValue(DataOutputStream out, JPAEntry entry) throws IOException {
+        Object value = entry.getValue();
+        if (value instanceof byte[]) {
+            out.writeUTF(JPAEntry.TYPE_BINARY);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Date) {
+            out.writeUTF(JPAEntry.TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            out.writeUTF(value.getClass().getName());
+            out.writeUTF(value.toString());
+        } else {
+            out.writeUTF(JPAEntry.TYPE_STRING);
+            writeBytes(out, String.valueOf(value).getBytes("UTF-8"));
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        String type = in.readUTF();
+        if (JPAEntry.TYPE_BINARY.equals(type)) {
+            return readBytes(in);
+        } else if (JPAEntry.TYPE_DATE.equals(type)) {
+            return new Date(in.readLong());
+        } else if (JPAEntry.TYPE_STRING.equals(type)) {
+            return new String(readBytes(in), "UTF-8");
+        }
+        String value = in.readUTF();
+        if (JPAEntry.TYPE_INTEGER.equals(type)) {
+            return Integer.valueOf(value);
+        } else if (JPAEntry.TYPE_LONG.equals(type)) {
+            return Long.valueOf(value);
+        } else if (JPAEntry.TYPE_SHORT.equals(type)) {
+            return Short.valueOf(value);
+        } else if (JPAEntry.TYPE_BYTE.equals(type)) {
+            return Byte.valueOf(value);
+        } else if (JPAEntry.TYPE_DOUBLE.equals(type)) {
+            return Double.valueOf(value);
+        } else if (JPAEntry.TYPE_FLOAT.equals(type)) {
+            return Float.valueOf(value);
+        } else if (JPAEntry.TYPE_BOOLEAN.equals(type)) {
+            return Boolean.valueOf(value);
+        } else if (JPAEntry.TYPE_DECIMAL.equals(type)) {
+            return new BigDecimal(value);
+        }
+        // numbers without a typed column, like BigInteger, are saved as string anyway
+        return value;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void close(Closeable stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // only reached after an earlier error or for input streams which have been read completely
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openengsb.core.api.edb.EngineeringDatabaseService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the history compaction of the EDB periodically in the background. Every run calls compactHistory of the
+ * EngineeringDatabaseService until all versions outside of the retention policy are removed. Since the service is
+ * called through its transactional proxy, every chunk is removed in a transaction of its own.
+ */
+public class HistoryCompactionJob {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryCompactionJob.class);
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private EngineeringDatabaseService edbService;
+    private long interval = 0;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ScheduledExecutorService executor;
+
+    /**
+     * starts the periodic compaction, if an interval is set
+     */
+    public synchronized void start() {
+        if (interval <= 0 || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "EDB history compaction");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    // the next run tries it again, an exception would stop the periodic execution
+                    LOGGER.error("the compaction of the EDB history failed", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        LOGGER.info("compacting the EDB history every {} milliseconds", interval);
+    }
+
+    /**
+     * stops the periodic compaction. A chunk which is removed at the moment is finished.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * removes all versions which are outside of the retention policy in chunks and returns their number
+     */
+    public int compact() {
+        int total = 0;
+        int removed;
+        do {
+            removed = edbService.compactHistory(chunkSize);
+            total += removed;
+        } while (removed >= chunkSize);
+        if (total > 0) {
+            LOGGER.info("removed {} versions out of the EDB history", total);
+        }
+        return total;
+    }
+
+    public void setEdbService(EngineeringDatabaseService edbService) {
+        this.edbService = edbService;
+    }
+
+    /**
+     * sets the milliseconds between two runs of the compaction. A value of 0 or less disables the background job.
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * sets how many versions are removed at most in one transaction
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+}
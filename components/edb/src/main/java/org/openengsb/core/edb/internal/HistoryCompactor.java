@@ -0,0 +1,271 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+import org.openengsb.core.edb.internal.dao.JPADao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Removes the versions which are outside of the retention policy out of the history, after writing them into an
+ * archive file, and imports archived versions back. All work is done in the transaction of the caller, the
+ * JPADatabase begins and ends it.
+ */
+public class HistoryCompactor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HistoryCompactor.class);
+    private static final int QUERY_CHUNK_SIZE = 500;
+    private static final String ARCHIVE_TEMP_SUFFIX = ".tmp";
+
+    private final EntityManager entityManager;
+    private final JPADao dao;
+    private final DeltaCodec deltaCodec;
+    private final SnapshotStore snapshots;
+    private final JPADatabase database;
+
+    public HistoryCompactor(EntityManager entityManager, JPADao dao, DeltaCodec deltaCodec, SnapshotStore snapshots,
+            JPADatabase database) {
+        this.entityManager = entityManager;
+        this.dao = dao;
+        this.deltaCodec = deltaCodec;
+        this.snapshots = snapshots;
+        this.database = database;
+    }
+
+    /**
+     * writes the given JPAObjects into a new temporary archive file in the given directory, if it is not null, and
+     * returns the file. The file only gets its final name when the transaction is committed, see completeArchive.
+     */
+    public File archive(List<JPAObject> objects, File archiveDirectory) {
+        if (archiveDirectory == null) {
+            return null;
+        }
+        String name = String.format("edb-archive-%d-%d-%d.gz%s", objects.get(0).getRevision(),
+            objects.get(objects.size() - 1).getRevision(), System.currentTimeMillis(), ARCHIVE_TEMP_SUFFIX);
+        File file = new File(archiveDirectory, name);
+        HistoryArchive.write(file, deltaCodec.decode(objects));
+        return file;
+    }
+
+    /**
+     * renames the given temporary archive file to its final name once the transaction which removed its versions is
+     * committed, or deletes it if the transaction is rolled back
+     */
+    public void completeArchive(final File archive) {
+        if (archive == null) {
+            return;
+        }
+        database.runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                String name = archive.getName();
+                File target = new File(archive.getParentFile(),
+                    name.substring(0, name.length() - ARCHIVE_TEMP_SUFFIX.length()));
+                if (!archive.renameTo(target)) {
+                    LOGGER.error("failed to rename the archive file {} to {}", archive, target);
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                discardArchive(archive);
+            }
+        });
+    }
+
+    /**
+     * deletes the given temporary archive file of a compaction which was not committed
+     */
+    public void discardArchive(File archive) {
+        if (archive != null && !archive.delete()) {
+            LOGGER.warn("failed to delete the archive file {}", archive);
+        }
+    }
+
+    /**
+     * removes the given JPAObjects with their JPAEntries. If delta versions may have been saved, the remaining versions
+     * whose chain contains one of them are repaired before. The snapshots without tag which reference one of them are
+     * removed too, since they could not be used for point-in-time reads any more.
+     */
+    public void remove(List<JPAObject> objects, boolean deltaVersions) {
+        if (deltaVersions) {
+            rebaseRemainingVersions(objects);
+        }
+        for (Long revision : dao.getUntaggedJPASnapshotRevisions(objects)) {
+            snapshots.remove(revision);
+        }
+        entityManager.flush();
+        for (JPAObject object : objects) {
+            entityManager.remove(object);
+        }
+    }
+
+    /**
+     * repairs the delta versions whose chain contains one of the given versions, which are about to be removed. Such
+     * a version is rebased onto the newest full version of its oid after the last removed version of its chain, if
+     * there is one, otherwise it is turned into a full version, which the following broken versions are based on.
+     * This includes the tagged versions which are kept between removed versions. All versions which are turned into
+     * full versions are decoded before the first one is changed, since their chains overlap.
+     */
+    private void rebaseRemainingVersions(List<JPAObject> removed) {
+        Map<String, Set<Long>> removedRevisions = new HashMap<String, Set<Long>>();
+        long oldest = Long.MAX_VALUE;
+        for (JPAObject object : removed) {
+            Set<Long> revisions = removedRevisions.get(object.getOID());
+            if (revisions == null) {
+                revisions = new HashSet<Long>();
+                removedRevisions.put(object.getOID(), revisions);
+            }
+            revisions.add(object.getRevision());
+            oldest = Math.min(oldest, object.getRevision());
+        }
+        List<String> oids = new ArrayList<String>(removedRevisions.keySet());
+        for (int i = 0; i < oids.size(); i += QUERY_CHUNK_SIZE) {
+            List<String> chunk = oids.subList(i, Math.min(i + QUERY_CHUNK_SIZE, oids.size()));
+            Map<String, List<JPAObject>> versionsByOid = new HashMap<String, List<JPAObject>>();
+            for (JPAObject version : dao.getJPAObjectVersions(chunk, oldest, Long.MAX_VALUE)) {
+                List<JPAObject> versions = versionsByOid.get(version.getOID());
+                if (versions == null) {
+                    versions = new ArrayList<JPAObject>();
+                    versionsByOid.put(version.getOID(), versions);
+                }
+                versions.add(version);
+            }
+            List<JPAObject> materialized = new ArrayList<JPAObject>();
+            Map<JPAObject, Long> rebased = new HashMap<JPAObject, Long>();
+            for (Map.Entry<String, List<JPAObject>> versions : versionsByOid.entrySet()) {
+                planRepair(versions.getValue(), removedRevisions.get(versions.getKey()), materialized, rebased);
+            }
+            List<JPAObject> decoded = deltaCodec.decode(materialized);
+            for (int j = 0; j < materialized.size(); j++) {
+                materializeVersion(materialized.get(j), decoded.get(j));
+            }
+            for (Map.Entry<JPAObject, Long> entry : rebased.entrySet()) {
+                entry.getKey().setBaseRevision(entry.getValue());
+            }
+        }
+        entityManager.flush();
+    }
+
+    /**
+     * decides for the given versions of an oid, ordered by their revision, which of the remaining delta versions
+     * with a removed version in their chain are turned into full versions and which are rebased onto which revision
+     */
+    private void planRepair(List<JPAObject> versions, Set<Long> removedRevisions, List<JPAObject> materialized,
+            Map<JPAObject, Long> rebased) {
+        Long lastRemoved = null;
+        JPAObject newBase = null;
+        for (JPAObject version : versions) {
+            if (removedRevisions.contains(version.getRevision())) {
+                lastRemoved = version.getRevision();
+            } else if (!version.isDelta()) {
+                if (!version.isDeleted()) {
+                    newBase = version;
+                }
+            } else if (lastRemoved != null && version.getBaseRevision() <= lastRemoved) {
+                if (newBase != null && newBase.getRevision() > lastRemoved) {
+                    rebased.put(version, newBase.getRevision());
+                } else {
+                    materialized.add(version);
+                    newBase = version;
+                }
+            }
+        }
+    }
+
+    /**
+     * replaces the entries of the given delta version with copies of all entries of its given decoded state
+     */
+    private void materializeVersion(JPAObject version, JPAObject decoded) {
+        LOGGER.debug("saving the version {} of {} as full version", version.getRevision(), version.getOID());
+        List<JPAEntry> entries = new ArrayList<JPAEntry>();
+        for (JPAEntry entry : decoded.getPairs()) {
+            entries.add(new JPAEntry(entry.getKey(), entry.getValue()));
+        }
+        for (JPAEntry entry : version.getStoredPairs()) {
+            entityManager.remove(entry);
+        }
+        version.setPairs(entries);
+        version.setBaseRevision(version.getRevision());
+        database.encodePayload(version);
+    }
+
+    /**
+     * imports the given archived JPAObjects, which are not saved yet, and returns their number. The secondary index
+     * entries are written once for every oid whose newest version was imported.
+     */
+    public int importObjects(List<JPAObject> objects) {
+        int imported = 0;
+        Map<String, JPAHeadObject> heads = new HashMap<String, JPAHeadObject>();
+        database.loadHeads(JPADatabase.getOIDs(objects), heads);
+        List<String> existing = JPADatabase.getExistingOIDs(objects, heads);
+        Map<Long, JPACommit> commits = new HashMap<Long, JPACommit>();
+        Map<String, JPAObject> newest = new LinkedHashMap<String, JPAObject>();
+        for (JPAObject object : objects) {
+            if (dao.hasJPAObject(object.getOID(), object.getRevision())) {
+                continue;
+            }
+            importJPAObject(object, heads, commits, newest);
+            imported++;
+        }
+        existing.retainAll(newest.keySet());
+        database.removeIndexEntries(existing);
+        for (JPAObject object : newest.values()) {
+            database.addIndexEntries(object);
+        }
+        return imported;
+    }
+
+    /**
+     * persists an archived JPAObject. It only becomes the newest version of its oid if its oid has no newer version,
+     * which is only the case if it is imported into another database. The head objects of the oids have to be loaded
+     * into the given map before, the commits are looked up once per revision. The objects which became the newest
+     * version of their oid are put into the given map, so their index entries are written once at the end.
+     */
+    private void importJPAObject(JPAObject object, Map<String, JPAHeadObject> heads, Map<Long, JPACommit> commits,
+            Map<String, JPAObject> newest) {
+        if (!commits.containsKey(object.getRevision())) {
+            commits.put(object.getRevision(), dao.getJPACommitByRevision(object.getRevision()));
+        }
+        object.setCommit(commits.get(object.getRevision()));
+        object.setBaseRevision(object.getRevision());
+        database.encodePayload(object);
+        entityManager.persist(object);
+        JPAHeadObject head = heads.get(object.getOID());
+        if (head == null) {
+            head = new JPAHeadObject(object.getOID());
+            head.update(object);
+            entityManager.persist(head);
+            heads.put(object.getOID(), head);
+            newest.put(object.getOID(), object);
+        } else if (head.getObject().getRevision() < object.getRevision()) {
+            head.update(object);
+            newest.put(object.getOID(), object);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Contains the keys for which the EDB maintains secondary indexes. Queries which compare one of these keys for
+ * equality are answered with the help of the index instead of searching through the entries of all objects.
+ */
+public class IndexDefinition {
+    private volatile Set<String> keys = Collections.emptySet();
+
+    public void setKeys(Collection<String> keys) {
+        this.keys = Collections.unmodifiableSet(new HashSet<String>(keys));
+    }
+
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    public boolean isIndexed(String key) {
+        return keys.contains(key);
+    }
+
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+}
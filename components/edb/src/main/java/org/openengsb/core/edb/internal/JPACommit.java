@@ -18,6 +18,7 @@
 package org.openengsb.core.edb.internal;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.Column;
@@ -26,6 +27,7 @@ import javax.persistence.Entity;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 
+import org.apache.openjpa.persistence.jdbc.Index;
 import org.openengsb.core.api.edb.EDBCommit;
 import org.openengsb.core.api.edb.EDBException;
 import org.openengsb.core.api.edb.EDBObject;
@@ -41,6 +43,9 @@ public class JPACommit implements EDBCommit {
     private String committer;
     @Column(name = "TIME")
     private Long timestamp;
+    @Index(name = "COMMIT_REVISION")
+    @Column(name = "REVISION")
+    private Long revision;
     @Column(name = "CONTEXT", length = 50)
     private String context;
     @Column(name = "DELS")
@@ -51,6 +56,11 @@ public class JPACommit implements EDBCommit {
     private List<String> oids;
     @Column(name = "ISCOMMITED")
     private Boolean committed = false;
+    @Index(name = "COMMIT_BATCH")
+    @Column(name = "BATCHID", length = 100)
+    private String batchId;
+    @Column(name = "BATCHSLICE")
+    private Integer batchSlice;
 
     private List<EDBObject> objects;
 
@@ -111,11 +121,37 @@ public class JPACommit implements EDBCommit {
         return timestamp;
     }
 
+    @Override
+    public Long getRevisionNumber() {
+        return revision;
+    }
+
+    @Override
+    public void setRevisionNumber(Long revisionNumber) {
+        revision = revisionNumber;
+    }
+
     @Override
     public final String getContextId() {
         return context;
     }
 
+    /**
+     * marks this commit as the slice with the given number of the batch with the given id
+     */
+    public void setBatch(String batchId, Integer batchSlice) {
+        this.batchId = batchId;
+        this.batchSlice = batchSlice;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public Integer getBatchSlice() {
+        return batchSlice;
+    }
+
     @Override
     public void add(EDBObject obj) throws EDBException {
         if (!objects.contains(obj)) {
@@ -134,12 +170,25 @@ public class JPACommit implements EDBCommit {
         LOGGER.debug("deleted object " + oid + " from the commit");
     }
 
+    /**
+     * adds the oids of objects which were saved without being added to this commit, like the models of a bulk import
+     */
+    public void addImportedOIDs(Collection<String> importedOIDs) {
+        oids.addAll(importedOIDs);
+    }
+
     private void fillOIDs() {
         if (oids == null) {
             oids = new ArrayList<String>();
+        } else if (objects == null || objects.isEmpty()) {
+            // the oids of a bulk import are only saved in the oid list
+            return;
         } else {
             oids.clear();
         }
+        if (objects == null) {
+            return;
+        }
         for (EDBObject o : objects) {
             oids.add(o.getOID());
         }
@@ -17,31 +17,54 @@
 
 package org.openengsb.core.edb.internal;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
+import javax.persistence.EntityExistsException;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Persistence;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.openengsb.core.api.context.ContextHolder;
 import org.openengsb.core.api.edb.EDBBatchEvent;
+import org.openengsb.core.api.edb.EDBChange;
+import org.openengsb.core.api.edb.EDBChangeListener;
 import org.openengsb.core.api.edb.EDBCommit;
 import org.openengsb.core.api.edb.EDBDeleteEvent;
 import org.openengsb.core.api.edb.EDBEvent;
 import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.api.edb.EDBImportListener;
 import org.openengsb.core.api.edb.EDBInsertEvent;
 import org.openengsb.core.api.edb.EDBLogEntry;
 import org.openengsb.core.api.edb.EDBObject;
 import org.openengsb.core.api.edb.EDBUpdateEvent;
 import org.openengsb.core.api.model.OpenEngSBModel;
 import org.openengsb.core.api.model.OpenEngSBModelEntry;
+import org.openengsb.core.edb.internal.EDBMetrics.Operation;
 import org.openengsb.core.edb.internal.dao.DefaultJPADao;
 import org.openengsb.core.edb.internal.dao.JPADao;
 import org.slf4j.Logger;
@@ -50,21 +73,83 @@ import org.springframework.security.core.context.SecurityContextHolder;
 
 public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDatabaseService {
     private static final Logger LOGGER = LoggerFactory.getLogger(JPADatabase.class);
-    private EntityTransaction utx;
+    private static final int ITERATOR_CHUNK_SIZE = 500;
+    private static final int DEFAULT_SNAPSHOT_INTERVAL = 0;
+    private static final int DEFAULT_MAX_SNAPSHOTS = 10;
+    private static final int QUERY_CHUNK_SIZE = 500;
+    private static final int DEFAULT_GROUP_COMMIT_MAX_SIZE = 100;
+    private static final long MILLISECONDS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int DEFAULT_BULK_IMPORT_CHUNK_SIZE = 5000;
+    private static final long REVISION_WAIT_TIMEOUT = 10000;
+    private static final List<String> MERGE_IGNORED_KEYS = Arrays.asList("oid", ModelConverterUtils.MODELVERSION,
+        "domainId", "connectorId", "instanceId");
+    private boolean resourceLocal = false;
     @PersistenceContext(name = "openengsb-edb")
     private EntityManagerFactory emf;
     private EntityManager entityManager;
     private JPADao dao;
+    private DeltaCodec deltaCodec;
+    private PayloadCodec payloadCodec;
+    private SnapshotStore snapshots;
+    private HistoryCompactor compactor;
+    private HeadIndexMigration migration;
+    private IndexDefinition indexDefinition = new IndexDefinition();
+    private volatile boolean headIndexVerified = false;
+    private int snapshotInterval = DEFAULT_SNAPSHOT_INTERVAL;
+    private AtomicInteger commitsSinceSnapshot = new AtomicInteger();
+    private int maxSnapshots = DEFAULT_MAX_SNAPSHOTS;
+    private SnapshotWriter snapshotWriter = new SnapshotWriter(this);
+    private AtomicLong lastRevision = new AtomicLong();
+    // the allocated revisions whose commits are not completed yet, with the threads which commit them
+    private final TreeMap<Long, Thread> pendingRevisions = new TreeMap<Long, Thread>();
+    // the timestamp of the commit with the last allocated revision, guarded by pendingRevisions
+    private long lastTimestamp;
+    private final Object tagLock = new Object();
+    private volatile EDBObjectCache objectCache;
+    private volatile GroupCommitPipeline groupCommitPipeline;
+    private long groupCommitWindow = 0;
+    private int groupCommitMaxSize = DEFAULT_GROUP_COMMIT_MAX_SIZE;
+    private int retentionVersions = 0;
+    private int retentionDays = 0;
+    private File archiveDirectory;
+    private int bulkImportChunkSize = DEFAULT_BULK_IMPORT_CHUNK_SIZE;
+    private int fullVersionInterval = 0;
+    private volatile boolean deltaVersions = false;
+    private volatile boolean payloadEncoding = false;
+    // if versions have been saved as payload, which can't be found by queries for keys which are not indexed
+    private volatile boolean payloadsSaved = false;
+    private volatile boolean mergeUpdates = false;
+    private EDBMetrics metrics = new EDBMetrics();
+    private ChangeFeed changeFeed = new ChangeFeed(this);
+    private TransactionSynchronizationRegistry synchronizationRegistry;
+    private TransactionManager transactionManager;
+    private int batchSliceSize = 0;
+    private OIDPrefixRegistry oidPrefixes = new OIDPrefixRegistry();
+    private volatile OIDGenerator oidGenerator = new DefaultOIDGenerator();
+    // creates the oids of the models in the form under which they are saved, whichever generator is configured
+    private final OIDGenerator storedOIDGenerator = new OIDGenerator() {
+        @Override
+        public String createOID(OpenEngSBModel model, EDBEvent event) {
+            return oidPrefixes.toStoredOID(oidGenerator.createOID(model, event));
+        }
+    };
 
     /**
      * this is just for testing the JPADatabase. Should only be called in the corresponding test class.
      */
     public void open() throws EDBException {
+        open(new Properties());
+    }
+
+    /**
+     * opens the EDB outside of OSGi with the test persistence unit, whose properties are overridden by the given ones,
+     * e.g. openjpa.ConnectionURL for another H2 database. Used by the tests and the benchmarks.
+     */
+    public void open(Properties props) throws EDBException {
         LOGGER.debug("starting to open EDB for testing via JPA");
-        Properties props = new Properties();
         emf = Persistence.createEntityManagerFactory("edb-test", props);
-        setEntityManager(emf.createEntityManager());
-        utx = entityManager.getTransaction();
+        setEntityManager(ThreadBoundEntityManager.create(emf));
+        resourceLocal = true;
         LOGGER.debug("starting of EDB successful");
     }
 
@@ -72,12 +157,21 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
      * this is just for testing the JPADatabase. Should only be called in the corresponding test class.
      */
     public void close() {
+        snapshotWriter.stop();
         entityManager.close();
-        utx = null;
+        resourceLocal = false;
         entityManager = null;
         emf = null;
     }
 
+    /**
+     * stops the background work of the EDB when the bundle is stopped. A snapshot which is written at the moment is
+     * finished.
+     */
+    public void stop() {
+        snapshotWriter.stop();
+    }
+
     @Override
     public JPACommit createCommit(String committer, String contextId) {
         LOGGER.debug("creating commit for committer {} with contextId {}", committer, contextId);
@@ -86,316 +180,1877 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
 
     @Override
     public Long commit(EDBCommit commit) throws EDBException {
+        startCall();
+        return commit(commit, new HashMap<String, JPAHeadObject>());
+    }
+
+    /**
+     * commits the given commit. The given map contains the JPAHeadObjects which were already loaded for the checks of
+     * the commit, an oid without head object is mapped to null. The head objects of the other oids are loaded in
+     * chunks before the first version is written. The persistence context must not be cleared after the heads were
+     * loaded, so they are updated in place and their lock versions still detect concurrent commits.
+     */
+    private long commit(EDBCommit commit, Map<String, JPAHeadObject> heads) throws EDBException {
         if (commit.isCommitted()) {
             throw new EDBException("EDBCommit was already commitet!");
         }
 
-        long timestamp = System.currentTimeMillis();
-        commit.setTimestamp(timestamp);
-        for (EDBObject update : commit.getObjects()) {
-            update.updateTimestamp(timestamp);
-            entityManager.persist(new JPAObject(update));
-        }
+        long start = metrics.start();
+        long revision = allocateRevision(commit);
+        long timestamp = commit.getTimestamp();
 
+        JPACommit jpaCommit = (JPACommit) commit;
+        List<JPAObject> persisted = new ArrayList<JPAObject>();
+        WriteCount writes = new WriteCount();
+        EDBChange change = new EDBChange(commit);
+        List<JPAOIDPrefix> prefixes = new ArrayList<JPAOIDPrefix>();
         try {
             performUtxAction(UTXACTION.BEGIN);
             commit.setCommitted(true);
             LOGGER.debug("persisting JPACommit");
             entityManager.persist(commit);
+            prefixes = saveOIDPrefixes();
+            writes.rows += 1 + prefixes.size();
+
+            List<JPAObject> objects = new ArrayList<JPAObject>();
+            for (EDBObject update : commit.getObjects()) {
+                update.updateTimestamp(timestamp);
+                objects.add(new JPAObject(toStoredObject(update)));
+            }
 
             LOGGER.debug("setting the deleted elements as deleted");
             for (String id : commit.getDeletions()) {
-                EDBObject o = new EDBObject(id);
+                EDBObject o = new EDBObject(oidPrefixes.toStoredOID(id));
                 o.updateTimestamp(timestamp);
                 o.put("isDeleted", new Boolean(true));
-                JPAObject j = new JPAObject(o);
-                entityManager.persist(j);
+                objects.add(new JPAObject(o));
             }
-
+            loadHeads(getOIDs(objects), heads);
+            writes.rows += removeIndexEntries(getExistingOIDs(objects, heads));
+            for (JPAObject object : objects) {
+                persisted.add(persistJPAObject(object, jpaCommit, change, heads, writes));
+            }
+            entityManager.flush();
             performUtxAction(UTXACTION.COMMIT);
         } catch (Exception ex) {
+            changeFeed.skip(revision);
+            oidPrefixes.returnUnsaved(prefixes);
             try {
                 performUtxAction(UTXACTION.ROLLBACK);
             } catch (Exception e) {
                 throw new EDBException("Failed to rollback transaction to DB", e);
             }
+            if (isConcurrentModification(ex)) {
+                metrics.countConcurrentModification();
+                throw new EDBException("conflict was detected. An object of the commit was changed by another commit "
+                        + "at the same time", ex);
+            }
             throw new EDBException("Failed to commit transaction to DB", ex);
+        } finally {
+            releaseRevisionAfterCompletion(revision);
         }
+        updateObjectCache(persisted);
+        publishChange(change);
+        countCommitForSnapshot();
+        metrics.countWrites(writes.objects, writes.entries, writes.rows);
+        metrics.record(Operation.COMMIT, start, writes.rows);
 
-        return timestamp;
+        return revision;
     }
 
     /**
-     * helper function that performs a UTXACTION if the utx is not null
+     * the number of JPAObjects and JPAEntries and of the rows in total which a commit wrote
      */
-    private void performUtxAction(UTXACTION action) {
-        if (utx == null) {
+    private static final class WriteCount {
+        private long objects;
+        private long entries;
+        private long rows;
+    }
+
+    /**
+     * allocates the revision of a new commit and sets it together with the timestamp of the commit. The timestamps
+     * never decrease with the revisions, even if the clock is set back, so a timestamp can be resolved to the newest
+     * revision with this or an older timestamp. The revision stays pending until the transaction of the commit is
+     * completed, see releaseRevisionAfterCompletion.
+     */
+    private long allocateRevision(EDBCommit commit) {
+        synchronized (pendingRevisions) {
+            long revision = lastRevision.incrementAndGet();
+            lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+            commit.setTimestamp(lastTimestamp);
+            commit.setRevisionNumber(revision);
+            pendingRevisions.put(revision, Thread.currentThread());
+            return revision;
+        }
+    }
+
+    /**
+     * releases the given pending revision as soon as the transaction of its commit is completed, no matter if it was
+     * committed or rolled back
+     */
+    private void releaseRevisionAfterCompletion(final long revision) {
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pendingRevisions) {
+                    pendingRevisions.remove(revision);
+                    pendingRevisions.notifyAll();
+                }
+            }
+        };
+        runAfterCompletion(release, release);
+    }
+
+    /**
+     * returns the highest revision up to which all commits are completed. Since a commit may be completed before a
+     * commit with a lower revision, readers which continue after the highest saved revision later on use this one
+     * instead, so they don't skip the lower revision for good.
+     */
+    private long getCompletedRevision() {
+        synchronized (pendingRevisions) {
+            return pendingRevisions.isEmpty() ? lastRevision.get() : pendingRevisions.firstKey() - 1;
+        }
+    }
+
+    /**
+     * waits until the commits of other threads with a revision up to the given one are completed, so a read of the
+     * state at this revision doesn't miss one of them. If the calling thread has a pending commit itself, it doesn't
+     * wait, since the other commits may wait for the locks which its transaction holds.
+     */
+    private void awaitCompletedRevision(long revision) throws EDBException {
+        long deadline = System.currentTimeMillis() + REVISION_WAIT_TIMEOUT;
+        synchronized (pendingRevisions) {
+            while (!pendingRevisions.isEmpty() && pendingRevisions.firstKey() <= revision) {
+                if (pendingRevisions.containsValue(Thread.currentThread())) {
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new EDBException("the commit with the revision " + pendingRevisions.firstKey()
+                            + " was not completed in time");
+                }
+                try {
+                    pendingRevisions.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EDBException("interrupted while waiting for the commits up to the revision "
+                            + revision, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * returns the highest revision whose state is complete, after waiting for the pending commits of other threads
+     */
+    private long awaitNewestRevision() throws EDBException {
+        long revision = lastRevision.get();
+        awaitCompletedRevision(revision);
+        return Math.min(revision, dao.getMaxRevision());
+    }
+
+    /**
+     * returns the given object of a commit with the oid under which it is saved. If the oid has to be translated, a
+     * copy is returned, so the object of the caller keeps its oid.
+     */
+    private EDBObject toStoredObject(EDBObject object) {
+        String oid = oidPrefixes.toStoredOID(object.getOID());
+        if (oid.equals(object.getOID())) {
+            return object;
+        }
+        EDBObject stored = new EDBObject(oid, object);
+        stored.updateTimestamp(object.getTimestamp());
+        return stored;
+    }
+
+    /**
+     * saves the oid prefixes which got their code since the last commit and returns them, so that they can be handed
+     * back to the registry if the commit fails
+     */
+    private List<JPAOIDPrefix> saveOIDPrefixes() {
+        List<JPAOIDPrefix> prefixes = oidPrefixes.takeUnsaved();
+        for (JPAOIDPrefix prefix : prefixes) {
+            if (dao.getJPAOIDPrefix(prefix.getPrefix()) == null) {
+                entityManager.persist(prefix);
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * hands the given change over to the change feed as soon as its transaction is committed. If the transaction is
+     * managed by the container, the change is published after its completion or skipped if it was rolled back.
+     */
+    private void publishChange(final EDBChange change) {
+        final long revision = change.getRevisionNumber();
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                changeFeed.publish(change);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                changeFeed.skip(revision);
+            }
+        });
+    }
+
+    /**
+     * runs the first task as soon as the current transaction is committed and the second one, if given, if it is
+     * rolled back. If the EDB manages its transactions itself or there is no container transaction, the work of the
+     * caller is already committed, so the first task is run immediately.
+     */
+    void runAfterCompletion(final Runnable committed, final Runnable rolledBack) {
+        TransactionSynchronizationRegistry registry = synchronizationRegistry;
+        if (resourceLocal || registry == null || registry.getTransactionKey() == null) {
+            committed.run();
             return;
         }
-        switch (action) {
-            case BEGIN:
-                utx.begin();
-                break;
-            case COMMIT:
-                utx.commit();
-                break;
-            case ROLLBACK:
-                utx.rollback();
-                break;
-            default:
-                LOGGER.warn("unknown Transaction action: {}", action.toString());
-                break;
+        try {
+            registry.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        committed.run();
+                    } else if (rolledBack != null) {
+                        rolledBack.run();
+                    }
+                }
+            });
+        } catch (IllegalStateException e) {
+            if (rolledBack != null) {
+                rolledBack.run();
+            }
+            throw new EDBException("Failed to register the completion of the transaction", e);
         }
     }
 
     /**
-     * enumeration for categorizing the transaction actions.
+     * counts a successful commit and requests a snapshot from the SnapshotWriter, once the commit is completed, if
+     * the snapshot interval is reached
      */
-    private enum UTXACTION {
-            BEGIN, COMMIT, ROLLBACK
-    };
+    private void countCommitForSnapshot() {
+        if (snapshotInterval <= 0 || commitsSinceSnapshot.incrementAndGet() < snapshotInterval) {
+            return;
+        }
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                snapshotWriter.request();
+            }
+        }, null);
+    }
 
-    @Override
-    public EDBObject getObject(String oid) throws EDBException {
-        LOGGER.debug("loading newest JPAObject with the oid {}", oid);
-        JPAObject temp = dao.getJPAObject(oid);
-        return temp.getObject();
+    /**
+     * returns true if the given exception was caused by another commit which changed or created the head object of the
+     * same oid at the same time
+     */
+    private boolean isConcurrentModification(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof OptimisticLockException || cause instanceof EntityExistsException) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    @Override
-    public List<EDBObject> getObjects(List<String> oids) throws EDBException {
-        List<JPAObject> objects = dao.getJPAObjects(oids);
-        List<EDBObject> result = new ArrayList<EDBObject>();
+    /**
+     * replaces the cached objects of the committed oids with their new versions once the transaction is committed, if
+     * the object cache is enabled. Until then other callers still get the previous versions, which are the committed
+     * ones.
+     */
+    private void updateObjectCache(List<JPAObject> committed) {
+        final EDBObjectCache cache = objectCache;
+        if (cache == null) {
+            return;
+        }
+        final List<EDBObject> objects = generateEDBObjectList(committed);
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                cache.update(objects);
+            }
+        }, null);
+    }
+
+    /**
+     * empties the object cache once the transaction is committed, if the object cache is enabled. Used by operations
+     * which change too many objects to replace them one by one.
+     */
+    private void clearObjectCache() {
+        final EDBObjectCache cache = objectCache;
+        if (cache == null) {
+            return;
+        }
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                cache.clear();
+            }
+        }, null);
+    }
+
+    /**
+     * persists the given JPAObject with a reference to its commit, marks it as the newest version of its oid and
+     * records its oid in the change of the commit. The written rows are added to the given count.
+     */
+    private JPAObject persistJPAObject(JPAObject object, JPACommit commit, EDBChange change,
+            Map<String, JPAHeadObject> heads, WriteCount writes) {
+        object.setRevision(commit.getRevisionNumber());
+        object.setCommit(commit);
+        String oid = object.getOID();
+        JPAHeadObject head = heads.get(oid);
+        JPAObject stored = createStoredVersion(object, head);
+        encodePayload(stored);
+        entityManager.persist(stored);
+        writes.objects++;
+        writes.entries += stored.getStoredPairs().size();
+        // the version with its entries and the inserted or updated head object
+        writes.rows += 2 + stored.getStoredPairs().size();
+        addToChange(change, object, head);
+        if (head == null) {
+            head = new JPAHeadObject(oid);
+            head.update(stored);
+            entityManager.persist(head);
+            heads.put(oid, head);
+        } else {
+            if (commit.getRevisionNumber().equals(head.getObject().getRevision())) {
+                // the oid is written twice by the commit, the index entries of its first version are not loaded yet
+                writes.rows += removeIndexEntries(Collections.singletonList(oid));
+            }
+            if (recordResurrection(object, head)) {
+                writes.rows++;
+            }
+            head.update(stored);
+        }
+        writes.rows += addIndexEntries(object);
+        return object;
+    }
+
+    /**
+     * loads the JPAHeadObjects of the given oids which are not contained in the given map yet in chunks of
+     * QUERY_CHUNK_SIZE oids and puts them into the map. Oids without a head object are mapped to null.
+     */
+    void loadHeads(Collection<String> oids, Map<String, JPAHeadObject> heads) {
+        List<String> missing = new ArrayList<String>();
+        for (String oid : oids) {
+            if (!heads.containsKey(oid)) {
+                missing.add(oid);
+            }
+        }
+        for (int i = 0; i < missing.size(); i += QUERY_CHUNK_SIZE) {
+            List<String> chunk = missing.subList(i, Math.min(i + QUERY_CHUNK_SIZE, missing.size()));
+            for (JPAHeadObject head : dao.getJPAHeadObjects(chunk)) {
+                heads.put(head.getOID(), head);
+            }
+        }
+        for (String oid : missing) {
+            if (!heads.containsKey(oid)) {
+                heads.put(oid, null);
+            }
+        }
+    }
+
+    /**
+     * returns the distinct oids of the given objects
+     */
+    static Set<String> getOIDs(List<JPAObject> objects) {
+        Set<String> oids = new LinkedHashSet<String>();
         for (JPAObject object : objects) {
-            result.add(object.getObject());
+            oids.add(object.getOID());
         }
-        return result;
+        return oids;
     }
 
-    @Override
-    public List<EDBObject> getHistory(String oid) throws EDBException {
-        LOGGER.debug("loading history of JPAObject with the oid {}", oid);
-        List<JPAObject> jpa = dao.getJPAObjectHistory(oid);
-        return generateEDBObjectList(jpa);
+    /**
+     * returns the distinct oids of the given objects which have a head object in the given map
+     */
+    static List<String> getExistingOIDs(List<JPAObject> objects, Map<String, JPAHeadObject> heads) {
+        List<String> existing = new ArrayList<String>();
+        for (String oid : getOIDs(objects)) {
+            if (heads.get(oid) != null) {
+                existing.add(oid);
+            }
+        }
+        return existing;
     }
 
-    @Override
-    public List<EDBObject> getHistory(String oid, Long from, Long to) throws EDBException {
-        LOGGER.debug("loading JPAObject with the oid {} from "
-                + "the timestamp {} to the timestamp {}", new Object[]{ oid, from, to });
-        List<JPAObject> jpa = dao.getJPAObjectHistory(oid, from, to);
-        return generateEDBObjectList(jpa);
+    /**
+     * returns the version of the given full object which is saved. If the delta storage is enabled, only the entries
+     * which changed since the previous version of the oid are saved. Every fullVersionInterval versions of an oid, and
+     * always after a deletion, a full version is saved, so decoding a version never needs more versions than that.
+     */
+    private JPAObject createStoredVersion(JPAObject object, JPAHeadObject head) {
+        if (fullVersionInterval <= 1 || head == null || head.isDeleted() || object.isDeleted()
+                || head.getVersion() % fullVersionInterval == 0) {
+            object.setBaseRevision(object.getRevision());
+            return object;
+        }
+        return deltaCodec.encode(object, head.getObject());
     }
 
     /**
-     * transforms a list of JPAObjects to a List of EDBObjects
+     * saves the entries of the given version as payload if the payload encoding is enabled. Delta versions keep their
+     * JPAEntries, since they only contain a few entries anyway.
      */
-    private List<EDBObject> generateEDBObjectList(List<JPAObject> jpaObjects) {
-        List<EDBObject> result = new ArrayList<EDBObject>();
-        for (JPAObject j : jpaObjects) {
-            result.add(j.getObject());
+    void encodePayload(JPAObject object) {
+        if (payloadEncoding && !object.isDelta()) {
+            payloadCodec.encode(object);
+            payloadsSaved = true;
         }
-        return result;
     }
 
-    @Override
-    public List<EDBLogEntry> getLog(String oid, Long from, Long to) throws EDBException {
-        LOGGER.debug("loading the log of JPAObject with the oid {} from "
-                + "the timestamp {} to the timestamp {}", new Object[]{ oid, from, to });
-        List<EDBObject> history = getHistory(oid, from, to);
-        List<JPACommit> commits = dao.getJPACommit(oid, from, to);
-        if (history.size() != commits.size()) {
-            throw new EDBException("inconsistent log " + Integer.toString(commits.size()) + " commits for "
-                    + Integer.toString(history.size()) + " history entries");
+    /**
+     * saves the given JPAKeyDictionary in a transaction of its own and returns it as seen by the current transaction.
+     * If another thread saves the same dictionary at the same time, the insert of one of them fails on the hash and the
+     * dictionary which was saved by the other one is returned. A dictionary whose version is rolled back stays saved,
+     * it is used by the next version with the same keys.
+     */
+    JPAKeyDictionary saveKeyDictionary(final JPAKeyDictionary dictionary) throws EDBException {
+        try {
+            if (resourceLocal) {
+                EntityManager own = emf.createEntityManager();
+                try {
+                    own.getTransaction().begin();
+                    own.persist(dictionary);
+                    own.getTransaction().commit();
+                } finally {
+                    if (own.getTransaction().isActive()) {
+                        own.getTransaction().rollback();
+                    }
+                    own.close();
+                }
+            } else {
+                runInOwnTransaction(new Runnable() {
+                    @Override
+                    public void run() {
+                        entityManager.persist(dictionary);
+                        entityManager.flush();
+                    }
+                });
+            }
+        } catch (RuntimeException e) {
+            LOGGER.debug("the key dictionary {} was saved at the same time", dictionary.getHash());
         }
-        List<EDBLogEntry> log = new ArrayList<EDBLogEntry>();
-        for (int i = 0; i < history.size(); ++i) {
-            log.add(new LogEntry(commits.get(i), history.get(i)));
+        JPAKeyDictionary saved = entityManager.find(JPAKeyDictionary.class, dictionary.getHash());
+        if (saved == null) {
+            throw new EDBException("failed to save the key dictionary " + dictionary.getHash());
         }
-        return log;
+        return saved;
     }
 
     /**
-     * loads the JPAHead with the given timestamp
+     * throws an EDBException if the given query contains a key which is not indexed while one of the objects of the
+     * queried state, the current one if the revision is null, is saved as payload, since the query would silently miss
+     * this object
      */
-    private JPAHead loadHead(long timestamp) throws EDBException {
-        LOGGER.debug("load the JPAHead with the timestamp {}", timestamp);
-        return dao.getJPAHead(timestamp);
+    private void checkQueryableKeys(Map<String, Object> queryMap, Long revision) throws EDBException {
+        if (!payloadsSaved) {
+            return;
+        }
+        for (String key : queryMap.keySet()) {
+            if (indexDefinition.isIndexed(key)) {
+                continue;
+            }
+            if (revision == null ? dao.hasPayloadHeadJPAObjects() : dao.hasPayloadJPAObjectsAtRevision(revision)) {
+                throw new EDBException("the key " + key + " can't be queried, since it is not indexed and objects "
+                        + "are saved as payload");
+            }
+            return;
+        }
     }
 
-    @Override
-    public List<EDBObject> getHead() throws EDBException {
-        return dao.getJPAHead(System.currentTimeMillis()).getEDBObjects();
+    /**
+     * saves a JPAResurrection if the given object brings its oid back after it has been deleted and returns true in
+     * this case. Must be called before the object is set as the newest version of the given head.
+     */
+    private boolean recordResurrection(JPAObject object, JPAHeadObject head) {
+        if (!head.isResurrectedBy(object)) {
+            return false;
+        }
+        LOGGER.debug("the object {} is resurrected", object.getOID());
+        entityManager.persist(new JPAResurrection(object.getOID(), object.getRevision(), object.getTimestamp()));
+        head.countResurrection();
+        return true;
     }
 
-    @Override
-    public List<EDBObject> getHead(long timestamp) throws EDBException {
-        LOGGER.debug("load the elements of the JPAHead with the timestamp {}", timestamp);
-        JPAHead head = loadHead(timestamp);
-        if (head != null) {
-            return head.getEDBObjects();
+    /**
+     * records the oid of the given object as deletion, insert or update, depending on the previous newest version of
+     * the oid
+     */
+    private void addToChange(EDBChange change, JPAObject object, JPAHeadObject previous) {
+        String oid = oidPrefixes.toLongOID(object.getOID());
+        if (object.isDeleted()) {
+            change.getDeletions().add(oid);
+        } else if (previous == null || previous.isDeleted()) {
+            change.getInserts().add(oid);
+        } else {
+            change.getUpdates().add(oid);
         }
-        throw new EDBException("Failed to get head for timestamp " + Long.toString(timestamp));
     }
 
-    @Override
-    public List<EDBObject> query(String key, Object value) throws EDBException {
-        LOGGER.debug("query for objects with key = {} and value = {}", key, value);
-        Map<String, Object> queryMap = new HashMap<String, Object>();
-        queryMap.put(key, value);
-        return query(queryMap);
+    /**
+     * saves a snapshot of the newest committed state and removes the oldest snapshots without tag which exceed
+     * maxSnapshots. Called by the SnapshotWriter in the background, so the state is built out of the history in a
+     * transaction of its own instead of in the commit which reached the snapshot interval.
+     */
+    void writeSnapshot() {
+        startCall();
+        commitsSinceSnapshot.set(0);
+        runInOwnTransaction(new Runnable() {
+            @Override
+            public void run() {
+                // the snapshot must not miss a commit which is still running, so it ends before the oldest of them
+                long revision = Math.min(getCompletedRevision(), dao.getMaxRevision());
+                JPASnapshot newest = dao.getNewestJPASnapshot(Long.MAX_VALUE);
+                if (revision <= 0 || newest != null && newest.getRevision() >= revision) {
+                    return;
+                }
+                LOGGER.debug("creating a snapshot of the head for the revision {}", revision);
+                List<JPACommit> commits = dao.getJPACommitsOfRevisions(Collections.singletonList(revision));
+                long timestamp = commits.isEmpty() ? System.currentTimeMillis() : commits.get(0).getTimestamp();
+                snapshots.save(revision, timestamp, null);
+                entityManager.flush();
+                snapshots.removeSurplus(maxSnapshots);
+            }
+        });
     }
 
-    @Override
-    public List<EDBObject> query(Map<String, Object> queryMap) throws EDBException {
-        try {
-            return generateEDBObjectList(new ArrayList<JPAObject>(dao.query(queryMap)));
-        } catch (Exception ex) {
-            throw new EDBException("failed to query for objects with the given map", ex);
+    /**
+     * waits until the snapshots which were requested so far are written. Used by the tests.
+     */
+    void awaitSnapshots() throws InterruptedException {
+        snapshotWriter.await();
+    }
+
+    /**
+     * removes the secondary index entries of the given oids, which are loaded in chunks of QUERY_CHUNK_SIZE oids, and
+     * returns the number of removed entries
+     */
+    int removeIndexEntries(List<String> oids) {
+        if (indexDefinition.isEmpty()) {
+            return 0;
+        }
+        int removed = 0;
+        for (int i = 0; i < oids.size(); i += QUERY_CHUNK_SIZE) {
+            List<String> chunk = oids.subList(i, Math.min(i + QUERY_CHUNK_SIZE, oids.size()));
+            for (JPAIndexEntry entry : dao.getJPAIndexEntries(chunk)) {
+                entityManager.remove(entry);
+                removed++;
+            }
         }
+        return removed;
     }
 
-    @Override
-    public List<EDBCommit> getCommits(String key, Object value) throws EDBException {
-        Map<String, Object> queryMap = new HashMap<String, Object>();
-        queryMap.put(key, value);
-        return getCommits(queryMap);
+    /**
+     * adds the secondary index entries for all indexed keys of the given object, if it is not deleted, and returns the
+     * number of added entries
+     */
+    int addIndexEntries(JPAObject object) {
+        if (indexDefinition.isEmpty() || object.isDeleted()) {
+            return 0;
+        }
+        int added = 0;
+        for (JPAEntry entry : object.getPairs()) {
+            if (indexDefinition.isIndexed(entry.getKey()) && entry.getStringValue() != null) {
+                entityManager.persist(new JPAIndexEntry(object.getOID(), entry.getKey(), entry.getStringValue()));
+                added++;
+            }
+        }
+        return added;
     }
 
-    @Override
-    public List<EDBCommit> getCommits(Map<String, Object> queryMap) throws EDBException {
-        List<JPACommit> commits = dao.getCommits(queryMap);
-        return new ArrayList<EDBCommit>(commits);
+    /**
+     * prepares a new call of the EDB. If the EDB manages its transactions itself, the objects which the EntityManager
+     * of this thread cached in earlier calls are dropped, since other threads may have changed them in the meantime.
+     * With a container managed EntityManager every transaction has its own persistence context anyway.
+     */
+    private void startCall() {
+        clearPersistenceContext();
+        verifyHeadIndex();
     }
 
-    @Override
-    public JPACommit getLastCommit(String key, Object value) throws EDBException {
-        Map<String, Object> queryMap = new HashMap<String, Object>();
-        queryMap.put(key, value);
-        return getLastCommit(queryMap);
+    /**
+     * detaches all loaded entities if they are not used by an active transaction, so that the persistence context of
+     * the thread doesn't grow with every call. A container managed persistence context ends with its transaction
+     * anyway.
+     */
+    private void clearPersistenceContext() {
+        if (resourceLocal && !entityManager.getTransaction().isActive()) {
+            entityManager.clear();
+        }
     }
 
-    @Override
-    public JPACommit getLastCommit(Map<String, Object> queryMap) throws EDBException {
-        JPACommit result = dao.getLastCommit(queryMap);
-        return result;
+    /**
+     * checks once if the JPAHeadObjects have to be built up out of the history. This is the case if the database was
+     * filled before the JPAHeadObjects or their version counters were introduced. Also the revisions of old commits
+     * are filled in, the secondary indexes of newly declared keys are built up and the revision counter is
+     * initialized.
+     */
+    private void verifyHeadIndex() {
+        if (headIndexVerified) {
+            return;
+        }
+        synchronized (this) {
+            if (headIndexVerified) {
+                return;
+            }
+            migrateHeadIndex();
+            headIndexVerified = true;
+        }
     }
 
-    @Override
-    public JPACommit getCommit(Long from) throws EDBException {
-        List<JPACommit> commits = dao.getJPACommit(from);
-        if (commits == null || commits.size() == 0) {
-            throw new EDBException("there is no commit for this timestamp");
-        } else if (commits.size() > 1) {
-            throw new EDBException("there are more than one commit for one timestamp");
+    /**
+     * creates the missing JPAHeadObjects and fills in the missing version counters out of the history. The migration
+     * runs in transactions of its own, which are committed after every chunk, so a large database is not migrated in
+     * one unbounded transaction. Every step only works on what is still missing, so an aborted migration continues
+     * after the last committed chunk at the next start.
+     */
+    private void migrateHeadIndex() {
+        try {
+            runInOwnTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    migration.backfillRevisions();
+                    migration.backfillCommitReferences();
+                    if (dao.isHeadIndexMissing()) {
+                        migration.buildHeadIndex();
+                    }
+                    migration.backfillVersionCounters();
+                    migration.backfillResurrections();
+                    if (!deltaVersions && dao.hasDeltaJPAObjects()) {
+                        enableDeltaVersions();
+                    }
+                    migration.buildSecondaryIndexes(deltaVersions || payloadEncoding || dao.hasPayloadJPAObjects());
+                    payloadsSaved = dao.hasPayloadJPAObjects();
+                    countCommitsSinceSnapshot();
+                    initRevisionCounter();
+                }
+            });
+        } catch (Exception ex) {
+            throw new EDBException("Failed to build up the head objects", ex);
+        }
+    }
+
+    /**
+     * commits the chunk of the migration which was done so far and begins the transaction of the next chunk
+     */
+    void commitMigrationChunk() {
+        TransactionManager manager = transactionManager;
+        if (resourceLocal) {
+            performUtxAction(UTXACTION.COMMIT);
+            entityManager.clear();
+            performUtxAction(UTXACTION.BEGIN);
+        } else if (manager != null) {
+            try {
+                manager.commit();
+                manager.begin();
+            } catch (Exception e) {
+                throw new EDBException("failed to commit a chunk of the migration", e);
+            }
+        } else {
+            entityManager.flush();
+        }
+    }
+
+    /**
+     * initializes the number of commits which were done since the newest snapshot
+     */
+    private void countCommitsSinceSnapshot() {
+        JPASnapshot snapshot = dao.getNewestJPASnapshot(Long.MAX_VALUE);
+        long count = dao.countJPACommitsAfter(snapshot != null ? snapshot.getRevision() : Long.MIN_VALUE);
+        commitsSinceSnapshot.set((int) Math.min(count, Integer.MAX_VALUE));
+    }
+
+    /**
+     * makes sure that the next allocated revision is higher than all revisions which are saved in the database
+     */
+    private void initRevisionCounter() {
+        raiseRevisionCounter(dao.getMaxRevision());
+    }
+
+    /**
+     * makes sure that the next allocated revision is higher than the given one. The change feed doesn't wait for the
+     * revisions which are skipped this way.
+     */
+    private void raiseRevisionCounter(long revision) {
+        long current = lastRevision.get();
+        while (current < revision) {
+            if (lastRevision.compareAndSet(current, revision)) {
+                changeFeed.skip(current + 1, revision);
+                return;
+            }
+            current = lastRevision.get();
+        }
+    }
+
+    /**
+     * helper function that performs a UTXACTION on the transaction of the EntityManager of this thread, if the EDB
+     * manages its transactions itself
+     */
+    private void performUtxAction(UTXACTION action) {
+        if (!resourceLocal) {
+            return;
+        }
+        EntityTransaction utx = entityManager.getTransaction();
+        switch (action) {
+            case BEGIN:
+                utx.begin();
+                break;
+            case COMMIT:
+                utx.commit();
+                break;
+            case ROLLBACK:
+                if (utx.isActive()) {
+                    utx.rollback();
+                }
+                break;
+            default:
+                LOGGER.warn("unknown Transaction action: {}", action.toString());
+                break;
+        }
+    }
+
+    /**
+     * enumeration for categorizing the transaction actions.
+     */
+    private enum UTXACTION {
+            BEGIN, COMMIT, ROLLBACK
+    };
+
+    @Override
+    public EDBObject getObject(String oid) throws EDBException {
+        LOGGER.debug("loading newest JPAObject with the oid {}", oid);
+        long start = metrics.start();
+        EDBObject object = loadNewestObject(oidPrefixes.toStoredOID(oid));
+        metrics.record(Operation.GET_OBJECT, start, 1);
+        return object;
+    }
+
+    private EDBObject loadNewestObject(String oid) {
+        EDBObjectCache cache = objectCache;
+        if (cache == null) {
+            startCall();
+            return toEDBObject(dao.getJPAObject(oid));
+        }
+        // the cached objects are returned to the callers, so they are cached under the long form of their oid
+        EDBObject cached = cache.get(oidPrefixes.toLongOID(oid));
+        if (cached != null) {
+            return cached;
+        }
+        long generation = cache.getGeneration();
+        startCall();
+        EDBObject object = toEDBObject(dao.getJPAObject(oid));
+        cache.put(object, generation);
+        return object;
+    }
+
+    @Override
+    public List<EDBObject> getObjects(List<String> oids) throws EDBException {
+        long start = metrics.start();
+        List<EDBObject> objects = loadNewestObjects(toStoredOIDs(oids));
+        metrics.record(Operation.GET_OBJECT, start, objects.size());
+        return objects;
+    }
+
+    private List<EDBObject> loadNewestObjects(List<String> oids) {
+        EDBObjectCache cache = objectCache;
+        List<EDBObject> result = new ArrayList<EDBObject>();
+        List<String> missing = oids;
+        if (cache != null) {
+            missing = new ArrayList<String>();
+            for (String oid : oids) {
+                EDBObject cached = cache.get(oidPrefixes.toLongOID(oid));
+                if (cached != null) {
+                    result.add(cached);
+                } else {
+                    missing.add(oid);
+                }
+            }
+            if (missing.isEmpty()) {
+                return result;
+            }
+        }
+        long generation = cache != null ? cache.getGeneration() : 0;
+        startCall();
+        for (EDBObject loaded : generateEDBObjectList(dao.getJPAObjects(missing))) {
+            if (cache != null) {
+                cache.put(loaded, generation);
+            }
+            result.add(loaded);
+        }
+        return result;
+    }
+
+    @Override
+    public List<EDBObject> getHistory(String oid) throws EDBException {
+        LOGGER.debug("loading history of JPAObject with the oid {}", oid);
+        long start = metrics.start();
+        startCall();
+        List<JPAObject> jpa = dao.getJPAObjectHistory(oidPrefixes.toStoredOID(oid));
+        List<EDBObject> history = generateEDBObjectList(jpa);
+        metrics.record(Operation.GET_HISTORY, start, history.size());
+        return history;
+    }
+
+    @Override
+    public List<EDBObject> getHistory(String oid, Long from, Long to) throws EDBException {
+        LOGGER.debug("loading JPAObject with the oid {} from "
+                + "the timestamp {} to the timestamp {}", new Object[]{ oid, from, to });
+        long start = metrics.start();
+        startCall();
+        List<JPAObject> jpa = dao.getJPAObjectHistory(oidPrefixes.toStoredOID(oid), from, to);
+        List<EDBObject> history = generateEDBObjectList(jpa);
+        metrics.record(Operation.GET_HISTORY, start, history.size());
+        return history;
+    }
+
+    /**
+     * returns the oids under which the objects with the given oids are saved
+     */
+    private List<String> toStoredOIDs(List<String> oids) {
+        List<String> result = new ArrayList<String>(oids.size());
+        for (String oid : oids) {
+            result.add(oidPrefixes.toStoredOID(oid));
+        }
+        return result;
+    }
+
+    /**
+     * transforms a list of JPAObjects to a List of EDBObjects. Versions which are saved as delta are decoded first.
+     */
+    private List<EDBObject> generateEDBObjectList(List<JPAObject> jpaObjects) {
+        List<EDBObject> result = new ArrayList<EDBObject>();
+        for (JPAObject j : deltaCodec.decode(jpaObjects)) {
+            result.add(toLongFormObject(j));
+        }
+        return result;
+    }
+
+    /**
+     * returns the EDBObject of the given decoded JPAObject with its oid in the long form
+     */
+    private EDBObject toLongFormObject(JPAObject jpaObject) {
+        EDBObject object = jpaObject.getObject();
+        String oid = oidPrefixes.toLongOID(object.getOID());
+        if (!oid.equals(object.getOID())) {
+            object.setOID(oid);
+        }
+        return object;
+    }
+
+    /**
+     * transforms a JPAObject to an EDBObject, decoding it first if it is saved as delta
+     */
+    private EDBObject toEDBObject(JPAObject jpaObject) {
+        return generateEDBObjectList(Collections.singletonList(jpaObject)).get(0);
+    }
+
+    @Override
+    public List<EDBLogEntry> getLog(String oid, Long from, Long to) throws EDBException {
+        LOGGER.debug("loading the log of JPAObject with the oid {} from "
+                + "the timestamp {} to the timestamp {}", new Object[]{ oid, from, to });
+        startCall();
+        Long toRevision = dao.getRevision(to);
+        if (toRevision == null) {
+            return new ArrayList<EDBLogEntry>();
+        }
+        // the timestamps never decrease with the revisions, so the log starts after the last commit before from
+        Long beforeRevision = dao.getRevision(from - 1);
+        return getLogByRevision(oid, beforeRevision != null ? beforeRevision + 1 : 0, toRevision);
+    }
+
+    @Override
+    public List<EDBLogEntry> getLogByRevision(String oid, Long from, Long to) throws EDBException {
+        LOGGER.debug("loading the log of JPAObject with the oid {} from "
+                + "the revision {} to the revision {}", new Object[]{ oid, from, to });
+        startCall();
+        List<EDBLogEntry> log = new ArrayList<EDBLogEntry>();
+        for (JPAObject object : deltaCodec.decode(dao.getJPAObjectLog(oidPrefixes.toStoredOID(oid), from, to))) {
+            log.add(new LogEntry(object.getCommit(), toLongFormObject(object)));
+        }
+        return log;
+    }
+
+    @Override
+    public List<EDBObject> getHead() throws EDBException {
+        long start = metrics.start();
+        startCall();
+        List<EDBObject> head = generateEDBObjectList(dao.getJPAHead().getJPAObjects());
+        metrics.record(Operation.GET_HEAD, start, head.size());
+        return head;
+    }
+
+    @Override
+    public List<EDBObject> getHead(int offset, int limit) throws EDBException {
+        LOGGER.debug("load {} elements of the current head beginning at {}", limit, offset);
+        long start = metrics.start();
+        startCall();
+        List<EDBObject> head = generateEDBObjectList(dao.getHeadJPAObjects(offset, limit));
+        metrics.record(Operation.GET_HEAD, start, head.size());
+        return head;
+    }
+
+    @Override
+    public Iterator<EDBObject> iterateHead() throws EDBException {
+        startCall();
+        return iterateCurrentState(new HashMap<String, Object>(), getCompletedRevision());
+    }
+
+    @Override
+    public Iterator<EDBObject> iterateHead(long timestamp) throws EDBException {
+        startCall();
+        Long found = dao.getRevision(timestamp);
+        if (found == null) {
+            return Collections.<EDBObject> emptyList().iterator();
+        }
+        awaitCompletedRevision(found);
+        final long revision = found;
+        return new JPAObjectIterator() {
+            @Override
+            protected List<JPAObject> loadChunk(String afterOid, int max) {
+                return deltaCodec.decode(dao.getHeadJPAObjects(revision, afterOid, max));
+            }
+        };
+    }
+
+    @Override
+    public List<EDBObject> getHead(long timestamp) throws EDBException {
+        LOGGER.debug("load the elements of the JPAHead with the timestamp {}", timestamp);
+        startCall();
+        Long revision = dao.getRevision(timestamp);
+        if (revision == null) {
+            return new ArrayList<EDBObject>();
+        }
+        return getHeadByRevision(revision);
+    }
+
+    @Override
+    public List<EDBObject> getHeadByRevision(long revision) throws EDBException {
+        LOGGER.debug("load the elements of the JPAHead with the revision {}", revision);
+        long start = metrics.start();
+        startCall();
+        awaitCompletedRevision(revision);
+        List<EDBObject> objects = generateEDBObjectList(snapshots.loadHead(revision).getJPAObjects());
+        metrics.record(Operation.GET_HEAD, start, objects.size());
+        return objects;
+    }
+
+    @Override
+    public List<EDBObject> query(String key, Object value) throws EDBException {
+        LOGGER.debug("query for objects with key = {} and value = {}", key, value);
+        Map<String, Object> queryMap = new HashMap<String, Object>();
+        queryMap.put(key, value);
+        return query(queryMap);
+    }
+
+    @Override
+    public List<EDBObject> query(Map<String, Object> queryMap) throws EDBException {
+        long start = metrics.start();
+        startCall();
+        checkQueryableKeys(queryMap, null);
+        try {
+            List<EDBObject> result = generateEDBObjectList(new ArrayList<JPAObject>(dao.query(queryMap)));
+            metrics.record(Operation.QUERY, start, result.size());
+            return result;
+        } catch (Exception ex) {
+            throw new EDBException("failed to query for objects with the given map", ex);
+        }
+    }
+
+    @Override
+    public List<EDBObject> query(Map<String, Object> queryMap, int offset, int limit) throws EDBException {
+        long start = metrics.start();
+        startCall();
+        checkQueryableKeys(queryMap, null);
+        try {
+            List<EDBObject> result = generateEDBObjectList(dao.query(queryMap, offset, limit));
+            metrics.record(Operation.QUERY, start, result.size());
+            return result;
+        } catch (Exception ex) {
+            throw new EDBException("failed to query for objects with the given map", ex);
+        }
+    }
+
+    @Override
+    public Iterator<EDBObject> iterateQuery(final Map<String, Object> queryMap) throws EDBException {
+        startCall();
+        checkQueryableKeys(queryMap, null);
+        return iterateCurrentState(queryMap, getCompletedRevision());
+    }
+
+    /**
+     * iterates over the result of the given query in the state after the given revision, which is the current state
+     * when the iteration starts. Every chunk takes the objects which weren't changed since out of the current state,
+     * so the secondary indexes are used, and adds the versions at the revision of the objects in the same range of
+     * oids which were changed by later commits. So no object is skipped or returned twice if commits are done while
+     * iterating.
+     */
+    private Iterator<EDBObject> iterateCurrentState(final Map<String, Object> queryMap, final long revision) {
+        return new JPAObjectIterator() {
+            @Override
+            protected List<JPAObject> loadChunk(String afterOid, int max) {
+                List<JPAObject> unchanged = dao.queryUnchangedSince(queryMap, revision, afterOid, max);
+                String toOid = unchanged.size() < max ? null : unchanged.get(unchanged.size() - 1).getOID();
+                List<JPAObject> changed = dao.queryChangedSince(queryMap, revision, afterOid, toOid);
+                if (changed.isEmpty()) {
+                    return deltaCodec.decode(unchanged);
+                }
+                List<JPAObject> chunk = new ArrayList<JPAObject>(unchanged);
+                chunk.addAll(changed);
+                Collections.sort(chunk, new Comparator<JPAObject>() {
+                    @Override
+                    public int compare(JPAObject object1, JPAObject object2) {
+                        return object1.getOID().compareTo(object2.getOID());
+                    }
+                });
+                return deltaCodec.decode(chunk);
+            }
+        };
+    }
+
+    /**
+     * iterator over JPAObjects which are loaded in chunks ordered by their oid. The persistence context is cleared
+     * after every chunk, so it doesn't grow with the iterated result.
+     */
+    private abstract class JPAObjectIterator extends ChunkedIterator<JPAObject, EDBObject> {
+        private JPAObjectIterator() {
+            super(ITERATOR_CHUNK_SIZE);
+        }
+
+        @Override
+        protected String getKey(JPAObject element) {
+            return element.getOID();
+        }
+
+        @Override
+        protected EDBObject convert(JPAObject element) {
+            return toLongFormObject(element);
+        }
+
+        @Override
+        protected void release(List<JPAObject> chunk) {
+            clearPersistenceContext();
+        }
+    }
+
+    @Override
+    public List<EDBObject> query(Map<String, Object> queryMap, long timestamp) throws EDBException {
+        long start = metrics.start();
+        startCall();
+        try {
+            Long revision = dao.getRevision(timestamp);
+            List<EDBObject> result = new ArrayList<EDBObject>();
+            if (revision != null) {
+                awaitCompletedRevision(revision);
+                checkQueryableKeys(queryMap, revision);
+                result = generateEDBObjectList(dao.queryAtRevision(queryMap, revision));
+            }
+            metrics.record(Operation.QUERY, start, result.size());
+            return result;
+        } catch (Exception ex) {
+            throw new EDBException("failed to query for objects with the given map at " + timestamp, ex);
+        }
+    }
+
+    @Override
+    public Iterator<EDBObject> iterateQuery(final Map<String, Object> queryMap, long timestamp)
+        throws EDBException {
+        startCall();
+        Long found = dao.getRevision(timestamp);
+        if (found == null) {
+            return Collections.<EDBObject> emptyList().iterator();
+        }
+        awaitCompletedRevision(found);
+        checkQueryableKeys(queryMap, found);
+        final long revision = found;
+        return new JPAObjectIterator() {
+            @Override
+            protected List<JPAObject> loadChunk(String afterOid, int max) {
+                return deltaCodec.decode(dao.queryAtRevision(queryMap, revision, afterOid, max));
+            }
+        };
+    }
+
+    @Override
+    public List<EDBCommit> getCommits(String key, Object value) throws EDBException {
+        Map<String, Object> queryMap = new HashMap<String, Object>();
+        queryMap.put(key, value);
+        return getCommits(queryMap);
+    }
+
+    @Override
+    public List<EDBCommit> getCommits(Map<String, Object> queryMap) throws EDBException {
+        startCall();
+        List<JPACommit> commits = dao.getCommits(queryMap);
+        return new ArrayList<EDBCommit>(commits);
+    }
+
+    @Override
+    public JPACommit getLastCommit(String key, Object value) throws EDBException {
+        Map<String, Object> queryMap = new HashMap<String, Object>();
+        queryMap.put(key, value);
+        return getLastCommit(queryMap);
+    }
+
+    @Override
+    public JPACommit getLastCommit(Map<String, Object> queryMap) throws EDBException {
+        startCall();
+        JPACommit result = dao.getLastCommit(queryMap);
+        return result;
+    }
+
+    @Override
+    public JPACommit getCommit(Long from) throws EDBException {
+        startCall();
+        Long revision = dao.getRevision(from);
+        if (revision == null) {
+            throw new EDBException("there is no commit for this timestamp");
+        }
+        return getCommitByRevision(revision);
+    }
+
+    @Override
+    public JPACommit getCommitByRevision(Long revision) throws EDBException {
+        startCall();
+        JPACommit commit = dao.getJPACommitByRevision(revision);
+        if (commit == null) {
+            throw new EDBException("there is no commit with the revision " + revision);
+        }
+        return commit;
+    }
+
+    @Override
+    public Diff getDiff(Long firstTimestamp, Long secondTimestamp) throws EDBException {
+        return getDiffByRevision(getCommit(firstTimestamp).getRevisionNumber(),
+            getCommit(secondTimestamp).getRevisionNumber());
+    }
+
+    @Override
+    public Diff getDiffByRevision(Long firstRevision, Long secondRevision) throws EDBException {
+        long start = metrics.start();
+        startCall();
+        JPACommit startCommit = getCommitByRevision(firstRevision);
+        JPACommit endCommit = getCommitByRevision(secondRevision);
+        if (endCommit.getRevisionNumber() < startCommit.getRevisionNumber()) {
+            JPACommit temp = startCommit;
+            startCommit = endCommit;
+            endCommit = temp;
+        }
+        awaitCompletedRevision(endCommit.getRevisionNumber());
+        List<String> oids = dao.getChangedOIDs(startCommit.getRevisionNumber(), endCommit.getRevisionNumber());
+        LOGGER.debug("creating diff for {} changed oids", oids.size());
+        List<EDBObject> startObjects = loadObjects(oids, startCommit.getRevisionNumber());
+        List<EDBObject> endObjects = loadObjects(oids, endCommit.getRevisionNumber());
+
+        Diff diff = new Diff(startCommit, endCommit, startObjects, endObjects, this);
+        metrics.record(Operation.GET_DIFF, start, oids.size());
+        return diff;
+    }
+
+    /**
+     * loads the not deleted objects with the given oids at the given revision in chunks of QUERY_CHUNK_SIZE oids
+     */
+    private List<EDBObject> loadObjects(List<String> oids, long revision) {
+        List<EDBObject> result = new ArrayList<EDBObject>();
+        for (int i = 0; i < oids.size(); i += QUERY_CHUNK_SIZE) {
+            List<String> chunk = oids.subList(i, Math.min(i + QUERY_CHUNK_SIZE, oids.size()));
+            result.addAll(generateEDBObjectList(dao.getJPAObjects(chunk, revision)));
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> getResurrectedOIDs() throws EDBException {
+        return getResurrectedOIDs(null, null);
+    }
+
+    @Override
+    public List<String> getResurrectedOIDs(Long from, Long to) throws EDBException {
+        startCall();
+        List<String> oids = new ArrayList<String>();
+        for (String oid : dao.getResurrectedOIDs(from, to)) {
+            oids.add(oidPrefixes.toLongOID(oid));
+        }
+        return oids;
+    }
+
+    @Override
+    public List<EDBObject> getStateOfLastCommitMatching(
+            Map<String, Object> queryMap) throws EDBException {
+        JPACommit ci = getLastCommit(queryMap);
+        return getHeadByRevision(ci.getRevisionNumber());
+    }
+
+    @Override
+    public List<EDBObject> getStateOfLastCommitMatching(String key, Object value) throws EDBException {
+        Map<String, Object> query = new HashMap<String, Object>();
+        query.put(key, value);
+        return getStateOfLastCommitMatching(query);
+    }
+
+    @Override
+    public Long createTag(String tag) throws EDBException {
+        startCall();
+        // the tags are checked and saved under a lock, the unique index on the tag only backs this up
+        synchronized (tagLock) {
+            return tagNewestRevision(tag);
+        }
+    }
+
+    /**
+     * tags the newest completed revision with the given tag and returns the revision
+     */
+    private long tagNewestRevision(String tag) throws EDBException {
+        if (dao.getJPASnapshotByTag(tag) != null) {
+            throw new EDBException("there is already a state with the tag " + tag);
+        }
+        long revision = awaitNewestRevision();
+        List<JPASnapshot> existing = dao.getJPASnapshots(revision);
+        if (!existing.isEmpty() && existing.get(0).getTag() != null) {
+            throw new EDBException("the current state is already tagged as " + existing.get(0).getTag());
+        }
+        LOGGER.debug("tagging the state of the revision {} as {}", revision, tag);
+        try {
+            performUtxAction(UTXACTION.BEGIN);
+            if (existing.isEmpty()) {
+                snapshots.save(revision, System.currentTimeMillis(), tag);
+            } else {
+                existing.get(0).setTag(tag);
+            }
+            performUtxAction(UTXACTION.COMMIT);
+        } catch (Exception ex) {
+            try {
+                performUtxAction(UTXACTION.ROLLBACK);
+            } catch (Exception e) {
+                throw new EDBException("Failed to rollback transaction to DB", e);
+            }
+            throw new EDBException("Failed to tag the current state", ex);
+        }
+        return revision;
+    }
+
+    @Override
+    public List<EDBObject> getTaggedState(String tag) throws EDBException {
+        startCall();
+        JPASnapshot snapshot = dao.getJPASnapshotByTag(tag);
+        if (snapshot == null) {
+            throw new EDBException("there is no state with the tag " + tag);
+        }
+        return generateEDBObjectList(dao.getJPASnapshotObjects(snapshot.getRevision()));
+    }
+
+    @Override
+    public int compactHistory(int maxVersions) throws EDBException {
+        if (retentionVersions <= 0 && retentionDays <= 0) {
+            return 0;
+        }
+        startCall();
+        Long cutoff = retentionDays > 0 ? System.currentTimeMillis() - retentionDays * MILLISECONDS_PER_DAY : null;
+        List<JPAObject> objects;
+        File archive = null;
+        try {
+            performUtxAction(UTXACTION.BEGIN);
+            objects = dao.getPrunableJPAObjects(retentionVersions, cutoff, maxVersions);
+            if (!objects.isEmpty()) {
+                archive = compactor.archive(objects, archiveDirectory);
+                compactor.remove(objects, deltaVersions);
+            }
+            performUtxAction(UTXACTION.COMMIT);
+        } catch (Exception ex) {
+            compactor.discardArchive(archive);
+            try {
+                performUtxAction(UTXACTION.ROLLBACK);
+            } catch (Exception e) {
+                throw new EDBException("Failed to rollback transaction to DB", e);
+            }
+            throw new EDBException("Failed to compact the history", ex);
+        }
+        compactor.completeArchive(archive);
+        LOGGER.debug("removed {} versions out of the history", objects.size());
+        return objects.size();
+    }
+
+    @Override
+    public int importArchive(String archiveFile) throws EDBException {
+        startCall();
+        List<JPAObject> objects = HistoryArchive.read(new File(archiveFile));
+        int imported;
+        try {
+            performUtxAction(UTXACTION.BEGIN);
+            imported = compactor.importObjects(objects);
+            performUtxAction(UTXACTION.COMMIT);
+        } catch (Exception ex) {
+            try {
+                performUtxAction(UTXACTION.ROLLBACK);
+            } catch (Exception e) {
+                throw new EDBException("Failed to rollback transaction to DB", e);
+            }
+            throw new EDBException("Failed to import the archive file " + archiveFile, ex);
+        }
+        long maxRevision = 0;
+        for (JPAObject object : objects) {
+            maxRevision = Math.max(maxRevision, object.getRevision());
+        }
+        raiseRevisionCounter(maxRevision);
+        if (imported > 0) {
+            clearObjectCache();
+        }
+        LOGGER.info("imported {} versions out of the archive file {}", imported, archiveFile);
+        return imported;
+    }
+
+    @Override
+    public void addChangeListener(EDBChangeListener listener, Long fromRevision) throws EDBException {
+        startCall();
+        changeFeed.addListener(listener, fromRevision);
+    }
+
+    @Override
+    public void removeChangeListener(EDBChangeListener listener) throws EDBException {
+        changeFeed.removeListener(listener);
+    }
+
+    @Override
+    public List<EDBChange> getChanges(Long fromRevision, int max) throws EDBException {
+        // the commits after a running one are left out, otherwise a caller which continues after them would miss it
+        return getChanges(fromRevision != null ? fromRevision : 0L, getCompletedRevision(), max);
+    }
+
+    /**
+     * returns at most max changes of the commits with a revision higher than fromRevision and up to toRevision
+     */
+    List<EDBChange> getChanges(long fromRevision, long toRevision, int max) throws EDBException {
+        startCall();
+        List<EDBChange> changes = new ArrayList<EDBChange>();
+        for (JPACommit commit : dao.getJPACommitsAfter(fromRevision, toRevision, max)) {
+            changes.add(loadChange(commit));
+        }
+        return changes;
+    }
+
+    /**
+     * rebuilds the change of the given commit out of the history. An oid counts as inserted if it had no active
+     * version before the commit.
+     */
+    private EDBChange loadChange(JPACommit commit) {
+        long revision = commit.getRevisionNumber();
+        List<JPAObject> objects = dao.getJPAObjectsOfRevision(revision);
+        List<String> oids = new ArrayList<String>();
+        for (JPAObject object : objects) {
+            if (!object.isDeleted()) {
+                oids.add(object.getOID());
+            }
+        }
+        Set<String> existing = new HashSet<String>();
+        for (EDBObject object : loadObjects(oids, revision - 1)) {
+            existing.add(object.getOID());
+        }
+        EDBChange change = new EDBChange(commit);
+        for (JPAObject object : objects) {
+            String oid = oidPrefixes.toLongOID(object.getOID());
+            if (object.isDeleted()) {
+                change.getDeletions().add(oid);
+            } else if (existing.contains(oid)) {
+                change.getUpdates().add(oid);
+            } else {
+                change.getInserts().add(oid);
+            }
+        }
+        return change;
+    }
+
+    @Override
+    public void processEDBInsertEvent(EDBInsertEvent event) throws EDBException {
+        LOGGER.debug("received insert event");
+
+        processEvent(Arrays.asList(event.getModel()), null, null, event);
+
+        LOGGER.debug("successfully inserted model");
+    }
+
+    @Override
+    public void processEDBDeleteEvent(EDBDeleteEvent event) throws EDBException {
+        LOGGER.debug("received delete event");
+
+        processEvent(null, null, Arrays.asList(event.getModel()), event);
+
+        LOGGER.debug("successfully deleted model");
+    }
+
+    @Override
+    public void processEDBUpdateEvent(EDBUpdateEvent event) throws EDBException {
+        LOGGER.debug("received update event");
+
+        processEvent(null, Arrays.asList(event.getModel()), null, event);
+
+        LOGGER.debug("successfully updated model");
+    }
+
+    @Override
+    public void processEDBBatchEvent(EDBBatchEvent event) throws EDBException {
+        LOGGER.debug("received batch event");
+
+        if (batchSliceSize > 0) {
+            processBatchInSlices(event);
+        } else {
+            processEvent(event.getInserts(), event.getUpdates(), event.getDeletions(), event);
+        }
+
+        LOGGER.debug("successfully run through the edb batch event");
+    }
+
+    /**
+     * splits the models of the given batch, in the order inserts, updates and deletions, into slices of
+     * batchSliceSize models and commits every slice on its own. The slices which were already committed under the
+     * batch id of the event are skipped, so a failed batch can be resumed by sending it again.
+     */
+    private void processBatchInSlices(EDBBatchEvent event) throws EDBException {
+        if (event.getBatchId() == null) {
+            event.setBatchId(UUID.randomUUID().toString());
+        }
+        String batchId = event.getBatchId();
+        List<OpenEngSBModel> inserts = event.getInserts();
+        List<OpenEngSBModel> updates = event.getUpdates();
+        List<OpenEngSBModel> deletes = event.getDeletions();
+        int total = inserts.size() + updates.size() + deletes.size();
+        int slices = (total + batchSliceSize - 1) / batchSliceSize;
+
+        startCall();
+        Integer lastSlice = dao.getLastJPACommitBatchSlice(batchId);
+        int first = lastSlice != null ? lastSlice + 1 : 0;
+        if (first > 0) {
+            LOGGER.info("resuming the batch {} after the slice {}", batchId, lastSlice);
+            metrics.countResumedBatch();
+        }
+        for (int slice = first; slice < slices; slice++) {
+            int from = slice * batchSliceSize;
+            int to = Math.min(from + batchSliceSize, total);
+            try {
+                commitSlice(getSlice(inserts, from, to, 0), getSlice(updates, from, to, inserts.size()),
+                    getSlice(deletes, from, to, inserts.size() + updates.size()), event, slice);
+            } catch (EDBException e) {
+                throw new EDBException("failed to commit the slice " + slice + " of the batch " + batchId
+                        + ". Send the batch again with the same batch id to resume it.", e);
+            }
+            LOGGER.debug("committed the slice {} of {} of the batch {}", new Object[]{ slice + 1, slices, batchId });
+        }
+    }
+
+    /**
+     * returns the part of the given models which lies between the positions from and to of all models of a batch.
+     * The given models start at the position offset.
+     */
+    private static List<OpenEngSBModel> getSlice(List<OpenEngSBModel> models, int from, int to, int offset) {
+        int start = Math.max(from - offset, 0);
+        int end = Math.min(to - offset, models.size());
+        return start < end ? models.subList(start, end) : new ArrayList<OpenEngSBModel>();
+    }
+
+    /**
+     * commits the given models as the slice with the given number of a batch. If the transactions are managed by the
+     * container, the surrounding transaction is suspended, so that the slice is committed in its own transaction.
+     */
+    private void commitSlice(final List<OpenEngSBModel> inserts, final List<OpenEngSBModel> updates,
+            final List<OpenEngSBModel> deletes, final EDBBatchEvent event, int slice) throws EDBException {
+        final JPACommit commit = createCommit(getAuthenticatedUser(), getActualContextId());
+        commit.setBatch(event.getBatchId(), slice);
+        if (resourceLocal || transactionManager == null) {
+            makeEDBActions(inserts, updates, deletes, event, commit);
+            return;
+        }
+        runInOwnTransaction(new Runnable() {
+            @Override
+            public void run() {
+                makeEDBActions(inserts, updates, deletes, event, commit);
+            }
+        });
+    }
+
+    /**
+     * runs the given work in a transaction of its own. A surrounding container transaction is suspended meanwhile and
+     * resumed afterwards, so the work stays committed even if the surrounding transaction is rolled back later.
+     */
+    private void runInOwnTransaction(Runnable work) throws EDBException {
+        TransactionManager manager = transactionManager;
+        if (resourceLocal || manager == null) {
+            try {
+                performUtxAction(UTXACTION.BEGIN);
+                work.run();
+                performUtxAction(UTXACTION.COMMIT);
+            } catch (RuntimeException e) {
+                performUtxAction(UTXACTION.ROLLBACK);
+                throw e;
+            }
+            return;
+        }
+        Transaction surrounding = null;
+        try {
+            surrounding = manager.suspend();
+            manager.begin();
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                manager.rollback();
+                throw e;
+            }
+            manager.commit();
+        } catch (EDBException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new EDBException("failed to commit the work in its own transaction", e);
+        } finally {
+            resumeTransaction(manager, surrounding);
+        }
+    }
+
+    private void resumeTransaction(TransactionManager manager, Transaction transaction) throws EDBException {
+        if (transaction == null) {
+            return;
+        }
+        try {
+            manager.resume(transaction);
+        } catch (Exception e) {
+            throw new EDBException("failed to resume the surrounding transaction", e);
+        }
+    }
+
+    @Override
+    public Long bulkImport(EDBEvent source, Iterator<OpenEngSBModel> models, boolean emptyTarget,
+            EDBImportListener listener) throws EDBException {
+        LOGGER.debug("starting a bulk import");
+        startCall();
+        long start = System.currentTimeMillis();
+        JPACommit commit = createCommit(getAuthenticatedUser(), getActualContextId());
+        long revision = allocateRevision(commit);
+        long timestamp = commit.getTimestamp();
+
+        // the oids are only collected if somebody listens, since an import may contain millions of them
+        EDBChange change = changeFeed.hasListeners() ? new EDBChange(commit) : null;
+        long imported = 0;
+        List<JPAOIDPrefix> prefixes = new ArrayList<JPAOIDPrefix>();
+        Set<String> importedOIDs = new LinkedHashSet<String>();
+        try {
+            performUtxAction(UTXACTION.BEGIN);
+            commit.setCommitted(true);
+            entityManager.persist(commit);
+            JPACommit managedCommit = commit;
+            List<OpenEngSBModel> chunk = new ArrayList<OpenEngSBModel>();
+            while (models.hasNext()) {
+                chunk.add(models.next());
+                if (chunk.size() < bulkImportChunkSize && models.hasNext()) {
+                    continue;
+                }
+                imported += importChunk(chunk, source, emptyTarget, timestamp, managedCommit, change, importedOIDs);
+                prefixes.addAll(saveOIDPrefixes());
+                chunk.clear();
+                // the inserts of the chunk are sent in JDBC batches and the persistence context is emptied again
+                entityManager.flush();
+                entityManager.clear();
+                // the objects of the next chunk reference the commit, so it has to be managed again
+                managedCommit = entityManager.merge(commit);
+                if (listener != null) {
+                    listener.onProgress(imported, System.currentTimeMillis() - start);
+                }
+            }
+            // the oids are added at the end, otherwise every merge of the commit would write the whole list again
+            managedCommit.addImportedOIDs(importedOIDs);
+            entityManager.flush();
+            performUtxAction(UTXACTION.COMMIT);
+        } catch (Exception ex) {
+            changeFeed.skip(revision);
+            oidPrefixes.returnUnsaved(prefixes);
+            try {
+                performUtxAction(UTXACTION.ROLLBACK);
+            } catch (Exception e) {
+                throw new EDBException("Failed to rollback transaction to DB", e);
+            }
+            throw new EDBException("Failed to import the models", ex);
+        } finally {
+            releaseRevisionAfterCompletion(revision);
         }
-        return commits.get(0);
+        clearObjectCache();
+        if (change != null) {
+            publishChange(change);
+        } else {
+            changeFeed.skip(revision);
+        }
+        countCommitForSnapshot();
+        long duration = Math.max(System.currentTimeMillis() - start, 1);
+        LOGGER.info("imported {} objects in {} ms ({} objects per second)",
+            new Object[]{ imported, duration, imported * 1000 / duration });
+        return revision;
     }
 
-    @Override
-    public Diff getDiff(Long firstTimestamp, Long secondTimestamp) throws EDBException {
-        List<EDBObject> headA = getHead(firstTimestamp);
-        List<EDBObject> headB = getHead(secondTimestamp);
-
-        return new Diff(getCommit(firstTimestamp), getCommit(secondTimestamp), headA, headB);
+    /**
+     * converts and persists a chunk of models of a bulk import and returns the number of written objects. The head
+     * objects of all oids of the chunk are loaded with a few queries, or not at all if the target is known to be empty.
+     * The oids of the written objects are added to the given set of imported oids. An oid which is contained twice in
+     * the import is rejected, since the head object of the first version is not loaded again for the second one.
+     */
+    private int importChunk(List<OpenEngSBModel> chunk, EDBEvent source, boolean emptyTarget, long timestamp,
+            JPACommit commit, EDBChange change, Set<String> importedOIDs) throws EDBException {
+        HeadObjectLookup lookup = new HeadObjectLookup(dao, storedOIDGenerator, source);
+        lookup.addModels(chunk);
+        if (emptyTarget) {
+            lookup.assumeNew();
+        } else {
+            lookup.load();
+        }
+        List<EDBObject> objects = checkInserts(chunk, lookup);
+        List<String> existing = new ArrayList<String>();
+        for (EDBObject object : objects) {
+            String oid = oidPrefixes.toStoredOID(object.getOID());
+            if (lookup.getHead(oid) != null) {
+                existing.add(oid);
+            }
+        }
+        removeIndexEntries(existing);
+        for (EDBObject object : objects) {
+            if (!importedOIDs.add(oidPrefixes.toLongOID(object.getOID()))) {
+                throw new EDBException("the object " + object.getOID() + " is contained twice in the bulk import");
+            }
+            object.updateTimestamp(timestamp);
+            JPAObject jpaObject = new JPAObject(toStoredObject(object));
+            jpaObject.setRevision(commit.getRevisionNumber());
+            jpaObject.setBaseRevision(commit.getRevisionNumber());
+            jpaObject.setCommit(commit);
+            encodePayload(jpaObject);
+            entityManager.persist(jpaObject);
+
+            String oid = jpaObject.getOID();
+            JPAHeadObject head = lookup.getHead(oid);
+            if (change != null) {
+                addToChange(change, jpaObject, head);
+            }
+            if (head == null) {
+                head = new JPAHeadObject(oid);
+                head.update(jpaObject);
+                entityManager.persist(head);
+            } else {
+                recordResurrection(jpaObject, head);
+                head.update(jpaObject);
+            }
+            addIndexEntries(jpaObject);
+        }
+        return objects.size();
     }
 
-    @Override
-    public List<String> getResurrectedOIDs() throws EDBException {
-        return dao.getResurrectedOIDs();
+    /**
+     * commits the changes of the given event directly or, if the group commit pipeline is enabled, together with
+     * other events which arrive at the same time
+     */
+    private void processEvent(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletes, EDBEvent event) throws EDBException {
+        GroupCommitPipeline pipeline = groupCommitPipeline;
+        if (pipeline == null) {
+            makeEDBActions(inserts, updates, deletes, event);
+        } else {
+            pipeline.submit(new QueuedEDBEvent(inserts, updates, deletes, event, getAuthenticatedUser(),
+                getActualContextId()));
+        }
     }
 
-    @Override
-    public List<EDBObject> getStateOfLastCommitMatching(
-            Map<String, Object> queryMap) throws EDBException {
-        JPACommit ci = getLastCommit(queryMap);
-        return getHead(ci.getTimestamp());
+    private void makeEDBActions(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletes, EDBEvent event) throws EDBException {
+        makeEDBActions(inserts, updates, deletes, event, createCommit(getAuthenticatedUser(), getActualContextId()));
     }
 
-    @Override
-    public List<EDBObject> getStateOfLastCommitMatching(String key, Object value) throws EDBException {
-        Map<String, Object> query = new HashMap<String, Object>();
-        query.put(key, value);
-        return getStateOfLastCommitMatching(query);
+    private void makeEDBActions(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletes, EDBEvent event, JPACommit commit) throws EDBException {
+        startCall();
+        HeadObjectLookup lookup = createLookup(inserts, updates, deletes, event);
+        lookup.load();
+        fillCommit(commit, inserts, updates, deletes, lookup, event);
+        this.commit(commit, lookup.getHeads());
+        countMergedUpdates(lookup.getMergeCount());
     }
 
-    @Override
-    public void processEDBInsertEvent(EDBInsertEvent event) throws EDBException {
-        LOGGER.debug("received insert event");
-
-        makeEDBActions(Arrays.asList(event.getModel()), null, null, event);
-
-        LOGGER.debug("successfully inserted model");
+    /**
+     * counts the given number of merged updates once the transaction of their commit is committed
+     */
+    private void countMergedUpdates(final int updates) {
+        if (updates == 0) {
+            return;
+        }
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                metrics.countMergedUpdates(updates);
+            }
+        }, null);
     }
 
-    @Override
-    public void processEDBDeleteEvent(EDBDeleteEvent event) throws EDBException {
-        LOGGER.debug("received delete event");
+    /**
+     * commits a group of queued events from the front of the given list in one commit and returns how many of them
+     * were processed. The first event is always processed. The following events are added as long as they have the
+     * same committer and context and touch other oids than the events before. The first event, which belongs to the
+     * calling leader, is marked with its outcome at once. The other processed events are completed by the given
+     * pipeline once the transaction of the leader is completed, since their callers must not see them as committed
+     * before. If the commit of the group fails, its events are committed one by one, so only the events which caused
+     * the failure get an error.
+     */
+    int processEventGroup(final GroupCommitPipeline pipeline, List<QueuedEDBEvent> candidates) {
+        startCall();
+        QueuedEDBEvent first = candidates.get(0);
+        List<HeadObjectLookup> lookups = new ArrayList<HeadObjectLookup>();
+        Set<String> oids = new HashSet<String>();
+        for (QueuedEDBEvent queued : candidates) {
+            HeadObjectLookup lookup = createLookup(queued.getInserts(), queued.getUpdates(), queued.getDeletions(),
+                queued.getEvent());
+            Set<String> eventOids = lookup.getOIDs();
+            if (!lookups.isEmpty() && (!first.isCompatible(queued) || !Collections.disjoint(oids, eventOids))) {
+                break;
+            }
+            oids.addAll(eventOids);
+            lookups.add(lookup);
+        }
 
-        makeEDBActions(null, null, Arrays.asList(event.getModel()), event);
+        JPACommit commit = createCommit(first.getCommitter(), first.getContextId());
+        List<QueuedEDBEvent> members = new ArrayList<QueuedEDBEvent>();
+        Map<String, JPAHeadObject> heads = new HashMap<String, JPAHeadObject>();
+        int mergedUpdates = 0;
+        for (int i = 0; i < lookups.size(); i++) {
+            QueuedEDBEvent queued = candidates.get(i);
+            JPACommit eventCommit = createCommit(queued.getCommitter(), queued.getContextId());
+            try {
+                lookups.get(i).load();
+                fillCommit(eventCommit, queued.getInserts(), queued.getUpdates(), queued.getDeletions(),
+                    lookups.get(i), queued.getEvent());
+            } catch (EDBException e) {
+                queued.fail(e);
+                if (i == 0) {
+                    // the leader would roll back the whole group with its own failure
+                    return 1;
+                }
+                continue;
+            }
+            for (EDBObject object : eventCommit.getObjects()) {
+                commit.add(object);
+            }
+            for (String oid : eventCommit.getDeletions()) {
+                commit.delete(oid);
+            }
+            members.add(queued);
+            heads.putAll(lookups.get(i).getHeads());
+            mergedUpdates += lookups.get(i).getMergeCount();
+        }
 
-        LOGGER.debug("successfully deleted model");
+        try {
+            this.commit(commit, heads);
+        } catch (EDBException e) {
+            if (members.size() == 1) {
+                members.get(0).fail(e);
+                return lookups.size();
+            }
+            LOGGER.debug("the group commit of {} events failed, committing them one by one", members.size());
+            for (QueuedEDBEvent queued : members) {
+                retryQueuedEvent(queued, queued == first);
+            }
+            return lookups.size();
+        }
+        countMergedUpdates(mergedUpdates);
+        first.succeed();
+        final List<QueuedEDBEvent> followers = new ArrayList<QueuedEDBEvent>(members.subList(1, members.size()));
+        runAfterCompletion(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.complete(followers, null);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                pipeline.complete(followers, new EDBException("the transaction of the group commit was rolled back"));
+            }
+        });
+        return lookups.size();
     }
 
-    @Override
-    public void processEDBUpdateEvent(EDBUpdateEvent event) throws EDBException {
-        LOGGER.debug("received update event");
-
-        makeEDBActions(null, Arrays.asList(event.getModel()), null, event);
-
-        LOGGER.debug("successfully updated model");
+    /**
+     * commits the given event of a failed group commit alone and marks it with the outcome. The event of the leader is
+     * committed in the transaction of its caller, the events of the other callers each in a transaction of their own,
+     * so they don't depend on the transaction of the leader any more.
+     */
+    private void retryQueuedEvent(final QueuedEDBEvent queued, boolean leader) {
+        Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                makeEDBActions(queued.getInserts(), queued.getUpdates(), queued.getDeletions(), queued.getEvent(),
+                    createCommit(queued.getCommitter(), queued.getContextId()));
+            }
+        };
+        try {
+            if (leader || resourceLocal) {
+                // a commit in resource local mode runs in a transaction of its own anyway
+                work.run();
+            } else {
+                runInOwnTransaction(work);
+            }
+            queued.succeed();
+        } catch (EDBException e) {
+            queued.fail(e);
+        }
     }
 
-    @Override
-    public void processEDBBatchEvent(EDBBatchEvent event) throws EDBException {
-        LOGGER.debug("received batch event");
-
-        makeEDBActions(event.getInserts(), event.getUpdates(), event.getDeletions(), event);
-
-        LOGGER.debug("successfully run through the edb batch event");
+    /**
+     * creates a HeadObjectLookup which contains all models of the given lists
+     */
+    private HeadObjectLookup createLookup(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletes, EDBEvent event) {
+        HeadObjectLookup lookup = new HeadObjectLookup(dao, storedOIDGenerator, event);
+        lookup.addModels(inserts);
+        lookup.addModels(updates);
+        lookup.addModels(deletes);
+        return lookup;
     }
 
-    private void makeEDBActions(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
-            List<OpenEngSBModel> deletes, EDBEvent event) throws EDBException {
-        JPACommit commit = createCommit(getAuthenticatedUser(), getActualContextId());
-
+    /**
+     * checks the given models against the current state and adds the resulting objects and deletions to the commit
+     */
+    private void fillCommit(JPACommit commit, List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletes, HeadObjectLookup lookup, EDBEvent event) throws EDBException {
         if (inserts != null) {
-            for (EDBObject object : checkInserts(inserts, event)) {
+            for (EDBObject object : checkInserts(inserts, lookup)) {
                 commit.add(object);
             }
         }
         if (deletes != null) {
-            for (String oid : checkDeletions(deletes, event)) {
-                commit.delete(oid);
+            for (String oid : checkDeletions(deletes, lookup)) {
+                commit.delete(oidPrefixes.toLongOID(oid));
             }
         }
         if (updates != null) {
-            for (EDBObject object : checkUpdates(updates, event)) {
+            for (EDBObject object : checkUpdates(updates, lookup, event)) {
                 commit.add(object);
             }
         }
-
-        this.commit(commit);
     }
 
-    private List<EDBObject> checkInserts(List<OpenEngSBModel> inserts, EDBEvent event) throws EDBException {
+    private List<EDBObject> checkInserts(List<OpenEngSBModel> inserts, HeadObjectLookup lookup)
+        throws EDBException {
         List<EDBObject> objects = new ArrayList<EDBObject>();
         for (OpenEngSBModel model : inserts) {
-            String oid = ModelConverterUtils.createOID(model, event);
-            if (checkIfActiveOidExisting(oid)) {
+            String oid = lookup.getOID(model);
+            if (lookup.isActive(oid)) {
                 throw new EDBException("object under the given oid is already existing");
             } else {
-                objects.addAll(convertModelToEDBObject(model, oid, event, 1));
+                objects.addAll(convertModelToEDBObject(model, oid, lookup, 1));
             }
         }
         return objects;
     }
 
-    private List<String> checkDeletions(List<OpenEngSBModel> deletions, EDBEvent event) throws EDBException {
+    private List<String> checkDeletions(List<OpenEngSBModel> deletions, HeadObjectLookup lookup)
+        throws EDBException {
         List<String> oids = new ArrayList<String>();
         for (OpenEngSBModel model : deletions) {
-            String oid = ModelConverterUtils.createOID(model, event);
-            if (!checkIfActiveOidExisting(oid)) {
+            String oid = lookup.getOID(model);
+            if (!lookup.isActive(oid)) {
                 throw new EDBException("the object under given oid is not existing or already deleted");
             } else {
                 oids.add(oid);
@@ -404,60 +2059,69 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
         return oids;
     }
 
-    private List<EDBObject> checkUpdates(List<OpenEngSBModel> updates, EDBEvent event) throws EDBException {
+    private List<EDBObject> checkUpdates(List<OpenEngSBModel> updates, HeadObjectLookup lookup, EDBEvent event)
+        throws EDBException {
         List<EDBObject> objects = new ArrayList<EDBObject>();
         for (OpenEngSBModel model : updates) {
-            String oid = ModelConverterUtils.createOID(model, event);
-            Integer modelVersion = investigateVersionAndCheckForConflict(model, oid);
+            String oid = lookup.getOID(model);
+            Integer modelVersion = investigateVersionAndCheckForConflict(model, oid, lookup);
             modelVersion++;
             model.addOpenEngSBModelEntry(new OpenEngSBModelEntry(ModelConverterUtils.MODELVERSION, modelVersion,
                 Integer.class));
-            objects.addAll(convertModelToEDBObject(model, oid, event, modelVersion));
+            objects.addAll(convertModelToEDBObject(model, oid, lookup, modelVersion));
         }
         return objects;
     }
 
-    private Integer investigateVersionAndCheckForConflict(OpenEngSBModel model, String oid) throws EDBException {
+    private Integer investigateVersionAndCheckForConflict(OpenEngSBModel model, String oid, HeadObjectLookup lookup)
+        throws EDBException {
         Integer modelVersion = ModelConverterUtils.getModelVersion(model);
 
         if (modelVersion != null) {
-            Integer currentVersion = getVersionOfOid(oid);
+            Integer currentVersion = lookup.getVersion(oid);
             if (!modelVersion.equals(currentVersion)) {
                 try {
-                    checkForConflict(model, oid);
+                    checkForConflict(model, lookup.getHead(oid));
                 } catch (EDBException e) {
-                    LOGGER.info("conflict detected, user get informed");
-                    throw new EDBException("conflict was detected. There is a newer version of the model with the oid "
-                            + oid + " saved.");
+                    if (mergeUpdates && modelVersion < currentVersion && lookup.isActive(oid)) {
+                        LOGGER.debug("the model with the oid {} is merged with the newer versions", oid);
+                        lookup.markForMerge(oid, modelVersion);
+                    } else {
+                        metrics.countRejectedUpdate();
+                        LOGGER.info("conflict detected, user get informed");
+                        throw new EDBException("conflict was detected. There is a newer version of the model with the "
+                                + "oid " + oid + " saved.");
+                    }
                 }
                 modelVersion = currentVersion;
             }
         } else {
-            modelVersion = getVersionOfOid(oid);
+            modelVersion = lookup.getVersion(oid);
         }
 
         return modelVersion;
     }
 
-    private List<EDBObject> convertModelToEDBObject(OpenEngSBModel model, String oid, EDBEvent event, Integer version) {
+    private List<EDBObject> convertModelToEDBObject(OpenEngSBModel model, String oid, HeadObjectLookup lookup,
+            Integer version) {
         List<EDBObject> objects = new ArrayList<EDBObject>();
-        convertSubModel(model, event, objects, oid, version);
+        convertSubModel(model, lookup, objects, oid, version);
         return objects;
     }
 
-    private String convertSubModel(OpenEngSBModel model, EDBEvent event, List<EDBObject> objects) {
-        return convertSubModel(model, event, objects, null, null);
+    private String convertSubModel(OpenEngSBModel model, HeadObjectLookup lookup, List<EDBObject> objects) {
+        return convertSubModel(model, lookup, objects, null, null);
     }
 
-    private String convertSubModel(OpenEngSBModel model, EDBEvent event, List<EDBObject> objects, String oid,
-            Integer version) {
+    private String convertSubModel(OpenEngSBModel model, HeadObjectLookup lookup, List<EDBObject> objects,
+            String oid, Integer version) {
         Integer modelVersion;
         if (oid == null) {
-            oid = ModelConverterUtils.createOID(model, event);
+            oid = lookup.getOID(model);
         }
         if (version == null) {
-            if (checkIfActiveOidExisting(oid)) {
-                modelVersion = investigateVersionAndCheckForConflict(model, oid);
+            if (lookup.isActive(oid)) {
+                modelVersion = investigateVersionAndCheckForConflict(model, oid, lookup);
             } else {
                 modelVersion = 1;
             }
@@ -472,8 +2136,8 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
                 if (entry.getValue() == null) {
                     continue;
                 }
-                String subOid = convertSubModel((OpenEngSBModel) entry.getValue(), event, objects);
-                object.put(entry.getKey(), subOid);
+                String subOid = convertSubModel((OpenEngSBModel) entry.getValue(), lookup, objects);
+                object.put(entry.getKey(), oidPrefixes.toLongOID(subOid));
             } else if (List.class.isAssignableFrom(entry.getType())) {
                 @SuppressWarnings("unchecked")
                 List<OpenEngSBModel> subList = (List<OpenEngSBModel>) entry.getValue();
@@ -481,22 +2145,102 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
                     continue;
                 }
                 for (int i = 0; i < subList.size(); i++) {
-                    String subOid = convertSubModel((OpenEngSBModel) subList.get(i), event, objects);
-                    object.put(entry.getKey() + i, subOid);
+                    String subOid = convertSubModel((OpenEngSBModel) subList.get(i), lookup, objects);
+                    object.put(entry.getKey() + i, oidPrefixes.toLongOID(subOid));
                 }
             } else {
                 object.put(entry.getKey(), entry.getValue());
             }
         }
+        EDBEvent event = lookup.getEvent();
         object.put("domainId", event.getDomainId());
         object.put("connectorId", event.getConnectorId());
         object.put("instanceId", event.getInstanceId());
         object.put(ModelConverterUtils.MODELVERSION, modelVersion);
 
+        Integer mergeBase = lookup.getMergeBase(oid);
+        if (mergeBase != null) {
+            object = mergeWithNewerVersions(object, mergeBase, lookup.getHead(oid));
+        }
+        // the objects of a commit carry the long form of their oid, like the objects of the callers of commit
+        object.setOID(oidPrefixes.toLongOID(oid));
         objects.add(object);
         return oid;
     }
 
+    /**
+     * applies the keys which the given object changed since the version at which its model was read on the current
+     * state of its oid. If one of these keys was also changed by the versions saved in between, the update is
+     * rejected with an EDBException.
+     */
+    private EDBObject mergeWithNewerVersions(EDBObject object, Integer baseVersion, JPAHeadObject head)
+        throws EDBException {
+        String oid = object.getOID();
+        JPAObject base = dao.getPreviousJPAObject(oid, head.getVersion() - baseVersion);
+        if (base == null || base.isDeleted()) {
+            metrics.countRejectedUpdate();
+            throw new EDBException("conflict was detected. The version " + baseVersion + " of the model with the oid "
+                    + oid + " is not available any more for a merge.");
+        }
+        List<JPAObject> decoded = deltaCodec.decode(Arrays.asList(base, head.getObject()));
+        EDBObject before = decoded.get(0).getObject();
+        EDBObject current = decoded.get(1).getObject();
+        Set<String> changed = getChangedKeys(before, object);
+        Set<String> overlapping = getChangedKeys(before, current);
+        overlapping.retainAll(changed);
+        if (!overlapping.isEmpty()) {
+            metrics.countRejectedUpdate();
+            LOGGER.info("conflict detected on the keys {} of {}, user get informed", overlapping, oid);
+            throw new EDBException("conflict was detected. The keys " + overlapping + " of the model with the oid "
+                    + oid + " were changed by a newer version.");
+        }
+        EDBObject merged = new EDBObject(oid, current);
+        for (String key : changed) {
+            if (object.containsKey(key)) {
+                merged.put(key, object.get(key));
+            } else {
+                merged.remove(key);
+            }
+        }
+        for (String key : MERGE_IGNORED_KEYS) {
+            merged.put(key, object.get(key));
+        }
+        merged.remove("timestamp");
+        LOGGER.debug("merged the keys {} of {} with the newer versions", changed, oid);
+        return merged;
+    }
+
+    /**
+     * returns the keys whose values differ between the given states, without the keys which are set by the EDB
+     */
+    private static Set<String> getChangedKeys(Map<String, Object> before, Map<String, Object> after) {
+        Set<String> keys = new HashSet<String>(before.keySet());
+        keys.addAll(after.keySet());
+        keys.removeAll(MERGE_IGNORED_KEYS);
+        keys.remove("timestamp");
+        Set<String> changed = new HashSet<String>();
+        for (String key : keys) {
+            if (!isSameValue(before.get(key), after.get(key))) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * compares two values like the EDB saves them, so values of types without a typed column are compared by their
+     * string representation
+     */
+    private static boolean isSameValue(Object first, Object second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        if (first instanceof byte[] && second instanceof byte[]) {
+            return Arrays.equals((byte[]) first, (byte[]) second);
+        }
+        return first.equals(second) || first.toString().equals(second.toString());
+    }
+
     private String getAuthenticatedUser() {
         // if JPADatabase is called via integration tests
         if (SecurityContextHolder.getContext().getAuthentication() == null) {
@@ -513,24 +2257,15 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
         return ContextHolder.get().getCurrentContextId();
     }
 
-    private boolean checkIfActiveOidExisting(String oid) {
-        try {
-            EDBObject obj = getObject(oid);
-            if (!obj.isDeleted()) {
-                return true;
-            }
-        } catch (EDBException e) {
-            // nothing to do here
-        }
-        return false;
-    }
-
     /**
      * simple check mechanism if there is a conflict between a model which should be saved and the existing model under
      * the given oid, based on the values which are in the edb.
      */
-    private void checkForConflict(OpenEngSBModel model, String oid) throws EDBException {
-        EDBObject object = getObject(oid);
+    private void checkForConflict(OpenEngSBModel model, JPAHeadObject head) throws EDBException {
+        if (head == null) {
+            throw new EDBException();
+        }
+        EDBObject object = toEDBObject(head.getObject());
         for (OpenEngSBModelEntry entry : model.getOpenEngSBModelEntries()) {
             Object value = object.get(entry.getKey());
             if (value == null || !value.equals(entry.getValue())) {
@@ -539,12 +2274,243 @@ public class JPADatabase implements org.openengsb.core.api.edb.EngineeringDataba
         }
     }
 
-    private Integer getVersionOfOid(String oid) throws EDBException {
-        return dao.getVersionOfOid(oid);
-    }
-
     public void setEntityManager(EntityManager entityManager) {
         this.entityManager = entityManager;
-        dao = new DefaultJPADao(entityManager);
+        dao = new DefaultJPADao(entityManager, indexDefinition);
+        dao.setDeltaVersions(deltaVersions);
+        deltaCodec = new DeltaCodec(dao);
+        payloadCodec = new PayloadCodec(entityManager, indexDefinition, this);
+        snapshots = new SnapshotStore(entityManager, dao);
+        compactor = new HistoryCompactor(entityManager, dao, deltaCodec, snapshots, this);
+        migration = new HeadIndexMigration(entityManager, dao, deltaCodec, indexDefinition, this);
+        oidPrefixes.setDao(dao);
+        dao.setMetrics(metrics);
+    }
+
+    /**
+     * sets after how many versions of an oid a full version is saved. The versions in between only contain the
+     * entries which changed since their previous version. A value of 1 or less saves every version full. Once delta
+     * versions have been saved, the queries check the decoded state even if the delta storage is disabled again.
+     */
+    public void setFullVersionInterval(int fullVersionInterval) {
+        this.fullVersionInterval = fullVersionInterval;
+        if (fullVersionInterval > 1) {
+            enableDeltaVersions();
+        }
+    }
+
+    /**
+     * sets if the entries of full versions are saved as one compressed payload instead of one JPAEntry per key. The
+     * payload references a dictionary of its keys, which is shared by all objects of the same model. Only the entries
+     * of the indexed keys are saved as JPAEntries too, so the queries for other keys fail with an EDBException as long
+     * as one of the queried objects is saved as payload. Versions which are already saved stay as they are.
+     */
+    public void setPayloadEncoding(boolean payloadEncoding) {
+        this.payloadEncoding = payloadEncoding;
+    }
+
+    /**
+     * sets if an update of a model which was read at an older version is merged with the versions saved in between,
+     * as long as they changed other keys than the update. Otherwise every update of an older version whose values
+     * differ from the current state is rejected.
+     */
+    public void setMergeUpdates(boolean mergeUpdates) {
+        this.mergeUpdates = mergeUpdates;
+    }
+
+    /**
+     * returns the number of updates which were merged with newer versions since the start of the EDB
+     */
+    public long getMergedUpdateCount() {
+        return metrics.getMergedUpdates();
+    }
+
+    /**
+     * returns the number of updates which were rejected because of a conflict since the start of the EDB
+     */
+    public long getRejectedUpdateCount() {
+        return metrics.getRejectedUpdates();
+    }
+
+    /**
+     * sets the metrics into which the latencies, row counts and conflicts of the EDB are recorded. They are registered
+     * as MBeans by the blueprint of the bundle.
+     */
+    public void setMetrics(EDBMetrics metrics) {
+        this.metrics = metrics;
+        if (dao != null) {
+            dao.setMetrics(metrics);
+        }
+    }
+
+    public EDBMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void enableDeltaVersions() {
+        deltaVersions = true;
+        if (dao != null) {
+            dao.setDeltaVersions(true);
+        }
+    }
+
+    /**
+     * sets the registry which is used to publish the changes of a commit after its container managed transaction has
+     * been completed
+     */
+    public void setSynchronizationRegistry(TransactionSynchronizationRegistry synchronizationRegistry) {
+        this.synchronizationRegistry = synchronizationRegistry;
+    }
+
+    /**
+     * sets if the oids of new models are created by the CompactOIDGenerator, which replaces the domain and connector
+     * id prefix with a short code and uses time ordered ids instead of random UUIDs. The oids in the long form stay
+     * valid for all read methods.
+     */
+    public void setCompactOIDs(boolean compactOIDs) {
+        oidGenerator = compactOIDs ? new CompactOIDGenerator(oidPrefixes) : new DefaultOIDGenerator();
+    }
+
+    /**
+     * sets the generator which creates the oids of the models of the EDBEvents
+     */
+    public void setOidGenerator(OIDGenerator oidGenerator) {
+        this.oidGenerator = oidGenerator;
+    }
+
+    /**
+     * sets the transaction manager which is used to commit the slices of a batch in their own transactions if the
+     * transactions are managed by the container
+     */
+    public void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * sets the number of models after which a batch event is split into a new slice, which is saved in its own commit.
+     * A value of 0 or less saves every batch in one commit.
+     */
+    public void setBatchSliceSize(int batchSliceSize) {
+        this.batchSliceSize = batchSliceSize;
+    }
+
+    /**
+     * bind method for the change listeners which are registered as OSGi services
+     */
+    public void bindChangeListener(EDBChangeListener listener) {
+        changeFeed.addListener(listener);
+    }
+
+    /**
+     * unbind method for the change listeners which are registered as OSGi services
+     */
+    public void unbindChangeListener(EDBChangeListener listener) {
+        changeFeed.removeListener(listener);
+    }
+
+    /**
+     * sets how many milliseconds the group commit pipeline waits for further events before it commits them together.
+     * A value of 0 or less disables the pipeline, so that every event is committed on its own.
+     */
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+        updateGroupCommitPipeline();
+    }
+
+    /**
+     * sets how many events are committed together at most by the group commit pipeline
+     */
+    public void setGroupCommitMaxSize(int groupCommitMaxSize) {
+        this.groupCommitMaxSize = groupCommitMaxSize;
+        updateGroupCommitPipeline();
+    }
+
+    private void updateGroupCommitPipeline() {
+        groupCommitPipeline = groupCommitWindow > 0
+            ? new GroupCommitPipeline(this, groupCommitWindow, groupCommitMaxSize) : null;
+    }
+
+    /**
+     * sets how many of the newest objects are kept in memory for getObject and getObjects. A value of 0 or less
+     * disables the object cache, which is the default. The cache is only invalidated by the commits of this EDB, so it
+     * may only be enabled if no other node writes into the same database.
+     */
+    public void setCacheSize(int cacheSize) {
+        objectCache = cacheSize > 0 ? new EDBObjectCache(cacheSize) : null;
+    }
+
+    /**
+     * returns the object cache or null if it is disabled
+     */
+    EDBObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    /**
+     * sets how many models are converted and written together by a bulk import before the persistence context is
+     * flushed and cleared
+     */
+    public void setBulkImportChunkSize(int bulkImportChunkSize) {
+        this.bulkImportChunkSize = Math.max(bulkImportChunkSize, 1);
+    }
+
+    /**
+     * sets how many of the newest versions of an oid are kept by the history compaction. A value of 0 or less keeps
+     * the versions regardless of their number. If also the retention days are set, a version is kept as long as one
+     * of the rules wants to keep it. The newest version is always kept.
+     */
+    public void setRetentionVersions(int retentionVersions) {
+        this.retentionVersions = retentionVersions;
+    }
+
+    /**
+     * sets for how many days the versions which have been replaced are kept by the history compaction, so the state
+     * of every point in time within these days stays readable. A value of 0 or less keeps the versions regardless of
+     * their age.
+     */
+    public void setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+
+    /**
+     * sets the directory into which the versions removed by the history compaction are exported. An empty value
+     * disables the export.
+     */
+    public void setArchiveDirectory(String archiveDirectory) {
+        if (archiveDirectory == null || archiveDirectory.isEmpty()) {
+            this.archiveDirectory = null;
+            return;
+        }
+        File directory = new File(archiveDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new EDBException("cannot create the archive directory " + archiveDirectory);
+        }
+        this.archiveDirectory = directory;
+    }
+
+    /**
+     * sets after how many commits a snapshot of the head is saved. The snapshot is written in the background after the
+     * commit which reached the interval. Since every snapshot copies the whole head, the snapshots are disabled by
+     * default, which is the case for a value of 0 or less.
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * sets how many snapshots without tag are kept. When a new snapshot is written, the oldest ones beyond this number
+     * are removed. A value of 0 or less keeps all snapshots.
+     */
+    public void setMaxSnapshots(int maxSnapshots) {
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    /**
+     * sets the keys for which secondary indexes are maintained. At the next access of the EDB the indexes of newly
+     * declared keys are built up and the indexes of keys which are no longer declared are dropped.
+     */
+    public void setIndexedKeys(List<String> indexedKeys) {
+        indexDefinition.setKeys(indexedKeys);
+        headIndexVerified = false;
     }
 }
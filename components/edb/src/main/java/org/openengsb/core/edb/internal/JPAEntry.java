@@ -17,19 +17,59 @@
 
 package org.openengsb.core.edb.internal;
 
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.Lob;
+
+import org.apache.openjpa.persistence.jdbc.Index;
 
 /**
  * A JPAEntry is assigned with JPAObjects. A JPAObject contains as many JPAEntries as it wants. So to say the JPAEntries
- * are concrete key/value pairs extending JPAObjects.
+ * are concrete key/value pairs extending JPAObjects. Beside the string representation of the value, which is used for
+ * equality queries, numbers, dates, booleans and binary data are also saved in typed columns, so that they can be
+ * compared in range queries and are converted back to their original type when they are loaded. Dates are written
+ * as ISO-8601 string in UTC, so their string representation doesn't depend on the time zone of the node. A version
+ * which is saved as delta only contains the entries which changed, and a removal entry for every key which was
+ * removed.
  */
 @Entity
 public class JPAEntry {
+    public static final String TYPE_STRING = String.class.getName();
+    public static final String TYPE_INTEGER = Integer.class.getName();
+    public static final String TYPE_LONG = Long.class.getName();
+    public static final String TYPE_SHORT = Short.class.getName();
+    public static final String TYPE_BYTE = Byte.class.getName();
+    public static final String TYPE_DOUBLE = Double.class.getName();
+    public static final String TYPE_FLOAT = Float.class.getName();
+    public static final String TYPE_DECIMAL = BigDecimal.class.getName();
+    public static final String TYPE_BOOLEAN = Boolean.class.getName();
+    public static final String TYPE_DATE = Date.class.getName();
+    public static final String TYPE_BINARY = byte[].class.getName();
+    public static final String TYPE_REMOVED = "removed";
+
+    @Index(name = "ENTRY_KEY")
     @Column(name = "KEY")
     private String key;
     @Column(name = "VALUE")
     private String value;
+    @Column(name = "VALUETYPE", length = 50)
+    private String type;
+    @Column(name = "LONGVALUE")
+    private Long longValue;
+    @Column(name = "DOUBLEVALUE")
+    private Double doubleValue;
+    @Column(name = "BOOLEANVALUE")
+    private Boolean booleanValue;
+    @Lob
+    @Column(name = "BINARYVALUE")
+    private byte[] binaryValue;
 
     public JPAEntry() {
         key = "";
@@ -41,15 +81,118 @@ public class JPAEntry {
         setValue(obj);
     }
 
+    /**
+     * creates an entry which marks that the given key was removed since the previous version
+     */
+    public static JPAEntry createRemoval(String key) {
+        JPAEntry entry = new JPAEntry();
+        entry.key = key;
+        entry.type = TYPE_REMOVED;
+        return entry;
+    }
+
+    public boolean isRemoval() {
+        return TYPE_REMOVED.equals(type);
+    }
+
+    /**
+     * returns true if the given entry has the same type and value as this one
+     */
+    public boolean hasSameValue(JPAEntry other) {
+        if (type == null ? other.type != null : !type.equals(other.type)) {
+            return false;
+        }
+        if (TYPE_BINARY.equals(type)) {
+            return Arrays.equals(binaryValue, other.binaryValue);
+        }
+        return value == null ? other.value == null : value.equals(other.value);
+    }
+
     public void setValue(Object v) {
-        value = v.toString();
+        longValue = null;
+        doubleValue = null;
+        booleanValue = null;
+        binaryValue = null;
+        if (v instanceof byte[]) {
+            type = TYPE_BINARY;
+            value = null;
+            binaryValue = (byte[]) v;
+            return;
+        }
+        value = toStringValue(v);
+        if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+            type = v.getClass().getName();
+            longValue = ((Number) v).longValue();
+            doubleValue = ((Number) v).doubleValue();
+        } else if (v instanceof Double || v instanceof Float || v instanceof BigDecimal) {
+            type = v.getClass().getName();
+            doubleValue = ((Number) v).doubleValue();
+        } else if (v instanceof Boolean) {
+            type = TYPE_BOOLEAN;
+            booleanValue = (Boolean) v;
+        } else if (v instanceof Date) {
+            type = TYPE_DATE;
+            longValue = ((Date) v).getTime();
+        } else {
+            type = TYPE_STRING;
+        }
     }
 
     public String getKey() {
         return key;
     }
 
-    public String getValue() {
+    /**
+     * returns the value converted back to the type it had when it was saved. Values of types which have no typed
+     * column and values saved before the typed columns were introduced are returned as string.
+     */
+    public Object getValue() {
+        if (type == null || TYPE_STRING.equals(type)) {
+            return value;
+        } else if (TYPE_INTEGER.equals(type)) {
+            return longValue.intValue();
+        } else if (TYPE_LONG.equals(type)) {
+            return longValue;
+        } else if (TYPE_SHORT.equals(type)) {
+            return longValue.shortValue();
+        } else if (TYPE_BYTE.equals(type)) {
+            return longValue.byteValue();
+        } else if (TYPE_DOUBLE.equals(type)) {
+            return doubleValue;
+        } else if (TYPE_FLOAT.equals(type)) {
+            return doubleValue.floatValue();
+        } else if (TYPE_DECIMAL.equals(type)) {
+            return new BigDecimal(value);
+        } else if (TYPE_BOOLEAN.equals(type)) {
+            return booleanValue;
+        } else if (TYPE_DATE.equals(type)) {
+            return new Date(longValue);
+        } else if (TYPE_BINARY.equals(type)) {
+            return binaryValue;
+        }
+        return value;
+    }
+
+    /**
+     * returns the string representation under which the given value is saved and compared by equality queries
+     */
+    public static String toStringValue(Object value) {
+        if (value instanceof Date) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.format((Date) value);
+        }
+        return value.toString();
+    }
+
+    /**
+     * returns the string representation of the value
+     */
+    public String getStringValue() {
         return value;
     }
+
+    public String getType() {
+        return type;
+    }
 }
@@ -17,11 +17,8 @@
 
 package org.openengsb.core.edb.internal;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import org.openengsb.core.api.edb.EDBObject;
-
 /**
  * A JPA Head contains all JPAObjects which are bound to a specific timestamp.
  */
@@ -29,14 +26,6 @@ public class JPAHead {
     private List<JPAObject> objects;
     private Long timestamp;
     
-    public List<EDBObject> getEDBObjects() {
-        List<EDBObject> loaded = new ArrayList<EDBObject>();
-        for (JPAObject o : objects) {
-            loaded.add(o.getObject());
-        }
-        return loaded;
-    }
-    
     public void setJPAObjects(List<JPAObject> objects) {
         this.objects = objects;
     }
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.OneToOne;
+import javax.persistence.Version;
+
+/**
+ * A JPAHeadObject points to the newest JPAObject of an oid. There is exactly one JPAHeadObject per oid, which is
+ * updated in the same transaction as the commit which writes the new JPAObject. This way the current state can be
+ * loaded without searching through the whole history. It also counts the versions which have been saved for the oid
+ * and how often the oid has been resurrected.
+ * The lock version makes commits which change the same oid at the same time fail instead of overwriting each other.
+ */
+@Entity
+public class JPAHeadObject {
+    @Id
+    @Column(name = "OID")
+    private String oid;
+    @OneToOne
+    private JPAObject object;
+    @Column(name = "TIME")
+    private Long timestamp;
+    @Column(name = "ISDELETED")
+    private Boolean isDeleted;
+    @Column(name = "VERSION")
+    private Integer version;
+    @Column(name = "RESURRECTIONS")
+    private Integer resurrections;
+    @Version
+    @Column(name = "LOCKVERSION")
+    private Long lockVersion;
+
+    public JPAHeadObject() {
+        isDeleted = false;
+    }
+
+    public JPAHeadObject(String oid) {
+        this.oid = oid;
+        isDeleted = false;
+        version = 0;
+        resurrections = 0;
+    }
+
+    /**
+     * sets the given JPAObject as the newest version of the oid and increases the version counter
+     */
+    public void update(JPAObject object) {
+        setObject(object);
+        version++;
+    }
+
+    /**
+     * sets the given JPAObject as the newest version of the oid without touching the version counter
+     */
+    public void setObject(JPAObject object) {
+        this.object = object;
+        timestamp = object.getTimestamp();
+        isDeleted = object.isDeleted();
+    }
+
+    public String getOID() {
+        return oid;
+    }
+
+    public JPAObject getObject() {
+        return object;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public Boolean isDeleted() {
+        return isDeleted;
+    }
+
+    public Integer getVersion() {
+        return version;
+    }
+
+    /**
+     * returns true if the given object, saved as next version, brings the oid back after it has been deleted
+     */
+    public boolean isResurrectedBy(JPAObject object) {
+        return isDeleted && !object.isDeleted();
+    }
+
+    public void countResurrection() {
+        resurrections++;
+    }
+
+    public Integer getResurrections() {
+        return resurrections;
+    }
+
+    /**
+     * should only be used to fill in the resurrection counter out of the history
+     */
+    public void setResurrections(Integer resurrections) {
+        this.resurrections = resurrections;
+    }
+
+    /**
+     * should only be used to fill in the version counter out of the history
+     */
+    public void setVersion(Integer version) {
+        this.version = version;
+    }
+}
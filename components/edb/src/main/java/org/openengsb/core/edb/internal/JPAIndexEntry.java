@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+
+import org.apache.openjpa.persistence.jdbc.Index;
+
+/**
+ * A JPAIndexEntry is an entry of the secondary indexes of the EDB. For every key which is declared as indexed in the
+ * IndexDefinition, there is one JPAIndexEntry per not deleted object of the current state which contains this key.
+ * The index entries of an oid are replaced in the same transaction as the commit which saves a new version of it.
+ */
+@Entity
+public class JPAIndexEntry {
+    @Index(name = "INDEXENTRY_OID")
+    @Column(name = "OID")
+    private String oid;
+    @Index(name = "INDEXENTRY_KEY")
+    @Column(name = "KEY")
+    private String key;
+    @Index(name = "INDEXENTRY_VALUE")
+    @Column(name = "VALUE")
+    private String value;
+
+    public JPAIndexEntry() {
+    }
+
+    public JPAIndexEntry(String oid, String key, String value) {
+        this.oid = oid;
+        this.key = key;
+        this.value = value;
+    }
+
+    public String getOID() {
+        return oid;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
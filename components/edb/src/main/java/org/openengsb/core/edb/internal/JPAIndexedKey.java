@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * A JPAIndexedKey marks that the secondary index of a key is completely built up. The JPAIndexEntries of a key without
+ * a JPAIndexedKey are incomplete or stale, so they are dropped and built up again when the key is declared as indexed.
+ * When a key is no longer declared, its entries and its JPAIndexedKey are removed.
+ */
+@Entity
+public class JPAIndexedKey {
+    @Id
+    @Column(name = "KEY")
+    private String key;
+
+    public JPAIndexedKey() {
+    }
+
+    public JPAIndexedKey(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Transient;
+
+/**
+ * A JPAKeyDictionary contains the sorted keys of the objects whose entries are saved as payload. The values of a
+ * payload are saved in the order of the keys of its dictionary, so the keys are only saved once per key set instead of
+ * once per object. The dictionary is identified by the hash of its keys, so all objects of the same model share it.
+ */
+@Entity
+public class JPAKeyDictionary {
+    @Id
+    @Column(name = "HASH", length = 40)
+    private String hash;
+    @Lob
+    @Column(name = "KEYS")
+    private byte[] keys;
+    @Transient
+    private List<String> keyList;
+
+    public JPAKeyDictionary() {
+    }
+
+    public JPAKeyDictionary(String hash, byte[] keys) {
+        this.hash = hash;
+        this.keys = keys;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * returns the keys of the dictionary in their sorted order
+     */
+    public List<String> getKeys() {
+        if (keyList == null) {
+            keyList = PayloadCodec.decodeKeys(keys);
+        }
+        return keyList;
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.apache.openjpa.persistence.jdbc.Index;
+
+/**
+ * A JPAOIDPrefix maps the domain and connector id prefix of the oids to the short code which replaces it in the oids
+ * created by the CompactOIDGenerator. A prefix under which objects had already been saved before has no code, so its
+ * oids keep their long form.
+ */
+@Entity
+public class JPAOIDPrefix {
+    @Id
+    @Column(name = "PREFIX")
+    private String prefix;
+    @Index(name = "OIDPREFIX_CODE")
+    @Column(name = "CODE", length = 40)
+    private String code;
+
+    public JPAOIDPrefix() {
+    }
+
+    public JPAOIDPrefix(String prefix, String code) {
+        this.prefix = prefix;
+        this.code = code;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * returns the code which replaces the prefix, or null if the prefix keeps its long form
+     */
+    public String getCode() {
+        return code;
+    }
+}
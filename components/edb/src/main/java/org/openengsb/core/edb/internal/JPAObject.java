@@ -26,24 +26,45 @@ import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Transient;
 
+import org.apache.openjpa.persistence.jdbc.Index;
 import org.openengsb.core.api.edb.EDBObject;
 
 @Entity
 /**
  * this defines a jpa object in the database. The correlation to the EDBObject is that
- * the JPAObject can be converted to an EDBObject.
+ * the JPAObject can be converted to an EDBObject. The entries are either saved as JPAEntries, or as one compressed
+ * payload together with JPAEntries for the queryable keys only.
  */
 public class JPAObject {
     @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<JPAEntry> entries;
+    @Index(name = "OBJECT_TIME")
     @Column(name = "TIME")
     private Long timestamp;
     @Column(name = "ISDELETED")
     private Boolean isDeleted;
+    @Index(name = "OBJECT_OID")
     @Column(name = "OID")
     private String oid;
+    @Index(name = "OBJECT_REVISION")
+    @Column(name = "REVISION")
+    private Long revision;
+    @ManyToOne(fetch = FetchType.LAZY)
+    private JPACommit commit;
+    @Column(name = "BASEREVISION")
+    private Long baseRevision;
+    @ManyToOne(fetch = FetchType.EAGER)
+    private JPAKeyDictionary dictionary;
+    @Lob
+    @Column(name = "PAYLOAD")
+    private byte[] payload;
+    @Transient
+    private List<JPAEntry> payloadEntries;
 
     public JPAObject() {
         isDeleted = false;
@@ -57,6 +78,17 @@ public class JPAObject {
         loadValues(o);
     }
 
+    /**
+     * restores a saved version, e.g. out of an archive file of the history compaction
+     */
+    public JPAObject(String oid, Long timestamp, Long revision, Boolean isDeleted, List<JPAEntry> entries) {
+        this.oid = oid;
+        this.timestamp = timestamp;
+        this.revision = revision;
+        this.isDeleted = isDeleted;
+        this.entries = entries;
+    }
+
     private void loadValues(EDBObject o) {
         entries = new ArrayList<JPAEntry>();
         for (Map.Entry<String, Object> entry : o.entrySet()) {
@@ -66,12 +98,13 @@ public class JPAObject {
 
     public EDBObject getObject() {
         Map<String, Object> data = new HashMap<String, Object>();
-        for (JPAEntry kvp : entries) {
+        for (JPAEntry kvp : getPairs()) {
             data.put(kvp.getKey(), kvp.getValue());
         }
-        String s = (String) data.get("isDeleted");
-        if (s != null) {
-            data.put("isDeleted", s.equals("true"));
+        Object deleted = data.get("isDeleted");
+        if (deleted instanceof String) {
+            // entries which were saved before the typed values were introduced
+            data.put("isDeleted", deleted.equals("true"));
         }
         EDBObject object = new EDBObject(oid, data);
         object.updateTimestamp(timestamp);
@@ -94,7 +127,90 @@ public class JPAObject {
         return oid;
     }
 
+    /**
+     * returns the revision number of the commit which saved this object
+     */
+    public Long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+
+    /**
+     * returns the commit which saved this object. Objects which were saved before the reference was introduced get it
+     * at the next start of the EDB, as long as their commit still exists.
+     */
+    public JPACommit getCommit() {
+        return commit;
+    }
+
+    public void setCommit(JPACommit commit) {
+        this.commit = commit;
+    }
+
+    /**
+     * returns the revision of the full version of the oid on which this version builds. A full version returns its own
+     * revision, as do the versions which were saved before versions could be saved as delta.
+     */
+    public Long getBaseRevision() {
+        return baseRevision != null ? baseRevision : revision;
+    }
+
+    public void setBaseRevision(Long baseRevision) {
+        this.baseRevision = baseRevision;
+    }
+
+    /**
+     * returns true if this version only contains the entries which changed since the previous version of the oid
+     */
+    public boolean isDelta() {
+        return baseRevision != null && !baseRevision.equals(revision);
+    }
+
+    /**
+     * replaces the entries of this version, e.g. when a delta version is turned into a full version. The payload is
+     * dropped, all entries are saved as JPAEntries.
+     */
+    public void setPairs(List<JPAEntry> entries) {
+        this.entries = entries;
+        dictionary = null;
+        payload = null;
+        payloadEntries = null;
+    }
+
+    /**
+     * saves the given entries as payload, only the given queryable entries are kept as JPAEntries
+     */
+    public void setPayload(JPAKeyDictionary dictionary, byte[] payload, List<JPAEntry> all, List<JPAEntry> queryable) {
+        this.dictionary = dictionary;
+        this.payload = payload;
+        payloadEntries = all;
+        entries = queryable;
+    }
+
+    public boolean hasPayload() {
+        return payload != null;
+    }
+
+    /**
+     * returns all entries of this version. The payload is decoded at the first call.
+     */
     public List<JPAEntry> getPairs() {
+        if (payload == null) {
+            return entries;
+        }
+        if (payloadEntries == null) {
+            payloadEntries = PayloadCodec.decode(dictionary, payload);
+        }
+        return payloadEntries;
+    }
+
+    /**
+     * returns the saved JPAEntries, which are only the entries of the queryable keys if this version has a payload
+     */
+    public List<JPAEntry> getStoredPairs() {
         return entries;
     }
 }
@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+
+import org.apache.openjpa.persistence.jdbc.Index;
+
+/**
+ * A JPAResurrection records that an oid was saved again after it had been deleted. It is written in the same
+ * transaction as the commit which resurrects the oid, so the resurrected oids can be found without comparing every
+ * version of the history with the deleted versions of its oid.
+ */
+@Entity
+public class JPAResurrection {
+    @Index(name = "RESURRECTION_OID")
+    @Column(name = "OID")
+    private String oid;
+    @Column(name = "REVISION")
+    private Long revision;
+    @Index(name = "RESURRECTION_TIME")
+    @Column(name = "TIME")
+    private Long timestamp;
+
+    public JPAResurrection() {
+    }
+
+    public JPAResurrection(String oid, Long revision, Long timestamp) {
+        this.oid = oid;
+        this.revision = revision;
+        this.timestamp = timestamp;
+    }
+
+    public String getOID() {
+        return oid;
+    }
+
+    public Long getRevision() {
+        return revision;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+
+import org.apache.openjpa.persistence.jdbc.Index;
+
+/**
+ * A JPASnapshot marks that the state of the EDB at the revision of a commit has been saved as JPASnapshotEntries.
+ * Point-in-time reads start at the newest snapshot before the requested revision and only apply the commits which
+ * were done after it, instead of analyzing the whole history. A snapshot with a tag is never removed by the history
+ * compaction, so the state at the tag stays readable even if its versions are outside of the retention policy.
+ */
+@Entity
+public class JPASnapshot {
+    @Index(name = "SNAPSHOT_REVISION")
+    @Column(name = "REVISION")
+    private Long revision;
+    @Column(name = "TIME")
+    private Long timestamp;
+    @Column(name = "SIZE")
+    private Integer size;
+    @Index(name = "SNAPSHOT_TAG", unique = true)
+    @Column(name = "TAG")
+    private String tag;
+
+    public JPASnapshot() {
+    }
+
+    public JPASnapshot(Long revision, Long timestamp, Integer size) {
+        this.revision = revision;
+        this.timestamp = timestamp;
+        this.size = size;
+    }
+
+    public Long getRevision() {
+        return revision;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+}
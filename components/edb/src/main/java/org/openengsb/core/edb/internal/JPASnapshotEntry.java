@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+
+import org.apache.openjpa.persistence.jdbc.Index;
+
+/**
+ * A JPASnapshotEntry is a part of a JPASnapshot and references the JPAObject which was the newest version of its oid
+ * at the time of the snapshot. Only references are saved, so a snapshot does not copy the values of the objects.
+ */
+@Entity
+public class JPASnapshotEntry {
+    @Index(name = "SNAPSHOTENTRY_REVISION")
+    @Column(name = "SNAPSHOTREVISION")
+    private Long snapshotRevision;
+    @ManyToOne
+    private JPAObject object;
+
+    public JPASnapshotEntry() {
+    }
+
+    public JPASnapshotEntry(Long snapshotRevision, JPAObject object) {
+        this.snapshotRevision = snapshotRevision;
+        this.object = object;
+    }
+
+    public Long getSnapshotRevision() {
+        return snapshotRevision;
+    }
+
+    public JPAObject getObject() {
+        return object;
+    }
+}
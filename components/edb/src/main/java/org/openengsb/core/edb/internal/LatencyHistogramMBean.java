@@ -0,0 +1,51 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+/**
+ * the management interface of a LatencyHistogram. All times are in milliseconds.
+ */
+public interface LatencyHistogramMBean {
+
+    /**
+     * returns the number of recorded calls
+     */
+    long getCount();
+
+    /**
+     * returns the number of rows which the recorded calls loaded or wrote
+     */
+    long getRows();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getPercentile50Millis();
+
+    double getPercentile95Millis();
+
+    double getPercentile99Millis();
+
+    /**
+     * returns the time which the given percentage (between 0 and 100) of the recorded calls did not exceed
+     */
+    double getPercentileMillis(double percentile);
+
+    void reset();
+}
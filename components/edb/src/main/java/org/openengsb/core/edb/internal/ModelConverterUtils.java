@@ -44,7 +44,7 @@ public final class ModelConverterUtils {
         return (Integer) getOpenEngSBModelEntryValue(model, MODELVERSION);
     }
     
-    private static String getOpenEngSBModelId(OpenEngSBModel model) {
+    public static String getOpenEngSBModelId(OpenEngSBModel model) {
         return (String) getOpenEngSBModelEntryValue(model, MODELID);
     }
     
@@ -61,7 +61,7 @@ public final class ModelConverterUtils {
         return builder.toString();
     }
     
-    private static String createOIDPrefix(EDBEvent event) {
+    public static String createOIDPrefix(EDBEvent event) {
         StringBuilder builder = new StringBuilder();
         builder.append(event.getDomainId()).append("/").append(event.getConnectorId()).append("/");
         return builder.toString();
@@ -0,0 +1,33 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import org.openengsb.core.api.edb.EDBEvent;
+import org.openengsb.core.api.model.OpenEngSBModel;
+
+/**
+ * Creates the oids under which the models of EDBEvents are saved. The oid of a model with an edbId has to be the same
+ * every time it is created, since the existing objects of the model are found by it.
+ */
+public interface OIDGenerator {
+
+    /**
+     * returns the oid of the given model, which was sent with the given event
+     */
+    String createOID(OpenEngSBModel model, EDBEvent event);
+}
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.edb.internal.dao.JPADao;
+
+/**
+ * Knows the codes which replace the domain and connector id prefixes of the oids created by the CompactOIDGenerator.
+ * The code of a prefix is taken from the hash of the prefix, so it is the same after a restart even if its
+ * JPAOIDPrefix has not been saved yet. Prefixes under which objects had already been saved keep their long form, so
+ * the existing oids stay valid. The oids in the long form of a prefix with a code are translated to the saved oids,
+ * and the saved oids are translated back to the long form for the callers of the EDB.
+ */
+public class OIDPrefixRegistry {
+    private static final int MIN_CODE_LENGTH = 6;
+    private static final int RADIX = 36;
+    private static final String CODE_MARKER = "~";
+    private static final String LONG_FORM = "";
+
+    private final ConcurrentMap<String, String> codes = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> prefixesByCode = new ConcurrentHashMap<String, String>();
+    private final Set<String> unknown = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, JPAOIDPrefix> unsaved = new ConcurrentHashMap<String, JPAOIDPrefix>();
+    private volatile JPADao dao;
+
+    public void setDao(JPADao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * returns the code which replaces the given prefix, or null if the prefix keeps its long form. The code of a new
+     * prefix is saved with the next commit.
+     */
+    public String getCode(String prefix) throws EDBException {
+        String code = codes.get(prefix);
+        if (code == null) {
+            code = register(prefix);
+        }
+        return code.isEmpty() ? null : code;
+    }
+
+    private synchronized String register(String prefix) {
+        String code = codes.get(prefix);
+        if (code != null) {
+            return code;
+        }
+        JPAOIDPrefix saved = dao.getJPAOIDPrefix(prefix);
+        if (saved != null) {
+            code = saved.getCode() != null ? saved.getCode() : LONG_FORM;
+        } else {
+            code = dao.hasJPAHeadObjectsWithPrefix(prefix) ? LONG_FORM : createCode(prefix);
+            unsaved.put(prefix, new JPAOIDPrefix(prefix, code.isEmpty() ? null : code));
+        }
+        remember(prefix, code);
+        return code;
+    }
+
+    private void remember(String prefix, String code) {
+        codes.put(prefix, code);
+        unknown.remove(prefix);
+        if (!code.isEmpty()) {
+            prefixesByCode.put(code, prefix);
+        }
+    }
+
+    /**
+     * returns the shortest code out of the hash of the given prefix which is not used by another prefix
+     */
+    private String createCode(String prefix) {
+        String hash = new BigInteger(1, hash(prefix)).toString(RADIX);
+        for (int length = MIN_CODE_LENGTH; length <= hash.length(); length++) {
+            String code = CODE_MARKER + hash.substring(0, length) + "/";
+            String owner = prefixesByCode.get(code);
+            if (owner == null) {
+                JPAOIDPrefix saved = dao.getJPAOIDPrefixByCode(code);
+                owner = saved != null ? saved.getPrefix() : null;
+            }
+            if (owner == null || owner.equals(prefix)) {
+                return code;
+            }
+        }
+        throw new EDBException("there is no unused code for the oid prefix " + prefix);
+    }
+
+    /**
+     * returns the oid under which the object with the given oid is saved. An oid in the long form of a prefix which
+     * has a code is translated, all other oids are returned as they are.
+     */
+    public String toStoredOID(String oid) throws EDBException {
+        if (oid == null || oid.startsWith(CODE_MARKER)) {
+            return oid;
+        }
+        int separator = oid.indexOf('/');
+        separator = separator < 0 ? -1 : oid.indexOf('/', separator + 1);
+        if (separator < 0) {
+            return oid;
+        }
+        String prefix = oid.substring(0, separator + 1);
+        String code = codes.get(prefix);
+        if (code == null && !unknown.contains(prefix)) {
+            JPAOIDPrefix saved = dao.getJPAOIDPrefix(prefix);
+            if (saved == null) {
+                unknown.add(prefix);
+            } else {
+                code = saved.getCode() != null ? saved.getCode() : LONG_FORM;
+                remember(prefix, code);
+            }
+        }
+        return code == null || code.isEmpty() ? oid : code + oid.substring(separator + 1);
+    }
+
+    /**
+     * returns the long form of the given saved oid. An oid which starts with the code of a prefix is translated back
+     * to the prefix, all other oids are returned as they are.
+     */
+    public String toLongOID(String oid) throws EDBException {
+        if (oid == null || !oid.startsWith(CODE_MARKER)) {
+            return oid;
+        }
+        int separator = oid.indexOf('/');
+        if (separator < 0) {
+            return oid;
+        }
+        String code = oid.substring(0, separator + 1);
+        String prefix = prefixesByCode.get(code);
+        if (prefix == null) {
+            JPAOIDPrefix saved = dao.getJPAOIDPrefixByCode(code);
+            if (saved == null) {
+                return oid;
+            }
+            prefix = saved.getPrefix();
+            remember(prefix, code);
+        }
+        return prefix + oid.substring(separator + 1);
+    }
+
+    /**
+     * returns the prefixes which were registered since the last call and removes them from the registry's list of
+     * unsaved prefixes
+     */
+    public List<JPAOIDPrefix> takeUnsaved() {
+        List<JPAOIDPrefix> result = new ArrayList<JPAOIDPrefix>();
+        for (String prefix : unsaved.keySet()) {
+            JPAOIDPrefix mapping = unsaved.remove(prefix);
+            if (mapping != null) {
+                result.add(mapping);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * hands prefixes which could not be saved back, so that they are saved with a later commit
+     */
+    public void returnUnsaved(List<JPAOIDPrefix> prefixes) {
+        for (JPAOIDPrefix prefix : prefixes) {
+            unsaved.putIfAbsent(prefix.getPrefix(), new JPAOIDPrefix(prefix.getPrefix(), prefix.getCode()));
+        }
+    }
+
+    private static byte[] hash(String prefix) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(prefix.getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new EDBException("SHA-1 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new EDBException("UTF-8 is not available", e);
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class ObjectDiff implements EDBObjectDiff {
 
         diff = new HashMap<String, EDBEntry>();
         differences = 0;
-        if (endCommit.getTimestamp() < startCommit.getTimestamp()) {
+        if (endCommit.getRevisionNumber() < startCommit.getRevisionNumber()) {
             this.startCommit = endCommit;
             this.endCommit = startCommit;
             this.startState = endState;
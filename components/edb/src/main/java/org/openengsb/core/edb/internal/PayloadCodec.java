@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.persistence.EntityManager;
+
+import org.openengsb.core.api.edb.EDBException;
+
+/**
+ * Encodes the entries of full versions as one compressed payload and decodes them back. The payload contains the
+ * typed values in the order of the keys of a JPAKeyDictionary, which is shared by all objects with the same keys. Only
+ * the entries of the queryable keys are kept as JPAEntries, so that they can still be found by the queries.
+ */
+public class PayloadCodec {
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_SHORT = 3;
+    private static final byte TYPE_BYTE = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_BOOLEAN = 7;
+    private static final byte TYPE_DATE = 8;
+    private static final byte TYPE_BINARY = 9;
+    private static final byte TYPE_DECIMAL = 10;
+
+    private final EntityManager entityManager;
+    private final IndexDefinition queryableKeys;
+    private final JPADatabase database;
+
+    public PayloadCodec(EntityManager entityManager, IndexDefinition queryableKeys, JPADatabase database) {
+        this.entityManager = entityManager;
+        this.queryableKeys = queryableKeys;
+        this.database = database;
+    }
+
+    /**
+     * saves the entries of the given full version as payload. The dictionary of its keys is saved if it doesn't exist
+     * yet.
+     */
+    public void encode(JPAObject object) {
+        List<JPAEntry> entries = object.getPairs();
+        Map<String, JPAEntry> byKey = new HashMap<String, JPAEntry>();
+        for (JPAEntry entry : entries) {
+            byKey.put(entry.getKey(), entry);
+        }
+        List<String> keys = new ArrayList<String>(byKey.keySet());
+        Collections.sort(keys);
+        JPAKeyDictionary dictionary = getDictionary(keys);
+
+        List<JPAEntry> queryable = new ArrayList<JPAEntry>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes));
+            out.writeByte(FORMAT_VERSION);
+            for (String key : keys) {
+                JPAEntry entry = byKey.get(key);
+                writeValue(out, entry.getValue());
+                if (queryableKeys.isIndexed(key)) {
+                    queryable.add(entry);
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new EDBException("failed to encode the payload of " + object.getOID(), e);
+        }
+        object.setPayload(dictionary, bytes.toByteArray(), entries, queryable);
+    }
+
+    private JPAKeyDictionary getDictionary(List<String> keys) {
+        byte[] encoded = encodeKeys(keys);
+        String hash = hash(encoded);
+        JPAKeyDictionary dictionary = entityManager.find(JPAKeyDictionary.class, hash);
+        if (dictionary == null) {
+            // saved in a transaction of its own, so a concurrent insert of the same dictionary doesn't fail the commit
+            dictionary = database.saveKeyDictionary(new JPAKeyDictionary(hash, encoded));
+        }
+        return dictionary;
+    }
+
+    /**
+     * returns the entries of the given payload
+     */
+    public static List<JPAEntry> decode(JPAKeyDictionary dictionary, byte[] payload) {
+        List<String> keys = dictionary.getKeys();
+        List<JPAEntry> entries = new ArrayList<JPAEntry>(keys.size());
+        try {
+            DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(payload)));
+            int version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new EDBException("unsupported payload format " + version);
+            }
+            for (String key : keys) {
+                entries.add(new JPAEntry(key, readValue(in)));
+            }
+        } catch (IOException e) {
+            throw new EDBException("failed to decode a payload of the dictionary " + dictionary.getHash(), e);
+        }
+        return entries;
+    }
+
+    private static byte[] encodeKeys(List<String> keys) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(keys.size());
+            for (String key : keys) {
+                out.writeUTF(key);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new EDBException("failed to encode the keys of a dictionary", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * returns the keys out of the saved form of a JPAKeyDictionary
+     */
+    public static List<String> decodeKeys(byte[] encoded) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            int size = in.readInt();
+            List<String> keys = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(in.readUTF());
+            }
+            return Collections.unmodifiableList(keys);
+        } catch (IOException e) {
+            throw new EDBException("failed to decode the keys of a dictionary", e);
+        }
+    }
+
+    private static String hash(byte[] encoded) {
+        try {
+            StringBuilder hash = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(encoded)) {
+                hash.append(String.format("%02x", b));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new EDBException("SHA-1 is not available", e);
+        }
+    }
+
+    /**
+     * writes the type of the value followed by the value. Types without a typed column are written as string.
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof byte[]) {
+            out.writeByte(TYPE_BINARY);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(TYPE_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(TYPE_BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_DECIMAL);
+            out.writeUTF(value.toString());
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeBytes(out, String.valueOf(value).getBytes("UTF-8"));
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_BINARY:
+                return readBytes(in);
+            case TYPE_DATE:
+                return new Date(in.readLong());
+            case TYPE_INTEGER:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_SHORT:
+                return in.readShort();
+            case TYPE_BYTE:
+                return in.readByte();
+            case TYPE_DOUBLE:
+                return in.readDouble();
+            case TYPE_FLOAT:
+                return in.readFloat();
+            case TYPE_BOOLEAN:
+                return in.readBoolean();
+            case TYPE_DECIMAL:
+                return new BigDecimal(in.readUTF());
+            case TYPE_STRING:
+                return new String(readBytes(in), "UTF-8");
+            default:
+                throw new EDBException("unknown value type " + type + " in a payload");
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.List;
+
+import org.openengsb.core.api.edb.EDBEvent;
+import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.api.model.OpenEngSBModel;
+
+/**
+ * An EDBEvent which waits in the GroupCommitPipeline to be committed. It remembers the committer and the context of
+ * the calling thread, since the event may be committed by another thread, and takes the outcome of the commit.
+ */
+public class QueuedEDBEvent {
+    private List<OpenEngSBModel> inserts;
+    private List<OpenEngSBModel> updates;
+    private List<OpenEngSBModel> deletions;
+    private EDBEvent event;
+    private String committer;
+    private String contextId;
+    private volatile boolean done;
+    private volatile EDBException error;
+
+    public QueuedEDBEvent(List<OpenEngSBModel> inserts, List<OpenEngSBModel> updates,
+            List<OpenEngSBModel> deletions, EDBEvent event, String committer, String contextId) {
+        this.inserts = inserts;
+        this.updates = updates;
+        this.deletions = deletions;
+        this.event = event;
+        this.committer = committer;
+        this.contextId = contextId;
+    }
+
+    /**
+     * returns true if the given event can be committed in the same commit as this event
+     */
+    public boolean isCompatible(QueuedEDBEvent other) {
+        return equals(committer, other.committer) && equals(contextId, other.contextId);
+    }
+
+    private static boolean equals(String first, String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * marks the event as successfully committed
+     */
+    public void succeed() {
+        done = true;
+    }
+
+    /**
+     * marks the event as failed. The given exception is thrown to the caller which submitted the event.
+     */
+    public void fail(EDBException error) {
+        this.error = error;
+        done = true;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public EDBException getError() {
+        return error;
+    }
+
+    public List<OpenEngSBModel> getInserts() {
+        return inserts;
+    }
+
+    public List<OpenEngSBModel> getUpdates() {
+        return updates;
+    }
+
+    public List<OpenEngSBModel> getDeletions() {
+        return deletions;
+    }
+
+    public EDBEvent getEvent() {
+        return event;
+    }
+
+    public String getCommitter() {
+        return committer;
+    }
+
+    public String getContextId() {
+        return contextId;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.persistence.EntityManager;
+
+import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.edb.internal.dao.JPADao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves and removes the snapshots of the head, which are used for the point-in-time reads and for the tagged states,
+ * and loads the head at a revision with the help of the newest snapshot before it. All work is done in the
+ * transaction of the caller, the JPADatabase begins and ends it.
+ */
+public class SnapshotStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotStore.class);
+
+    private final EntityManager entityManager;
+    private final JPADao dao;
+
+    public SnapshotStore(EntityManager entityManager, JPADao dao) {
+        this.entityManager = entityManager;
+        this.dao = dao;
+    }
+
+    /**
+     * loads the JPAHead with the state after the commit with the given revision. If there is a snapshot with a lower
+     * revision, only the changes since the snapshot are loaded out of the history and applied on the state of the
+     * snapshot.
+     */
+    public JPAHead loadHead(long revision) throws EDBException {
+        JPASnapshot snapshot = dao.getNewestJPASnapshot(revision);
+        if (snapshot == null) {
+            return dao.getJPAHead(revision);
+        }
+        LOGGER.debug("using the snapshot with the revision {}", snapshot.getRevision());
+        Map<String, JPAObject> objects = new TreeMap<String, JPAObject>();
+        for (JPAObject object : dao.getJPASnapshotObjects(snapshot.getRevision())) {
+            objects.put(object.getOID(), object);
+        }
+        List<JPAObject> changes = dao.getNewestJPAObjects(snapshot.getRevision(), revision);
+        for (JPAObject object : changes) {
+            if (object.isDeleted()) {
+                objects.remove(object.getOID());
+            }
+        }
+        // a not deleted object wins against a deletion of the same oid in the same commit, like in the history query
+        for (JPAObject object : changes) {
+            if (!object.isDeleted()) {
+                objects.put(object.getOID(), object);
+            }
+        }
+        JPAHead head = new JPAHead();
+        head.setJPAObjects(new ArrayList<JPAObject>(objects.values()));
+        return head;
+    }
+
+    /**
+     * saves a snapshot of the head after the commit with the given revision. The tag may be null. The snapshot is
+     * built out of the history, so commits which are running meanwhile are not included.
+     */
+    public void save(long revision, long timestamp, String tag) {
+        List<JPAObject> objects = loadHead(revision).getJPAObjects();
+        for (JPAObject object : objects) {
+            entityManager.persist(new JPASnapshotEntry(revision, object));
+        }
+        JPASnapshot snapshot = new JPASnapshot(revision, timestamp, objects.size());
+        snapshot.setTag(tag);
+        entityManager.persist(snapshot);
+    }
+
+    /**
+     * removes the oldest snapshots without tag until at most maxSnapshots of them are left. Tagged snapshots are kept.
+     * A value of 0 or less keeps all snapshots.
+     */
+    public void removeSurplus(int maxSnapshots) {
+        if (maxSnapshots <= 0) {
+            return;
+        }
+        List<Long> revisions = dao.getUntaggedJPASnapshotRevisions();
+        for (int i = 0; i < revisions.size() - maxSnapshots; i++) {
+            remove(revisions.get(i));
+        }
+    }
+
+    /**
+     * removes the snapshot with the given revision together with its entries
+     */
+    public void remove(long revision) {
+        LOGGER.debug("removing the snapshot of the revision {}", revision);
+        for (JPASnapshotEntry entry : dao.getJPASnapshotEntries(revision)) {
+            entityManager.remove(entry);
+        }
+        for (JPASnapshot snapshot : dao.getJPASnapshots(revision)) {
+            entityManager.remove(snapshot);
+        }
+    }
+}
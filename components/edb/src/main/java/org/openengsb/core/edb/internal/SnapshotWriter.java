@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the periodic snapshots of the EDB in the background, so the commit which reaches the snapshot interval
+ * doesn't have to save a reference to every object of the current state in its own transaction. A request which
+ * arrives while another one is still waiting is merged into it, since both are answered by a snapshot of the newest
+ * committed state.
+ */
+public class SnapshotWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    private final JPADatabase database;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private ExecutorService executor;
+
+    public SnapshotWriter(JPADatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * requests that a snapshot of the newest committed state is written
+     */
+    public void request() {
+        if (!pending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    pending.set(false);
+                    try {
+                        database.writeSnapshot();
+                    } catch (Exception e) {
+                        // the next request tries it again, point-in-time reads only get slower meanwhile
+                        LOGGER.error("failed to write a snapshot of the EDB", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.set(false);
+            LOGGER.warn("the snapshot writer is stopped, no snapshot is written");
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "EDB snapshot writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * waits until all snapshots which were requested so far are written
+     */
+    public void await() throws InterruptedException {
+        ExecutorService current;
+        synchronized (this) {
+            current = executor;
+        }
+        if (current == null) {
+            return;
+        }
+        try {
+            current.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+    }
+
+    /**
+     * stops the background thread. A snapshot which is written at the moment is finished.
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Austrian Association for Software Tool Integration (AASTI)
+ * under one or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information regarding copyright
+ * ownership. The AASTI licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.openengsb.core.edb.internal;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Creates EntityManagers which delegate every call to an EntityManager of the calling thread. This gives every thread
+ * its own persistence context and its own transactions if the EDB is used without a container which manages them
+ * (e.g. in the tests). The EntityManagers of threads which have terminated are closed whenever an EntityManager for a
+ * new thread is created, so short-lived threads don't leak them. Closing the proxy closes the EntityManagers of all
+ * threads.
+ */
+public final class ThreadBoundEntityManager implements InvocationHandler {
+    private final EntityManagerFactory emf;
+    private final ThreadLocal<EntityManager> entityManagers = new ThreadLocal<EntityManager>();
+    private final Map<Thread, EntityManager> created = new HashMap<Thread, EntityManager>();
+
+    private ThreadBoundEntityManager(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    /**
+     * creates an EntityManager which uses a separate EntityManager of the given factory for every thread
+     */
+    public static EntityManager create(EntityManagerFactory emf) {
+        return (EntityManager) Proxy.newProxyInstance(ThreadBoundEntityManager.class.getClassLoader(),
+            new Class<?>[]{ EntityManager.class }, new ThreadBoundEntityManager(emf));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("close")) {
+            closeAll();
+            return null;
+        }
+        try {
+            return method.invoke(getEntityManager(), args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private EntityManager getEntityManager() {
+        EntityManager entityManager = entityManagers.get();
+        if (entityManager == null) {
+            entityManager = emf.createEntityManager();
+            entityManagers.set(entityManager);
+            synchronized (created) {
+                closeTerminated();
+                created.put(Thread.currentThread(), entityManager);
+            }
+        }
+        return entityManager;
+    }
+
+    /**
+     * closes and forgets the EntityManagers of all threads which have terminated
+     */
+    private void closeTerminated() {
+        for (Iterator<Map.Entry<Thread, EntityManager>> iterator = created.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<Thread, EntityManager> entry = iterator.next();
+            if (!entry.getKey().isAlive()) {
+                if (entry.getValue().isOpen()) {
+                    entry.getValue().close();
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private void closeAll() {
+        synchronized (created) {
+            for (EntityManager entityManager : created.values()) {
+                if (entityManager.isOpen()) {
+                    entityManager.close();
+                }
+            }
+            created.clear();
+        }
+        entityManagers.remove();
+    }
+}
@@ -17,7 +17,11 @@
 
 package org.openengsb.core.edb.internal.dao;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -27,21 +31,37 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Subquery;
 
 import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.api.edb.EDBRange;
+import org.openengsb.core.edb.internal.EDBMetrics;
+import org.openengsb.core.edb.internal.EDBMetrics.Operation;
+import org.openengsb.core.edb.internal.IndexDefinition;
 import org.openengsb.core.edb.internal.JPACommit;
+import org.openengsb.core.edb.internal.JPAEntry;
 import org.openengsb.core.edb.internal.JPAHead;
+import org.openengsb.core.edb.internal.JPAHeadObject;
+import org.openengsb.core.edb.internal.JPAIndexEntry;
+import org.openengsb.core.edb.internal.JPAIndexedKey;
+import org.openengsb.core.edb.internal.JPAOIDPrefix;
 import org.openengsb.core.edb.internal.JPAObject;
+import org.openengsb.core.edb.internal.JPAResurrection;
+import org.openengsb.core.edb.internal.JPASnapshot;
+import org.openengsb.core.edb.internal.JPASnapshotEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class DefaultJPADao implements JPADao {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultJPADao.class);
     private EntityManager entityManager;
+    private IndexDefinition indexDefinition = new IndexDefinition();
+    private boolean deltaVersions = false;
+    private EDBMetrics metrics = new EDBMetrics();
 
     public DefaultJPADao() {
     }
@@ -50,10 +70,36 @@ public class DefaultJPADao implements JPADao {
         this.entityManager = entityManager;
     }
 
-    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public DefaultJPADao(EntityManager entityManager, IndexDefinition indexDefinition) {
+        this.entityManager = entityManager;
+        this.indexDefinition = indexDefinition;
+    }
+
+    @Override
+    public JPAHead getJPAHead(long revision) throws EDBException {
+        LOGGER.debug("Loading head for revision " + revision);
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(createHeadQuery(revision, false, null));
+        List<JPAObject> resultList = fetch(typedQuery);
+
+        JPAHead head = new JPAHead();
+        head.setJPAObjects(resultList);
+        return head;
+    }
+
     @Override
-    public JPAHead getJPAHead(long timestamp) throws EDBException {
-        LOGGER.debug("Loading head for timestamp " + timestamp);
+    public List<JPAObject> getHeadJPAObjects(long revision, String afterOid, int max) throws EDBException {
+        LOGGER.debug("Loading " + max + " objects of the head for revision " + revision + " after " + afterOid);
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(createHeadQuery(revision, true, afterOid));
+        typedQuery.setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    /**
+     * creates the query which loads the newest not deleted JPAObjects which were saved up to the given revision. If
+     * afterOid is not null, only the objects with a greater oid are loaded.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private CriteriaQuery<JPAObject> createHeadQuery(long revision, boolean orderByOid, String afterOid) {
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
         Root<JPAObject> from = query.from(JPAObject.class);
@@ -61,23 +107,24 @@ public class DefaultJPADao implements JPADao {
         query.select(from);
 
         Subquery<Number> subquery = query.subquery(Number.class);
-        Root maxTime = subquery.from(JPAObject.class);
-        subquery.select(criteriaBuilder.max(maxTime.get("timestamp")));
-        Predicate subPredicate1 = criteriaBuilder.le(maxTime.get("timestamp"), timestamp);
-        Predicate subPredicate2 = criteriaBuilder.equal(maxTime.get("oid"), from.get("oid"));
+        Root maxRevision = subquery.from(JPAObject.class);
+        subquery.select(criteriaBuilder.max(maxRevision.get("revision")));
+        Predicate subPredicate1 = criteriaBuilder.le(maxRevision.get("revision"), revision);
+        Predicate subPredicate2 = criteriaBuilder.equal(maxRevision.get("oid"), from.get("oid"));
         subquery.where(criteriaBuilder.and(subPredicate1, subPredicate2));
 
-        Predicate predicate1 = criteriaBuilder.equal(from.get("timestamp"), subquery);
+        Predicate predicate1 = criteriaBuilder.equal(from.get("revision"), subquery);
         Predicate predicate2 = criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE);
-        query.where(criteriaBuilder.and(predicate1, predicate2));
-
-        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
-        List<JPAObject> resultList = typedQuery.getResultList();
-
-        JPAHead head = new JPAHead();
-        head.setJPAObjects(resultList);
-        head.setTimestamp(timestamp);
-        return head;
+        if (afterOid != null) {
+            Predicate predicate3 = criteriaBuilder.greaterThan(from.<String> get("oid"), afterOid);
+            query.where(criteriaBuilder.and(predicate1, predicate2, predicate3));
+        } else {
+            query.where(criteriaBuilder.and(predicate1, predicate2));
+        }
+        if (orderByOid) {
+            query.orderBy(criteriaBuilder.asc(from.get("oid")));
+        }
+        return query;
     }
 
     @Override
@@ -89,10 +136,10 @@ public class DefaultJPADao implements JPADao {
         Root from = query.from(JPAObject.class);
         query.select(from);
         query.where(criteriaBuilder.equal(from.get("oid"), oid));
-        query.orderBy(criteriaBuilder.asc(from.get("timestamp")));
+        query.orderBy(criteriaBuilder.asc(from.get("revision")));
 
         TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+        return fetch(typedQuery);
     }
 
     @Override
@@ -107,10 +154,10 @@ public class DefaultJPADao implements JPADao {
         Predicate predicate1 = criteriaBuilder.equal(f.get("oid"), oid);
         Predicate predicate2 = criteriaBuilder.between(f.get("timestamp"), from, to);
         query.where(criteriaBuilder.and(predicate1, predicate2));
-        query.orderBy(criteriaBuilder.asc(f.get("timestamp")));
+        query.orderBy(criteriaBuilder.asc(f.get("revision")));
 
         TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+        return fetch(typedQuery);
     }
 
     @Override
@@ -126,10 +173,10 @@ public class DefaultJPADao implements JPADao {
         Predicate predicate1 = criteriaBuilder.equal(from.get("oid"), oid);
         Predicate predicate2 = criteriaBuilder.le(from.get("timestamp"), timestamp);
         query.where(criteriaBuilder.and(predicate1, predicate2));
-        query.orderBy(criteriaBuilder.desc(from.get("timestamp")));
+        query.orderBy(criteriaBuilder.desc(from.get("revision")));
 
         TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query).setMaxResults(1);
-        List<JPAObject> resultList = typedQuery.getResultList();
+        List<JPAObject> resultList = fetch(typedQuery);
 
         if (resultList.size() < 1) {
             throw new EDBException("Failed to query existing object");
@@ -143,101 +190,332 @@ public class DefaultJPADao implements JPADao {
     @Override
     public JPAObject getJPAObject(String oid) throws EDBException {
         LOGGER.debug("Loading newest object " + oid);
-        return getJPAObject(oid, System.currentTimeMillis());
+        JPAHeadObject head = getJPAHeadObject(oid);
+        if (head == null) {
+            throw new EDBException("Failed to query existing object");
+        }
+        return head.getObject();
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
-    public List<JPAObject> getJPAObjects(List<String> oid) throws EDBException {
-        LOGGER.debug("Loading newest object " + oid);
+    public List<JPAObject> getJPAObjects(List<String> oids) throws EDBException {
+        LOGGER.debug("Loading newest objects " + oids);
+        if (oids.isEmpty()) {
+            return new ArrayList<JPAObject>();
+        }
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
-        Root<JPAObject> from = query.from(JPAObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
 
+        query.select(from.<JPAObject> get("object"));
+        query.where(from.get("oid").in(oids));
+
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<JPAObject> getJPAObjects(List<String> oids, long revision) throws EDBException {
+        LOGGER.debug("Loading objects " + oids + " for the revision " + revision);
+        if (oids.isEmpty()) {
+            return new ArrayList<JPAObject>();
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
         query.select(from);
 
         Subquery<Number> subquery = query.subquery(Number.class);
-        Root maxTime = subquery.from(JPAObject.class);
-        subquery.select(criteriaBuilder.max(maxTime.get("timestamp")));
-        subquery.where(criteriaBuilder.equal(from.get("oid"), maxTime.get("oid")));
+        Root maxRevision = subquery.from(JPAObject.class);
+        subquery.select(criteriaBuilder.max(maxRevision.get("revision")));
+        subquery.where(criteriaBuilder.equal(maxRevision.get("oid"), from.get("oid")),
+            criteriaBuilder.le(maxRevision.get("revision"), revision));
 
-        Predicate predicate1 = criteriaBuilder.in(from.get("oid")).value(oid);
-        Predicate predicate2 = criteriaBuilder.equal(from.get("timestamp"), subquery);
+        query.where(from.get("oid").in(oids), criteriaBuilder.equal(from.get("revision"), subquery),
+            criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE));
 
-        query.where(criteriaBuilder.and(predicate1, predicate2));
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<String> getChangedOIDs(long from, long to) throws EDBException {
+        LOGGER.debug("Loading the oids which were changed from " + from + " to " + to);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<JPAObject> object = query.from(JPAObject.class);
+        query.select(object.<String> get("oid")).distinct(true);
+        query.where(criteriaBuilder.gt(object.<Long> get("revision"), from),
+            criteriaBuilder.le(object.<Long> get("revision"), to));
+
+        TypedQuery<String> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public JPAHead getJPAHead() throws EDBException {
+        LOGGER.debug("Loading head of the current state");
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+
+        query.select(from.<JPAObject> get("object"));
+        query.where(criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE));
+
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+
+        JPAHead head = new JPAHead();
+        head.setJPAObjects(fetch(typedQuery));
+        head.setTimestamp(System.currentTimeMillis());
+        return head;
+    }
+
+    @Override
+    public List<JPAObject> getHeadJPAObjects(int first, int max) throws EDBException {
+        LOGGER.debug("Loading " + max + " objects of the current head beginning at " + first);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+
+        query.select(from.<JPAObject> get("object"));
+        query.where(criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE));
+        query.orderBy(criteriaBuilder.asc(from.get("oid")));
 
         TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
-        List<JPAObject> resultList = typedQuery.getResultList();
-        return resultList;
+        typedQuery.setFirstResult(first).setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAObject> getHeadJPAObjects(String afterOid, int max) throws EDBException {
+        LOGGER.debug("Loading " + max + " objects of the current head after " + afterOid);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+
+        query.select(from.<JPAObject> get("object"));
+        if (afterOid != null) {
+            query.where(criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE),
+                criteriaBuilder.greaterThan(from.<String> get("oid"), afterOid));
+        } else {
+            query.where(criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE));
+        }
+        query.orderBy(criteriaBuilder.asc(from.get("oid")));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public JPAHeadObject getJPAHeadObject(String oid) throws EDBException {
+        return entityManager.find(JPAHeadObject.class, oid);
+    }
+
+    @Override
+    public List<JPAHeadObject> getJPAHeadObjects(List<String> oids) throws EDBException {
+        LOGGER.debug("Loading the head objects of " + oids.size() + " oids");
+        if (oids.isEmpty()) {
+            return new ArrayList<JPAHeadObject>();
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAHeadObject> query = criteriaBuilder.createQuery(JPAHeadObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+        query.select(from);
+        query.where(from.get("oid").in(oids));
+
+        TypedQuery<JPAHeadObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
     }
 
     @Override
+    public boolean isHeadIndexMissing() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from.<String> get("oid"));
+
+        Subquery<String> subquery = query.subquery(String.class);
+        Root<JPAHeadObject> head = subquery.from(JPAHeadObject.class);
+        subquery.select(head.<String> get("oid"));
+        subquery.where(criteriaBuilder.equal(head.get("oid"), from.get("oid")));
+
+        query.where(criteriaBuilder.not(criteriaBuilder.exists(subquery)));
+        return !entityManager.createQuery(query).setMaxResults(1).getResultList().isEmpty();
+    }
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    public List<JPACommit> getJPACommit(String oid, long from, long to) throws EDBException {
-        LOGGER.debug("Loading all commits which involve object " + oid + " from " + from + " to " + to);
+    @Override
+    public List<JPAObject> getNewestJPAObjectsFromHistory(String afterOid, int max) throws EDBException {
+        LOGGER.debug("Loading newest objects out of the history after " + afterOid);
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<JPACommit> query = criteriaBuilder.createQuery(JPACommit.class);
-        Root<JPACommit> f = query.from(JPACommit.class);
-        query.select(f);
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+
+        query.select(from);
 
-        Subquery<JPAObject> subquery = query.subquery(JPAObject.class);
-        Root fromJPAObject = subquery.from(JPAObject.class);
-        subquery.select(fromJPAObject.get("timestamp"));
-        Predicate predicate1 = criteriaBuilder.equal(fromJPAObject.get("oid"), oid);
-        Predicate predicate2 = criteriaBuilder.between(fromJPAObject.get("timestamp"), from, to);
-        subquery.where(criteriaBuilder.and(predicate1, predicate2));
+        Subquery<Number> subquery = query.subquery(Number.class);
+        Root maxRevision = subquery.from(JPAObject.class);
+        subquery.select(criteriaBuilder.max(maxRevision.get("revision")));
+        subquery.where(criteriaBuilder.equal(from.get("oid"), maxRevision.get("oid")));
 
-        query.where(criteriaBuilder.in(f.get("timestamp")).value(subquery));
-        query.orderBy(criteriaBuilder.asc(f.get("timestamp")));
+        if (afterOid != null) {
+            query.where(criteriaBuilder.equal(from.get("revision"), subquery),
+                criteriaBuilder.greaterThan(from.<String> get("oid"), afterOid));
+        } else {
+            query.where(criteriaBuilder.equal(from.get("revision"), subquery));
+        }
+        // the deleted version of an oid which was added and deleted in the same commit has to come first, since the
+        // next chunk begins after the oid
+        query.orderBy(criteriaBuilder.asc(from.get("oid")), criteriaBuilder.desc(from.get("isDeleted")));
 
-        TypedQuery<JPACommit> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        typedQuery.setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<JPAObject> getJPAObjectLog(String oid, long fromRevision, long toRevision) throws EDBException {
+        LOGGER.debug("Loading the log of object " + oid + " from revision " + fromRevision + " to " + toRevision);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> f = query.from(JPAObject.class);
+        f.fetch("commit");
+        query.select(f);
+
+        Predicate predicate1 = criteriaBuilder.equal(f.get("oid"), oid);
+        Predicate predicate2 = criteriaBuilder.between(f.<Long> get("revision"), fromRevision, toRevision);
+        query.where(criteriaBuilder.and(predicate1, predicate2));
+        query.orderBy(criteriaBuilder.asc(f.get("revision")));
+
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
     }
     
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
-    public List<String> getResurrectedOIDs() throws EDBException {
-        LOGGER.debug("get resurrected JPA objects");
-        
+    public List<String> getResurrectedOIDs(Long from, Long to) throws EDBException {
+        LOGGER.debug("get the oids which were resurrected from " + from + " to " + to);
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
-        Root from = query.from(JPAObject.class);
-        query.select(from.get("oid"));
-        
-        Subquery<JPAObject> sub = query.subquery(JPAObject.class);
-        Root f = sub.from(JPAObject.class);
-        sub.select(f);
-        Predicate subPredicate1 = criteriaBuilder.equal(from.get("oid"), f.get("oid"));
-        Predicate subPredicate2 = criteriaBuilder.equal(f.get("isDeleted"), Boolean.TRUE);
-        Predicate subPredicate3 = criteriaBuilder.gt(from.get("timestamp"), f.get("timestamp"));
-        sub.where(criteriaBuilder.and(subPredicate1, subPredicate2, subPredicate3));
-        
-        Predicate predicate1 = criteriaBuilder.notEqual(from.get("isDeleted"), Boolean.TRUE);
-        Predicate predicate2 = criteriaBuilder.exists(sub);    
-        query.where(predicate1, predicate2);
-        
+        Root<JPAResurrection> f = query.from(JPAResurrection.class);
+        query.select(f.<String> get("oid")).distinct(true);
+
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (from != null) {
+            predicates.add(criteriaBuilder.ge(f.<Long> get("timestamp"), from));
+        }
+        if (to != null) {
+            predicates.add(criteriaBuilder.le(f.<Long> get("timestamp"), to));
+        }
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(criteriaBuilder.asc(f.get("oid")));
+
         TypedQuery<String> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+        return fetch(typedQuery);
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
     @Override
-    public List<JPACommit> getJPACommit(long timestamp) throws EDBException {
-        LOGGER.debug("Load the commit for the timestamp " + timestamp);
+    public JPACommit getJPACommitByRevision(long revision) throws EDBException {
+        LOGGER.debug("Load the commit with the revision " + revision);
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<JPACommit> query = criteriaBuilder.createQuery(JPACommit.class);
         Root<JPACommit> from = query.from(JPACommit.class);
         query.select(from);
+        query.where(criteriaBuilder.equal(from.get("revision"), revision));
 
-        Subquery<Number> subquery = query.subquery(Number.class);
-        Root maxTime = subquery.from(JPACommit.class);
-        subquery.select(criteriaBuilder.max(maxTime.get("timestamp")));
-        subquery.where(criteriaBuilder.le(maxTime.get("timestamp"), timestamp));
+        List<JPACommit> result = fetch(entityManager.createQuery(query));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public Long getRevision(long timestamp) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(criteriaBuilder.max(from.<Long> get("revision")));
+        query.where(criteriaBuilder.le(from.<Long> get("timestamp"), timestamp));
 
-        query.where(criteriaBuilder.equal(from.get("timestamp"), subquery));
+        return fetchSingle(entityManager.createQuery(query));
+    }
 
-        TypedQuery<JPACommit> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+    @Override
+    public long getMaxRevision() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(criteriaBuilder.max(from.<Long> get("revision")));
+
+        Long result = fetchSingle(entityManager.createQuery(query));
+        return result != null ? result : 0L;
+    }
+
+    @Override
+    public List<JPACommit> getJPACommitsWithoutRevision(int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPACommit> query = criteriaBuilder.createQuery(JPACommit.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(from);
+        query.where(criteriaBuilder.isNull(from.get("revision")));
+        query.orderBy(criteriaBuilder.asc(from.get("timestamp")));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public List<JPAObject> getJPAObjectsWithoutRevision(int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.isNull(from.get("revision")));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public List<JPAObject> getJPAObjectsWithoutCommit(int first, int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.isNull(from.get("commit")));
+        query.orderBy(criteriaBuilder.asc(from.get("revision")), criteriaBuilder.asc(from.get("oid")));
+
+        return fetch(entityManager.createQuery(query).setFirstResult(first).setMaxResults(max));
+    }
+
+    @Override
+    public List<JPACommit> getJPACommitsOfRevisions(List<Long> revisions) throws EDBException {
+        if (revisions.isEmpty()) {
+            return new ArrayList<JPACommit>();
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPACommit> query = criteriaBuilder.createQuery(JPACommit.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(from);
+        query.where(from.get("revision").in(revisions));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public Map<Long, Long> getRevisionsOfTimestamps(List<Long> timestamps) throws EDBException {
+        Map<Long, Long> result = new HashMap<Long, Long>();
+        if (timestamps.isEmpty()) {
+            return result;
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        Expression<Long> timestamp = from.get("timestamp");
+        query.multiselect(timestamp, criteriaBuilder.max(from.<Long> get("revision")));
+        query.where(timestamp.in(timestamps));
+        query.groupBy(timestamp);
+
+        for (Object[] row : fetch(entityManager.createQuery(query))) {
+            result.put((Long) row[0], (Long) row[1]);
+        }
+        return result;
     }
 
     @Override
@@ -252,7 +530,7 @@ public class DefaultJPADao implements JPADao {
         query.where(criteriaBuilder.and(predicates));
 
         TypedQuery<JPACommit> typedQuery = entityManager.createQuery(query);
-        return typedQuery.getResultList();
+        return fetch(typedQuery);
     }
 
     @Override
@@ -265,11 +543,11 @@ public class DefaultJPADao implements JPADao {
         query.select(from);
         Predicate[] predicates = analyzeParamMap(criteriaBuilder, from, param);
         query.where(criteriaBuilder.and(predicates));
-        query.orderBy(criteriaBuilder.desc(from.get("timestamp")));
+        query.orderBy(criteriaBuilder.desc(from.get("revision")));
 
         TypedQuery<JPACommit> typedQuery = entityManager.createQuery(query).setMaxResults(1);
         try {
-            return typedQuery.getSingleResult();
+            return fetchSingle(typedQuery);
         } catch (NoResultException ex) {
             throw new EDBException("there was no Object found with the given query parameters", ex);
         }
@@ -303,47 +581,819 @@ public class DefaultJPADao implements JPADao {
 
     @Override
     public List<JPAObject> query(Map<String, Object> values) throws EDBException {
+        CriteriaQuery<JPAObject> query = planQuery(values, null, null);
+        if (query == null) {
+            return new ArrayList<JPAObject>();
+        }
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAObject> query(Map<String, Object> values, int first, int max) throws EDBException {
+        CriteriaQuery<JPAObject> query = planQuery(values, null, null);
+        if (query == null) {
+            return new ArrayList<JPAObject>();
+        }
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        typedQuery.setFirstResult(first).setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAObject> queryUnchangedSince(Map<String, Object> values, long revision, String afterOid, int max)
+        throws EDBException {
+        CriteriaQuery<JPAObject> query = planQuery(values, revision, afterOid);
+        if (query == null) {
+            return new ArrayList<JPAObject>();
+        }
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    /**
+     * Creates the query for the given key/value pairs, which only considers the newest not deleted objects. Equality
+     * comparisons of indexed keys are looked up in the secondary indexes, ordered by the number of matching index
+     * entries, so that the most selective index restricts the result first. All other comparisons are done on the
+     * entries of the objects. Returns null if one of the used indexes contains no matching entry, since then the
+     * result is empty for sure. If unchangedSince is not null, only the objects whose oid wasn't changed after this
+     * revision are considered, and if afterOid is not null only the objects with a greater oid.
+     */
+    private CriteriaQuery<JPAObject> planQuery(Map<String, Object> values, Long unchangedSince, String afterOid) {
+        List<IndexLookup> lookups = new ArrayList<IndexLookup>();
+        Map<String, Object> residual = new HashMap<String, Object>();
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            if (value.getValue() instanceof EDBRange || !indexDefinition.isIndexed(value.getKey())) {
+                residual.put(value.getKey(), value.getValue());
+                continue;
+            }
+            String stringValue = JPAEntry.toStringValue(value.getValue());
+            long count = countJPAIndexEntries(value.getKey(), stringValue);
+            if (count == 0) {
+                LOGGER.debug("no index entries for " + value.getKey() + " = " + stringValue + ", the result is empty");
+                return null;
+            }
+            lookups.add(new IndexLookup(value.getKey(), stringValue, count));
+        }
+        Collections.sort(lookups);
+
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
         CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
-        Root<JPAObject> from = query.from(JPAObject.class);
+        Root<JPAHeadObject> head = query.from(JPAHeadObject.class);
+        Join<JPAHeadObject, JPAObject> object = head.join("object");
+        query.select(object);
 
         List<Predicate> predicates = new ArrayList<Predicate>();
-        for (Map.Entry<String, Object> value : values.entrySet()) {
-            Join<?, ?> join = from.join("entries");
+        predicates.add(criteriaBuilder.notEqual(head.get("isDeleted"), Boolean.TRUE));
+        if (unchangedSince != null) {
+            predicates.add(criteriaBuilder.le(object.<Long> get("revision"), unchangedSince));
+        }
+        if (afterOid != null) {
+            predicates.add(criteriaBuilder.greaterThan(head.<String> get("oid"), afterOid));
+        }
+        for (IndexLookup lookup : lookups) {
+            Subquery<String> subquery = query.subquery(String.class);
+            Root<JPAIndexEntry> index = subquery.from(JPAIndexEntry.class);
+            subquery.select(index.<String> get("oid"));
+            subquery.where(criteriaBuilder.equal(index.get("key"), lookup.key),
+                criteriaBuilder.equal(index.get("value"), lookup.value));
+            predicates.add(criteriaBuilder.in(head.get("oid")).value(subquery));
+        }
+        if (deltaVersions) {
+            Collections.addAll(predicates, createChainQueryPredicates(criteriaBuilder, query, object, residual));
+        } else {
+            Collections.addAll(predicates, createQueryPredicates(criteriaBuilder, object, residual));
+        }
 
-            Predicate predicate1 = criteriaBuilder.equal(join.get("key"), value.getKey());
-            Predicate predicate2 = criteriaBuilder.equal(join.get("value"), value.getValue());
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(criteriaBuilder.asc(head.get("oid")));
+        return query;
+    }
 
-            predicates.add(criteriaBuilder.and(predicate1, predicate2));
-        }
-        query.where(predicates.toArray(new Predicate[1]));
-        query.orderBy(criteriaBuilder.desc(from.get("timestamp")));
-        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
-        List<JPAObject> result = typedQuery.getResultList();
-        return result;
+    @Override
+    public List<JPAObject> queryAtRevision(Map<String, Object> values, long revision) throws EDBException {
+        return fetch(entityManager.createQuery(planQueryAtRevision(values, revision, null, null, false)));
     }
 
     @Override
-    public Integer getVersionOfOid(String oid) throws EDBException {
-        LOGGER.debug("loading version of model under the oid {}", oid);
+    public List<JPAObject> queryAtRevision(Map<String, Object> values, long revision, String afterOid, int max)
+        throws EDBException {
+        TypedQuery<JPAObject> typedQuery =
+            entityManager.createQuery(planQueryAtRevision(values, revision, afterOid, null, false));
+        typedQuery.setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAObject> queryChangedSince(Map<String, Object> values, long revision, String afterOid, String toOid)
+        throws EDBException {
+        return fetch(entityManager.createQuery(planQueryAtRevision(values, revision, afterOid, toOid, true)));
+    }
 
+    /**
+     * Creates the query for the given key/value pairs, which only considers the newest version of every oid up to the
+     * given revision. The secondary indexes only describe the current state, so all comparisons are done on the
+     * entries of the versions, which are found through the indexes of the oid, revision and key columns. The oids
+     * can be restricted to the ones after afterOid and up to toOid, and to the ones which were changed after the
+     * revision.
+     */
+    private CriteriaQuery<JPAObject> planQueryAtRevision(Map<String, Object> values, long revision, String afterOid,
+            String toOid, boolean changedOnly) {
         CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
-        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
-        Root<JPAObject> from = query.from(JPAObject.class);
-        Expression<Long> maxExpression = criteriaBuilder.count(from.get("oid"));
-        query.select(maxExpression);
-        query.where(criteriaBuilder.equal(from.get("oid"), oid));
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> object = query.from(JPAObject.class);
+        query.select(object);
 
-        TypedQuery<Long> typedQuery = entityManager.createQuery(query);
-        try {
-            return (int) typedQuery.getSingleResult().longValue();
-        } catch (NoResultException ex) {
-            LOGGER.debug("no model under the oid {}. Returning 0", oid);
-            return 0;
+        Subquery<Long> newest = query.subquery(Long.class);
+        Root<JPAObject> version = newest.from(JPAObject.class);
+        newest.select(criteriaBuilder.max(version.<Long> get("revision")));
+        newest.where(criteriaBuilder.equal(version.get("oid"), object.get("oid")),
+            criteriaBuilder.le(version.<Long> get("revision"), revision));
+
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        predicates.add(criteriaBuilder.le(object.<Long> get("revision"), revision));
+        predicates.add(criteriaBuilder.equal(object.get("revision"), newest));
+        predicates.add(criteriaBuilder.notEqual(object.get("isDeleted"), Boolean.TRUE));
+        if (afterOid != null) {
+            predicates.add(criteriaBuilder.greaterThan(object.<String> get("oid"), afterOid));
+        }
+        if (toOid != null) {
+            predicates.add(criteriaBuilder.lessThanOrEqualTo(object.<String> get("oid"), toOid));
+        }
+        if (changedOnly) {
+            Subquery<String> changed = query.subquery(String.class);
+            Root<JPAHeadObject> head = changed.from(JPAHeadObject.class);
+            changed.select(head.<String> get("oid"));
+            changed.where(criteriaBuilder.gt(head.join("object").<Long> get("revision"), revision));
+            predicates.add(criteriaBuilder.in(object.get("oid")).value(changed));
+        }
+        if (deltaVersions) {
+            Collections.addAll(predicates, createChainQueryPredicates(criteriaBuilder, query, object, values));
+        } else {
+            Collections.addAll(predicates, createQueryPredicates(criteriaBuilder, object, values));
         }
+
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(criteriaBuilder.asc(object.get("oid")));
+        return query;
     }
 
-    public void setEntityManager(EntityManager entityManager) {
-        this.entityManager = entityManager;
+    /**
+     * a lookup of a key/value pair in the secondary indexes together with the number of matching index entries
+     */
+    private static final class IndexLookup implements Comparable<IndexLookup> {
+        private String key;
+        private String value;
+        private long count;
+
+        private IndexLookup(String key, String value, long count) {
+            this.key = key;
+            this.value = value;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(IndexLookup other) {
+            return count < other.count ? -1 : count == other.count ? 0 : 1;
+        }
+    }
+
+    /**
+     * creates for every key/value pair of the query map a predicate which checks if there is a JPAEntry with this
+     * key/value pair. If the value is an EDBRange, the typed value of the JPAEntry has to be inside the range.
+     */
+    private Predicate[] createQueryPredicates(CriteriaBuilder criteriaBuilder, From<?, JPAObject> from,
+            Map<String, Object> values) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            Join<?, ?> join = from.join("entries");
+
+            Predicate predicate1 = criteriaBuilder.equal(join.get("key"), value.getKey());
+            Predicate predicate2 = createValuePredicate(criteriaBuilder, join, value.getValue());
+
+            predicates.add(criteriaBuilder.and(predicate1, predicate2));
+        }
+        return predicates.toArray(new Predicate[predicates.size()]);
+    }
+
+    /**
+     * creates for every key/value pair of the query map a predicate for objects which may be saved as delta. The
+     * current entry of a key is the one of the newest version between the base revision and the revision of the
+     * object which contains the key. A removal entry never matches, since it has no value.
+     */
+    private Predicate[] createChainQueryPredicates(CriteriaBuilder criteriaBuilder, CriteriaQuery<?> query,
+            From<?, JPAObject> object, Map<String, Object> values) {
+        Expression<Long> baseRevision = criteriaBuilder.coalesce(object.<Long> get("baseRevision"),
+            object.<Long> get("revision"));
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            Subquery<Long> match = query.subquery(Long.class);
+            Root<JPAObject> version = match.from(JPAObject.class);
+            Join<?, ?> join = version.join("entries");
+            match.select(version.<Long> get("revision"));
+
+            Subquery<Long> newest = match.subquery(Long.class);
+            Root<JPAObject> newer = newest.from(JPAObject.class);
+            Join<?, ?> newerJoin = newer.join("entries");
+            newest.select(criteriaBuilder.max(newer.<Long> get("revision")));
+            newest.where(criteriaBuilder.equal(newer.get("oid"), object.get("oid")),
+                criteriaBuilder.ge(newer.<Long> get("revision"), baseRevision),
+                criteriaBuilder.le(newer.<Long> get("revision"), object.<Long> get("revision")),
+                criteriaBuilder.notEqual(newer.get("isDeleted"), Boolean.TRUE),
+                criteriaBuilder.equal(newerJoin.get("key"), value.getKey()));
+
+            match.where(criteriaBuilder.equal(version.get("oid"), object.get("oid")),
+                criteriaBuilder.equal(version.get("revision"), newest),
+                criteriaBuilder.notEqual(version.get("isDeleted"), Boolean.TRUE),
+                criteriaBuilder.equal(join.get("key"), value.getKey()),
+                createValuePredicate(criteriaBuilder, join, value.getValue()));
+            predicates.add(criteriaBuilder.exists(match));
+        }
+        return predicates.toArray(new Predicate[predicates.size()]);
+    }
+
+    /**
+     * creates a predicate which checks if the joined JPAEntry has the given value. If the value is an EDBRange, the
+     * typed value has to be inside the range.
+     */
+    private Predicate createValuePredicate(CriteriaBuilder criteriaBuilder, Join<?, ?> join, Object value) {
+        if (value instanceof EDBRange) {
+            return createRangePredicate(criteriaBuilder, join, (EDBRange) value);
+        }
+        return criteriaBuilder.equal(join.get("value"), JPAEntry.toStringValue(value));
+    }
+
+    /**
+     * creates a predicate which checks if the typed value of the joined JPAEntry is inside the given range. Ranges of
+     * integral numbers are compared with the long column, ranges of floating point numbers and BigDecimals with the
+     * double column (in which all numbers are saved, BigDecimals with the precision of a double), ranges of dates with
+     * the long column of date entries and ranges of strings with the string value.
+     */
+    private Predicate createRangePredicate(CriteriaBuilder criteriaBuilder, Join<?, ?> join, EDBRange range) {
+        Class<?> type = range.getBoundType();
+        if (Date.class.isAssignableFrom(type)) {
+            Predicate typePredicate = criteriaBuilder.equal(join.get("type"), JPAEntry.TYPE_DATE);
+            Long lower = range.getLower() != null ? ((Date) range.getLower()).getTime() : null;
+            Long upper = range.getUpper() != null ? ((Date) range.getUpper()).getTime() : null;
+            return criteriaBuilder.and(typePredicate, createBoundPredicate(criteriaBuilder,
+                join.<Long> get("longValue"), lower, range.isLowerInclusive(), upper, range.isUpperInclusive()));
+        } else if (Double.class.equals(type) || Float.class.equals(type) || BigDecimal.class.equals(type)) {
+            Double lower = range.getLower() != null ? ((Number) range.getLower()).doubleValue() : null;
+            Double upper = range.getUpper() != null ? ((Number) range.getUpper()).doubleValue() : null;
+            return createBoundPredicate(criteriaBuilder, join.<Double> get("doubleValue"), lower,
+                range.isLowerInclusive(), upper, range.isUpperInclusive());
+        } else if (Number.class.isAssignableFrom(type)) {
+            Predicate typePredicate = join.get("type").in(JPAEntry.TYPE_INTEGER, JPAEntry.TYPE_LONG,
+                JPAEntry.TYPE_SHORT, JPAEntry.TYPE_BYTE);
+            Long lower = range.getLower() != null ? ((Number) range.getLower()).longValue() : null;
+            Long upper = range.getUpper() != null ? ((Number) range.getUpper()).longValue() : null;
+            return criteriaBuilder.and(typePredicate, createBoundPredicate(criteriaBuilder,
+                join.<Long> get("longValue"), lower, range.isLowerInclusive(), upper, range.isUpperInclusive()));
+        } else if (String.class.equals(type)) {
+            return createBoundPredicate(criteriaBuilder, join.<String> get("value"), (String) range.getLower(),
+                range.isLowerInclusive(), (String) range.getUpper(), range.isUpperInclusive());
+        }
+        throw new EDBException("ranges of the type " + type.getName() + " are not supported");
+    }
+
+    /**
+     * creates a predicate which checks if the given column is inside the given bounds. Bounds which are null are
+     * ignored.
+     */
+    private <Y extends Comparable<? super Y>> Predicate createBoundPredicate(CriteriaBuilder criteriaBuilder,
+            Expression<Y> column, Y lower, boolean lowerInclusive, Y upper, boolean upperInclusive) {
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        if (lower != null) {
+            predicates.add(lowerInclusive ? criteriaBuilder.greaterThanOrEqualTo(column, lower)
+                    : criteriaBuilder.greaterThan(column, lower));
+        }
+        if (upper != null) {
+            predicates.add(upperInclusive ? criteriaBuilder.lessThanOrEqualTo(column, upper)
+                    : criteriaBuilder.lessThan(column, upper));
+        }
+        return criteriaBuilder.and(predicates.toArray(new Predicate[predicates.size()]));
+    }
+
+    @Override
+    public Integer getVersionOfOid(String oid) throws EDBException {
+        LOGGER.debug("loading version of model under the oid {}", oid);
+        JPAHeadObject head = getJPAHeadObject(oid);
+        if (head == null) {
+            LOGGER.debug("no model under the oid {}. Returning 0", oid);
+            return 0;
+        }
+        return head.getVersion();
+    }
+
+    @Override
+    public List<JPAHeadObject> getJPAHeadObjectsWithoutVersion(int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAHeadObject> query = criteriaBuilder.createQuery(JPAHeadObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.isNull(from.get("version")));
+
+        TypedQuery<JPAHeadObject> typedQuery = entityManager.createQuery(query).setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAHeadObject> getJPAHeadObjectsWithoutResurrections(int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAHeadObject> query = criteriaBuilder.createQuery(JPAHeadObject.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.isNull(from.get("resurrections")));
+
+        TypedQuery<JPAHeadObject> typedQuery = entityManager.createQuery(query).setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public List<JPAResurrection> createJPAResurrectionsFromHistory(List<String> oids) throws EDBException {
+        LOGGER.debug("creating the resurrections of " + oids.size() + " oids out of the history");
+        List<JPAResurrection> result = new ArrayList<JPAResurrection>();
+        if (oids.isEmpty()) {
+            return result;
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.multiselect(from.get("oid"), from.get("revision"), from.get("timestamp"), from.get("isDeleted"));
+        query.where(from.get("oid").in(oids));
+        // within a commit the saved objects are written before the deletions
+        query.orderBy(criteriaBuilder.asc(from.get("oid")), criteriaBuilder.asc(from.get("revision")),
+            criteriaBuilder.asc(from.get("isDeleted")));
+
+        String oid = null;
+        boolean deleted = false;
+        for (Object[] row : fetch(entityManager.createQuery(query))) {
+            boolean rowDeleted = Boolean.TRUE.equals(row[3]);
+            if (row[0].equals(oid) && deleted && !rowDeleted) {
+                result.add(new JPAResurrection((String) row[0], (Long) row[1], (Long) row[2]));
+            }
+            oid = (String) row[0];
+            deleted = rowDeleted;
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Integer> countVersionsFromHistory(List<String> oids) throws EDBException {
+        LOGGER.debug("counting the versions of " + oids.size() + " oids out of the history");
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        if (oids.isEmpty()) {
+            return result;
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = criteriaBuilder.createQuery(Object[].class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        Expression<Long> countExpression = criteriaBuilder.count(from.get("oid"));
+        query.multiselect(from.get("oid"), countExpression);
+        query.where(from.get("oid").in(oids));
+        query.groupBy(from.get("oid"));
+
+        for (Object[] row : fetch(entityManager.createQuery(query))) {
+            result.put((String) row[0], ((Number) row[1]).intValue());
+        }
+        return result;
+    }
+
+    @Override
+    public List<JPAIndexEntry> getJPAIndexEntries(List<String> oids) throws EDBException {
+        if (oids.isEmpty()) {
+            return new ArrayList<JPAIndexEntry>();
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAIndexEntry> query = criteriaBuilder.createQuery(JPAIndexEntry.class);
+        Root<JPAIndexEntry> from = query.from(JPAIndexEntry.class);
+        query.select(from);
+        query.where(from.get("oid").in(oids));
+
+        TypedQuery<JPAIndexEntry> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public long countJPAIndexEntries(String key, String value) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPAIndexEntry> from = query.from(JPAIndexEntry.class);
+        query.select(criteriaBuilder.count(from));
+        query.where(criteriaBuilder.equal(from.get("key"), key), criteriaBuilder.equal(from.get("value"), value));
+
+        return fetchSingle(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<JPAIndexEntry> getJPAIndexEntriesOfKey(String key, int max) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAIndexEntry> query = criteriaBuilder.createQuery(JPAIndexEntry.class);
+        Root<JPAIndexEntry> from = query.from(JPAIndexEntry.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("key"), key));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public List<JPAIndexedKey> getJPAIndexedKeys() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAIndexedKey> query = criteriaBuilder.createQuery(JPAIndexedKey.class);
+        query.select(query.from(JPAIndexedKey.class));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<JPAIndexEntry> createJPAIndexEntriesFromHead(String key, String afterOid, int max)
+        throws EDBException {
+        LOGGER.debug("creating index entries for the key " + key + " after " + afterOid);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAIndexEntry> query = criteriaBuilder.createQuery(JPAIndexEntry.class);
+        Root<JPAHeadObject> head = query.from(JPAHeadObject.class);
+        Join<JPAHeadObject, JPAObject> object = head.join("object");
+        Join<JPAObject, JPAEntry> entry = object.join("entries");
+
+        query.select(criteriaBuilder.construct(JPAIndexEntry.class, head.get("oid"), entry.get("key"),
+            entry.get("value")));
+        List<Predicate> predicates = new ArrayList<Predicate>();
+        predicates.add(criteriaBuilder.notEqual(head.get("isDeleted"), Boolean.TRUE));
+        predicates.add(criteriaBuilder.equal(entry.get("key"), key));
+        predicates.add(criteriaBuilder.isNotNull(entry.get("value")));
+        if (afterOid != null) {
+            predicates.add(criteriaBuilder.greaterThan(head.<String> get("oid"), afterOid));
+        }
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(criteriaBuilder.asc(head.get("oid")));
+
+        TypedQuery<JPAIndexEntry> typedQuery = entityManager.createQuery(query);
+        typedQuery.setMaxResults(max);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public JPASnapshot getNewestJPASnapshot(long revision) throws EDBException {
+        LOGGER.debug("Loading the newest snapshot for the revision " + revision);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPASnapshot> query = criteriaBuilder.createQuery(JPASnapshot.class);
+        Root<JPASnapshot> from = query.from(JPASnapshot.class);
+        query.select(from);
+        query.where(criteriaBuilder.le(from.<Long> get("revision"), revision));
+        query.orderBy(criteriaBuilder.desc(from.get("revision")));
+
+        List<JPASnapshot> result = fetch(entityManager.createQuery(query).setMaxResults(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<JPAObject> getJPASnapshotObjects(long snapshotRevision) throws EDBException {
+        LOGGER.debug("Loading the objects of the snapshot " + snapshotRevision);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPASnapshotEntry> from = query.from(JPASnapshotEntry.class);
+        query.select(from.<JPAObject> get("object"));
+        query.where(criteriaBuilder.equal(from.get("snapshotRevision"), snapshotRevision));
+
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<JPAObject> getNewestJPAObjects(long from, long to) throws EDBException {
+        LOGGER.debug("Loading the newest objects which were changed from " + from + " to " + to);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> f = query.from(JPAObject.class);
+        query.select(f);
+
+        Subquery<Number> subquery = query.subquery(Number.class);
+        Root maxRevision = subquery.from(JPAObject.class);
+        subquery.select(criteriaBuilder.max(maxRevision.get("revision")));
+        subquery.where(criteriaBuilder.equal(maxRevision.get("oid"), f.get("oid")),
+            criteriaBuilder.le(maxRevision.get("revision"), to));
+
+        query.where(criteriaBuilder.gt(f.<Long> get("revision"), from),
+            criteriaBuilder.le(f.<Long> get("revision"), to), criteriaBuilder.equal(f.get("revision"), subquery));
+
+        TypedQuery<JPAObject> typedQuery = entityManager.createQuery(query);
+        return fetch(typedQuery);
+    }
+
+    @Override
+    public long countJPACommitsAfter(long revision) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(criteriaBuilder.count(from));
+        query.where(criteriaBuilder.gt(from.<Long> get("revision"), revision));
+
+        return fetchSingle(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<JPASnapshot> getJPASnapshots(long revision) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPASnapshot> query = criteriaBuilder.createQuery(JPASnapshot.class);
+        Root<JPASnapshot> from = query.from(JPASnapshot.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("revision"), revision));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public JPASnapshot getJPASnapshotByTag(String tag) throws EDBException {
+        LOGGER.debug("Loading the snapshot with the tag " + tag);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPASnapshot> query = criteriaBuilder.createQuery(JPASnapshot.class);
+        Root<JPASnapshot> from = query.from(JPASnapshot.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("tag"), tag));
+
+        List<JPASnapshot> result = fetch(entityManager.createQuery(query).setMaxResults(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<JPASnapshotEntry> getJPASnapshotEntries(long snapshotRevision) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPASnapshotEntry> query = criteriaBuilder.createQuery(JPASnapshotEntry.class);
+        Root<JPASnapshotEntry> from = query.from(JPASnapshotEntry.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("snapshotRevision"), snapshotRevision));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<Long> getUntaggedJPASnapshotRevisions(List<JPAObject> objects) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPASnapshotEntry> from = query.from(JPASnapshotEntry.class);
+        query.select(from.<Long> get("snapshotRevision")).distinct(true);
+
+        Subquery<Long> untagged = query.subquery(Long.class);
+        Root<JPASnapshot> snapshot = untagged.from(JPASnapshot.class);
+        untagged.select(snapshot.<Long> get("revision"));
+        untagged.where(criteriaBuilder.isNull(snapshot.get("tag")));
+
+        query.where(from.get("object").in(objects),
+            criteriaBuilder.in(from.<Long> get("snapshotRevision")).value(untagged));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<Long> getUntaggedJPASnapshotRevisions() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPASnapshot> from = query.from(JPASnapshot.class);
+        query.select(from.<Long> get("revision"));
+        query.where(criteriaBuilder.isNull(from.get("tag")));
+        query.orderBy(criteriaBuilder.asc(from.get("revision")));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public List<JPAObject> getPrunableJPAObjects(int keepVersions, Long cutoff, int max) throws EDBException {
+        LOGGER.debug("Loading at most " + max + " versions which are outside of the retention policy");
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from);
+        List<Predicate> predicates = new ArrayList<Predicate>();
+
+        Subquery<Long> newer = query.subquery(Long.class);
+        Root<JPAObject> newerFrom = newer.from(JPAObject.class);
+        newer.select(criteriaBuilder.count(newerFrom));
+        newer.where(criteriaBuilder.equal(newerFrom.get("oid"), from.get("oid")),
+            criteriaBuilder.gt(newerFrom.<Long> get("revision"), from.<Long> get("revision")));
+        predicates.add(criteriaBuilder.ge(newer, Math.max(keepVersions, 1)));
+
+        if (cutoff != null) {
+            // the version has been replaced before the cutoff, so it is not needed for reads after the cutoff
+            Subquery<Long> replaced = query.subquery(Long.class);
+            Root<JPAObject> replacedFrom = replaced.from(JPAObject.class);
+            replaced.select(replacedFrom.<Long> get("revision"));
+            replaced.where(criteriaBuilder.equal(replacedFrom.get("oid"), from.get("oid")),
+                criteriaBuilder.gt(replacedFrom.<Long> get("revision"), from.<Long> get("revision")),
+                criteriaBuilder.lt(replacedFrom.<Long> get("timestamp"), cutoff));
+            predicates.add(criteriaBuilder.exists(replaced));
+        }
+
+        Subquery<Long> tagged = query.subquery(Long.class);
+        Root<JPASnapshotEntry> entry = tagged.from(JPASnapshotEntry.class);
+        Root<JPASnapshot> snapshot = tagged.from(JPASnapshot.class);
+        tagged.select(entry.<Long> get("snapshotRevision"));
+        tagged.where(criteriaBuilder.equal(entry.get("object"), from),
+            criteriaBuilder.equal(snapshot.get("revision"), entry.get("snapshotRevision")),
+            criteriaBuilder.isNotNull(snapshot.get("tag")));
+        predicates.add(criteriaBuilder.not(criteriaBuilder.exists(tagged)));
+
+        query.where(predicates.toArray(new Predicate[predicates.size()]));
+        query.orderBy(criteriaBuilder.asc(from.get("revision")));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public boolean hasJPAObject(String oid, long revision) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(criteriaBuilder.count(from));
+        query.where(criteriaBuilder.equal(from.get("oid"), oid), criteriaBuilder.equal(from.get("revision"), revision));
+
+        return fetchSingle(entityManager.createQuery(query)) > 0;
+    }
+
+    @Override
+    public List<JPACommit> getJPACommitsAfter(long revision, long maxRevision, int max) throws EDBException {
+        LOGGER.debug("Loading at most " + max + " commits after the revision " + revision);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPACommit> query = criteriaBuilder.createQuery(JPACommit.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(from);
+        query.where(criteriaBuilder.gt(from.<Long> get("revision"), revision),
+            criteriaBuilder.le(from.<Long> get("revision"), maxRevision));
+        query.orderBy(criteriaBuilder.asc(from.get("revision")));
+
+        return fetch(entityManager.createQuery(query).setMaxResults(max));
+    }
+
+    @Override
+    public List<JPAObject> getJPAObjectsOfRevision(long revision) throws EDBException {
+        LOGGER.debug("Loading the objects of the revision " + revision);
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("revision"), revision));
+        query.orderBy(criteriaBuilder.asc(from.get("oid")));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public JPAOIDPrefix getJPAOIDPrefix(String prefix) throws EDBException {
+        return entityManager.find(JPAOIDPrefix.class, prefix);
+    }
+
+    @Override
+    public JPAOIDPrefix getJPAOIDPrefixByCode(String code) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAOIDPrefix> query = criteriaBuilder.createQuery(JPAOIDPrefix.class);
+        Root<JPAOIDPrefix> from = query.from(JPAOIDPrefix.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("code"), code));
+
+        List<JPAOIDPrefix> result = fetch(entityManager.createQuery(query).setMaxResults(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public boolean hasJPAHeadObjectsWithPrefix(String prefix) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<JPAHeadObject> from = query.from(JPAHeadObject.class);
+        query.select(from.<String> get("oid"));
+        String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        query.where(criteriaBuilder.like(from.<String> get("oid"), pattern, '\\'));
+
+        return !fetch(entityManager.createQuery(query).setMaxResults(1)).isEmpty();
+    }
+
+    @Override
+    public Integer getLastJPACommitBatchSlice(String batchId) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> query = criteriaBuilder.createQuery(Integer.class);
+        Root<JPACommit> from = query.from(JPACommit.class);
+        query.select(criteriaBuilder.max(from.<Integer> get("batchSlice")));
+        query.where(criteriaBuilder.equal(from.get("batchId"), batchId));
+
+        return fetchSingle(entityManager.createQuery(query));
+    }
+
+    @Override
+    public JPAObject getPreviousJPAObject(String oid, int distance) throws EDBException {
+        LOGGER.debug("Loading the version of " + oid + " which was saved " + distance + " versions before the newest");
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from);
+        query.where(criteriaBuilder.equal(from.get("oid"), oid));
+        query.orderBy(criteriaBuilder.desc(from.get("revision")));
+
+        List<JPAObject> result = fetch(entityManager.createQuery(query).setFirstResult(distance).setMaxResults(1));
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<JPAObject> getJPAObjectVersions(List<String> oids, long from, long to) throws EDBException {
+        LOGGER.debug("Loading the versions of " + oids.size() + " oids from the revision " + from + " to " + to);
+        if (oids.isEmpty()) {
+            return new ArrayList<JPAObject>();
+        }
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<JPAObject> query = criteriaBuilder.createQuery(JPAObject.class);
+        Root<JPAObject> f = query.from(JPAObject.class);
+        query.select(f);
+        query.where(f.get("oid").in(oids), criteriaBuilder.between(f.<Long> get("revision"), from, to));
+        query.orderBy(criteriaBuilder.asc(f.get("revision")));
+
+        return fetch(entityManager.createQuery(query));
+    }
+
+    @Override
+    public boolean hasDeltaJPAObjects() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from.<Long> get("revision"));
+        query.where(criteriaBuilder.isNotNull(from.get("baseRevision")),
+            criteriaBuilder.notEqual(from.get("baseRevision"), from.get("revision")));
+
+        return !fetch(entityManager.createQuery(query).setMaxResults(1)).isEmpty();
+    }
+
+    @Override
+    public boolean hasPayloadJPAObjects() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPAObject> from = query.from(JPAObject.class);
+        query.select(from.<Long> get("revision"));
+        query.where(criteriaBuilder.isNotNull(from.get("dictionary")));
+
+        return !fetch(entityManager.createQuery(query).setMaxResults(1)).isEmpty();
+    }
+
+    @Override
+    public boolean hasPayloadHeadJPAObjects() throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = criteriaBuilder.createQuery(String.class);
+        Root<JPAHeadObject> head = query.from(JPAHeadObject.class);
+        Join<JPAHeadObject, JPAObject> object = head.join("object");
+        query.select(head.<String> get("oid"));
+        query.where(criteriaBuilder.notEqual(head.get("isDeleted"), Boolean.TRUE),
+            criteriaBuilder.isNotNull(object.get("dictionary")));
+
+        return !fetch(entityManager.createQuery(query).setMaxResults(1)).isEmpty();
+    }
+
+    @Override
+    public boolean hasPayloadJPAObjectsAtRevision(long revision) throws EDBException {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<JPAObject> object = query.from(JPAObject.class);
+        query.select(object.<Long> get("revision"));
+
+        Subquery<Long> newest = query.subquery(Long.class);
+        Root<JPAObject> version = newest.from(JPAObject.class);
+        newest.select(criteriaBuilder.max(version.<Long> get("revision")));
+        newest.where(criteriaBuilder.equal(version.get("oid"), object.get("oid")),
+            criteriaBuilder.le(version.<Long> get("revision"), revision));
+
+        query.where(criteriaBuilder.isNotNull(object.get("dictionary")),
+            criteriaBuilder.le(object.<Long> get("revision"), revision),
+            criteriaBuilder.equal(object.get("revision"), newest),
+            criteriaBuilder.notEqual(object.get("isDeleted"), Boolean.TRUE));
+
+        return !fetch(entityManager.createQuery(query).setMaxResults(1)).isEmpty();
+    }
+
+    @Override
+    public void setDeltaVersions(boolean deltaVersions) {
+        this.deltaVersions = deltaVersions;
+    }
+
+    @Override
+    public void setMetrics(EDBMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * executes the given query and records its latency and the number of loaded rows
+     */
+    private <T> List<T> fetch(TypedQuery<T> query) {
+        long start = metrics.start();
+        List<T> result = query.getResultList();
+        metrics.record(Operation.STATEMENT, start, result.size());
+        return result;
+    }
+
+    /**
+     * executes the given query, which has to return exactly one row, and records its latency
+     */
+    private <T> T fetchSingle(TypedQuery<T> query) {
+        long start = metrics.start();
+        T result = query.getSingleResult();
+        metrics.record(Operation.STATEMENT, start, 1);
+        return result;
     }
 }
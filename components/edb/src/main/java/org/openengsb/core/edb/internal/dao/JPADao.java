@@ -21,9 +21,17 @@ import java.util.List;
 import java.util.Map;
 
 import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.edb.internal.EDBMetrics;
 import org.openengsb.core.edb.internal.JPACommit;
 import org.openengsb.core.edb.internal.JPAHead;
+import org.openengsb.core.edb.internal.JPAHeadObject;
+import org.openengsb.core.edb.internal.JPAIndexEntry;
+import org.openengsb.core.edb.internal.JPAIndexedKey;
+import org.openengsb.core.edb.internal.JPAOIDPrefix;
 import org.openengsb.core.edb.internal.JPAObject;
+import org.openengsb.core.edb.internal.JPAResurrection;
+import org.openengsb.core.edb.internal.JPASnapshot;
+import org.openengsb.core.edb.internal.JPASnapshotEntry;
 
 /**
  * Represents a dao interface for connection to the JPA Database
@@ -31,9 +39,105 @@ import org.openengsb.core.edb.internal.JPAObject;
 public interface JPADao {
 
     /**
-     * Loads the JPAHead with the given timestamp.
+     * Loads the JPAHead with the state after the commit with the given revision.
      */
-    JPAHead getJPAHead(long timestamp) throws EDBException;
+    JPAHead getJPAHead(long revision) throws EDBException;
+
+    /**
+     * Loads the JPAHead of the current state. This is done with the help of the JPAHeadObjects, so the history has
+     * not to be analyzed.
+     */
+    JPAHead getJPAHead() throws EDBException;
+
+    /**
+     * Returns at most max JPAObjects of the current state ordered by their oid, beginning with the element at the
+     * position first.
+     */
+    List<JPAObject> getHeadJPAObjects(int first, int max) throws EDBException;
+
+    /**
+     * Returns at most max JPAObjects of the current state ordered by their oid, beginning after the given oid or with
+     * the first element if it is null.
+     */
+    List<JPAObject> getHeadJPAObjects(String afterOid, int max) throws EDBException;
+
+    /**
+     * Returns at most max JPAObjects of the state after the commit with the given revision ordered by their oid,
+     * beginning after the given oid or with the first element if it is null.
+     */
+    List<JPAObject> getHeadJPAObjects(long revision, String afterOid, int max) throws EDBException;
+
+    /**
+     * Returns the JPAHeadObject of the given oid or null if there was never an object with this oid committed.
+     */
+    JPAHeadObject getJPAHeadObject(String oid) throws EDBException;
+
+    /**
+     * Returns the JPAHeadObjects of the given oids. Oids which were never committed are not contained in the result.
+     */
+    List<JPAHeadObject> getJPAHeadObjects(List<String> oids) throws EDBException;
+
+    /**
+     * Returns the JPAOIDPrefix of the given oid prefix, or null if the prefix has not been saved yet.
+     */
+    JPAOIDPrefix getJPAOIDPrefix(String prefix) throws EDBException;
+
+    /**
+     * Returns the JPAOIDPrefix with the given code, or null if no prefix has been saved with this code.
+     */
+    JPAOIDPrefix getJPAOIDPrefixByCode(String code) throws EDBException;
+
+    /**
+     * Returns true if at least one JPAHeadObject has an oid which starts with the given prefix.
+     */
+    boolean hasJPAHeadObjectsWithPrefix(String prefix) throws EDBException;
+
+    /**
+     * Returns the highest slice number of the commits of the batch with the given id, or null if no slice of the batch
+     * has been committed.
+     */
+    Integer getLastJPACommitBatchSlice(String batchId) throws EDBException;
+
+    /**
+     * Returns the version of the given oid which was saved the given number of versions before its newest one, or null
+     * if there is no such version (any more).
+     */
+    JPAObject getPreviousJPAObject(String oid, int distance) throws EDBException;
+
+    /**
+     * Returns true if there are JPAObjects saved whose oid has no JPAHeadObject, which is the case for databases which
+     * were created before the JPAHeadObjects were introduced or whose head index was not completely built up.
+     */
+    boolean isHeadIndexMissing() throws EDBException;
+
+    /**
+     * Returns the newest JPAObjects (including deleted ones) of all oids ordered by the oid, beginning after the given
+     * oid or with the first element if it is null. If an oid was added and deleted in the same commit, its deleted
+     * version comes first. This analyzes the whole history and should only be used to build up the JPAHeadObjects.
+     */
+    List<JPAObject> getNewestJPAObjectsFromHistory(String afterOid, int max) throws EDBException;
+
+    /**
+     * Returns up to max JPAHeadObjects which have no version counter set yet.
+     */
+    List<JPAHeadObject> getJPAHeadObjectsWithoutVersion(int max) throws EDBException;
+
+    /**
+     * Returns up to max JPAHeadObjects without a resurrection counter.
+     */
+    List<JPAHeadObject> getJPAHeadObjectsWithoutResurrections(int max) throws EDBException;
+
+    /**
+     * Creates (without persisting them) the JPAResurrections of the given oids out of their history. Used to build up
+     * the resurrections of oids which were saved before they were recorded at commit time.
+     */
+    List<JPAResurrection> createJPAResurrectionsFromHistory(List<String> oids) throws EDBException;
+
+    /**
+     * Counts the saved JPAObjects for every given oid by analyzing the history. Should only be used to fill in the
+     * version counters of the JPAHeadObjects.
+     */
+    Map<String, Integer> countVersionsFromHistory(List<String> oids) throws EDBException;
 
     /**
      * Returns the history (all objects) of a given object.
@@ -61,19 +165,109 @@ public interface JPADao {
     List<JPAObject> getJPAObjects(List<String> oids) throws EDBException;
 
     /**
-     * Returns all commits which are involved with the given oid which are between from and to
+     * Returns the newest not deleted JPAObjects with the given oids which were saved up to the given revision
      */
-    List<JPACommit> getJPACommit(String oid, long from, long to) throws EDBException;
+    List<JPAObject> getJPAObjects(List<String> oids, long revision) throws EDBException;
+
+    /**
+     * Returns the oids which were changed or deleted by the commits with a revision greater than from and less or
+     * equal to to. Every change of a commit is saved as JPAObject with the revision of the commit, so the oids are
+     * taken from them.
+     */
+    List<String> getChangedOIDs(long from, long to) throws EDBException;
+
+    /**
+     * Returns the JPAObjects of the given oid with a revision between fromRevision and toRevision ordered by their
+     * revision. Their commits are loaded with the same query. Objects without a commit reference are left out.
+     */
+    List<JPAObject> getJPAObjectLog(String oid, long fromRevision, long toRevision) throws EDBException;
     
     /**
-     * Returns a list of oids from the JPAObjects which has been resurrected
+     * Returns the oids which have been resurrected between from and to, out of the JPAResurrections. If from or to is
+     * null, the time window is open at this side.
+     */
+    List<String> getResurrectedOIDs(Long from, Long to) throws EDBException;
+
+    /**
+     * Loads the JPACommit with the given revision or returns null if there is none
+     */
+    JPACommit getJPACommitByRevision(long revision) throws EDBException;
+
+    /**
+     * Returns the revision of the newest commit which is older or equal to the given timestamp or null if there is
+     * none.
+     */
+    Long getRevision(long timestamp) throws EDBException;
+
+    /**
+     * Returns the highest revision which has been given to a commit or 0 if there is none.
+     */
+    long getMaxRevision() throws EDBException;
+
+    /**
+     * Returns up to max JPACommits without a revision ordered by their timestamp. Used to migrate databases which
+     * were created before the revisions were introduced.
+     */
+    List<JPACommit> getJPACommitsWithoutRevision(int max) throws EDBException;
+
+    /**
+     * Returns up to max JPAObjects without a revision.
+     */
+    List<JPAObject> getJPAObjectsWithoutRevision(int max) throws EDBException;
+
+    /**
+     * Returns up to max JPAObjects without a commit reference ordered by their revision, beginning with the element
+     * at the position first.
+     */
+    List<JPAObject> getJPAObjectsWithoutCommit(int first, int max) throws EDBException;
+
+    /**
+     * Returns the JPACommits with the given revisions.
+     */
+    List<JPACommit> getJPACommitsOfRevisions(List<Long> revisions) throws EDBException;
+
+    /**
+     * Returns the JPAObjects (including deleted ones) of the given oids with a revision between from and to (both
+     * inclusive), ordered by their revision.
+     */
+    List<JPAObject> getJPAObjectVersions(List<String> oids, long from, long to) throws EDBException;
+
+    /**
+     * Returns true if at least one JPAObject is saved as delta to its previous version.
      */
-    List<String> getResurrectedOIDs() throws EDBException;
+    boolean hasDeltaJPAObjects() throws EDBException;
 
     /**
-     * Loads a JPACommit with the given timestamp
+     * Returns true if at least one JPAObject saves its entries as payload.
      */
-    List<JPACommit> getJPACommit(long timestamp) throws EDBException;
+    boolean hasPayloadJPAObjects() throws EDBException;
+
+    /**
+     * Returns true if the newest version of at least one oid which is not deleted saves its entries as payload.
+     */
+    boolean hasPayloadHeadJPAObjects() throws EDBException;
+
+    /**
+     * Returns true if the newest version up to the given revision of at least one oid which was not deleted at this
+     * revision saves its entries as payload.
+     */
+    boolean hasPayloadJPAObjectsAtRevision(long revision) throws EDBException;
+
+    /**
+     * Sets if JPAObjects may be saved as delta to their previous version. If so, the query conditions are checked
+     * against the newest entry of the key in the chain of the current version instead of its own entries.
+     */
+    void setDeltaVersions(boolean deltaVersions);
+
+    /**
+     * Sets the metrics into which the latencies and row counts of the database statements are recorded.
+     */
+    void setMetrics(EDBMetrics metrics);
+
+    /**
+     * Returns for every given timestamp the highest revision of the commits with this timestamp.
+     */
+    Map<Long, Long> getRevisionsOfTimestamps(List<Long> timestamps) throws EDBException;
 
     /**
      * Get all commits which are given with the param map. In the map there are values like commiter, role, etc.
@@ -86,12 +280,148 @@ public interface JPADao {
     JPACommit getLastCommit(Map<String, Object> param) throws EDBException;
     
     /**
-     * Returns a list of JPAObjects which have all JPAEntries with the given keys and values.
+     * Returns a list of the newest not deleted JPAObjects which have all JPAEntries with the given keys and values.
+     * Keys which are declared in the IndexDefinition are looked up in the secondary indexes, beginning with the most
+     * selective one.
      */
     List<JPAObject> query(Map<String, Object> values) throws EDBException;
+
+    /**
+     * Like query(Map<String, Object> values), but ordered by the oid and returns only at most max JPAObjects,
+     * beginning with the element at the position first.
+     */
+    List<JPAObject> query(Map<String, Object> values, int first, int max) throws EDBException;
+
+    /**
+     * Like query(Map<String, Object> values), but returns only the JPAObjects whose oid wasn't changed after the
+     * commit with the given revision. At most max JPAObjects are returned, beginning after the given oid or with the
+     * first element if it is null.
+     */
+    List<JPAObject> queryUnchangedSince(Map<String, Object> values, long revision, String afterOid, int max)
+        throws EDBException;
+
+    /**
+     * Like queryAtRevision(Map<String, Object> values, long revision), but returns only the JPAObjects whose oid was
+     * changed after the commit with the given revision and lies after afterOid and up to toOid. A bound which is null
+     * is ignored. Together with queryUnchangedSince this gives the result at the given revision chunk by chunk
+     * without losing the secondary indexes for the objects which weren't changed since.
+     */
+    List<JPAObject> queryChangedSince(Map<String, Object> values, long revision, String afterOid, String toOid)
+        throws EDBException;
+
+    /**
+     * Returns the JPAObjects which were the newest not deleted version of their oid after the commit with the given
+     * revision and have all JPAEntries with the given keys and values, ordered by the oid.
+     */
+    List<JPAObject> queryAtRevision(Map<String, Object> values, long revision) throws EDBException;
+
+    /**
+     * Like queryAtRevision(Map<String, Object> values, long revision), but returns only at most max JPAObjects,
+     * beginning after the given oid or with the first element if it is null.
+     */
+    List<JPAObject> queryAtRevision(Map<String, Object> values, long revision, String afterOid, int max)
+        throws EDBException;
     
     /**
-     * Returns the version of the element under the given oid. If oid isn't existing, 0 is returned.
+     * Returns the JPAIndexEntries of the given oids.
+     */
+    List<JPAIndexEntry> getJPAIndexEntries(List<String> oids) throws EDBException;
+
+    /**
+     * Returns the number of JPAIndexEntries with the given key and value.
+     */
+    long countJPAIndexEntries(String key, String value) throws EDBException;
+
+    /**
+     * Returns at most max JPAIndexEntries with the given key.
+     */
+    List<JPAIndexEntry> getJPAIndexEntriesOfKey(String key, int max) throws EDBException;
+
+    /**
+     * Returns the JPAIndexedKeys of all keys whose secondary index is completely built up.
+     */
+    List<JPAIndexedKey> getJPAIndexedKeys() throws EDBException;
+
+    /**
+     * Creates (without persisting them) at most max JPAIndexEntries for the given key out of the not deleted objects
+     * of the current state ordered by their oid, beginning after the given oid or with the first element if it is
+     * null. Used to build up the index of a newly declared key.
+     */
+    List<JPAIndexEntry> createJPAIndexEntriesFromHead(String key, String afterOid, int max) throws EDBException;
+
+    /**
+     * Returns the newest JPASnapshot with a revision less or equal to the given one or null if there is none.
+     */
+    JPASnapshot getNewestJPASnapshot(long revision) throws EDBException;
+
+    /**
+     * Returns the JPAObjects which are referenced by the JPASnapshot with the given revision.
+     */
+    List<JPAObject> getJPASnapshotObjects(long snapshotRevision) throws EDBException;
+
+    /**
+     * Returns the newest JPAObjects (including deleted ones) of all oids which have been changed by the commits with
+     * a revision greater than from and less or equal to to.
+     */
+    List<JPAObject> getNewestJPAObjects(long from, long to) throws EDBException;
+
+    /**
+     * Returns the number of commits with a revision greater than the given one.
+     */
+    long countJPACommitsAfter(long revision) throws EDBException;
+
+    /**
+     * Returns the JPASnapshots with the given revision.
+     */
+    List<JPASnapshot> getJPASnapshots(long revision) throws EDBException;
+
+    /**
+     * Returns the JPASnapshot with the given tag or null if there is none.
+     */
+    JPASnapshot getJPASnapshotByTag(String tag) throws EDBException;
+
+    /**
+     * Returns the JPASnapshotEntries of the JPASnapshot with the given revision.
+     */
+    List<JPASnapshotEntry> getJPASnapshotEntries(long snapshotRevision) throws EDBException;
+
+    /**
+     * Returns the revisions of the JPASnapshots without a tag which reference at least one of the given JPAObjects.
+     */
+    List<Long> getUntaggedJPASnapshotRevisions(List<JPAObject> objects) throws EDBException;
+
+    /**
+     * Returns the revisions of all JPASnapshots without a tag in ascending order.
+     */
+    List<Long> getUntaggedJPASnapshotRevisions() throws EDBException;
+
+    /**
+     * Returns at most max JPAObjects ordered by their revision which may be removed by the history compaction. Those
+     * are versions which have been replaced by at least keepVersions (but at least one) newer versions and, if the
+     * cutoff is not null, have been replaced by a version older than the cutoff. Versions which are referenced by a
+     * tagged JPASnapshot are never returned.
+     */
+    List<JPAObject> getPrunableJPAObjects(int keepVersions, Long cutoff, int max) throws EDBException;
+
+    /**
+     * Returns true if a JPAObject with the given oid and revision is saved.
+     */
+    boolean hasJPAObject(String oid, long revision) throws EDBException;
+
+    /**
+     * Returns at most max JPACommits with a revision greater than the given one and less or equal to maxRevision,
+     * ordered by their revision.
+     */
+    List<JPACommit> getJPACommitsAfter(long revision, long maxRevision, int max) throws EDBException;
+
+    /**
+     * Returns the JPAObjects (including deleted ones) which have been saved by the commit with the given revision.
+     */
+    List<JPAObject> getJPAObjectsOfRevision(long revision) throws EDBException;
+
+    /**
+     * Returns the version of the element under the given oid out of its JPAHeadObject. If oid isn't existing, 0 is
+     * returned.
      */
     Integer getVersionOfOid(String oid) throws EDBException;
 }
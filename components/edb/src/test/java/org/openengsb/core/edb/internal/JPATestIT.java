@@ -24,28 +24,46 @@ import static org.hamcrest.Matchers.notNullValue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.openengsb.core.api.edb.EDBBatchEvent;
+import org.openengsb.core.api.edb.EDBChange;
+import org.openengsb.core.api.edb.EDBChangeListener;
 import org.openengsb.core.api.edb.EDBCommit;
 import org.openengsb.core.api.edb.EDBDeleteEvent;
 import org.openengsb.core.api.edb.EDBEvent;
 import org.openengsb.core.api.edb.EDBException;
+import org.openengsb.core.api.edb.EDBImportListener;
 import org.openengsb.core.api.edb.EDBInsertEvent;
 import org.openengsb.core.api.edb.EDBLogEntry;
 import org.openengsb.core.api.edb.EDBObject;
+import org.openengsb.core.api.edb.EDBRange;
 import org.openengsb.core.api.edb.EDBUpdateEvent;
+import org.openengsb.core.api.model.OpenEngSBModel;
 import org.openengsb.core.api.model.OpenEngSBModelEntry;
 
 public class JPATestIT {
     private static JPADatabase db;
     private static Utils utils;
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
 
     private void openDatabase() {
         if (db == null) {
@@ -95,7 +113,7 @@ public class JPATestIT {
             obj.put("Test", "Hooray");
             ci.add(obj);
 
-            long time = db.commit(ci);
+            long revision = db.commit(ci);
 
             obj = null;
             obj = db.getObject("Tester");
@@ -104,7 +122,7 @@ public class JPATestIT {
             assertThat(obj, notNullValue());
             assertThat(hooray, notNullValue());
 
-            checkTimeStamps(Arrays.asList(time));
+            checkRevisions(Arrays.asList(revision));
         } catch (EDBException ex) {
             fail("Error: " + ex.toString());
         }
@@ -118,7 +136,7 @@ public class JPATestIT {
             obj.put("Bla", "Blabla");
             ci.add(obj);
 
-            long time = db.commit(ci);
+            long revision = db.commit(ci);
 
             List<EDBCommit> commits1 = db.getCommits("context", "Testcontext");
             List<EDBCommit> commits2 = db.getCommits("context", "DoesNotExist");
@@ -126,7 +144,7 @@ public class JPATestIT {
             assertThat(commits1.size(), is(1));
             assertThat(commits2.size(), is(0));
 
-            checkTimeStamps(Arrays.asList(time));
+            checkRevisions(Arrays.asList(revision));
         } catch (EDBException ex) {
             fail("Faild to fetch commit list..." + ex.getLocalizedMessage());
         }
@@ -140,10 +158,10 @@ public class JPATestIT {
     @SuppressWarnings("unchecked")
     @Test
     public void testGetHistoryAndCheckForElements_shouldWork() throws Exception {
-        long time1 = 0;
-        long time2 = 0;
-        long time3 = 0;
-        long time4 = 0;
+        long revision1 = 0;
+        long revision2 = 0;
+        long revision3 = 0;
+        long revision4 = 0;
         try {
             HashMap<String, Object> data1 = new HashMap<String, Object>();
             data1.put("Lock", "Key");
@@ -154,7 +172,7 @@ public class JPATestIT {
             ci.add(utils.createRandomTestObject("/useless/1"));
             ci.add(v1);
 
-            time1 = db.commit(ci);
+            revision1 = db.commit(ci);
 
             HashMap<String, Object> data2 = (HashMap<String, Object>) data1.clone();
             data2.put("Lock", "Smith");
@@ -163,13 +181,13 @@ public class JPATestIT {
             ci.add(utils.createRandomTestObject("/useless/2"));
             ci.add(v2);
 
-            time2 = db.commit(ci);
+            revision2 = db.commit(ci);
 
             HashMap<String, Object> data3 = (HashMap<String, Object>) data2.clone();
             ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
             ci.add(utils.createRandomTestObject("/useless/3"));
             ci.add(utils.createRandomTestObject("/useless/4"));
-            time3 = db.commit(ci);
+            revision3 = db.commit(ci);
 
             data3.put("Cat", "Dog");
             EDBObject v3 = new EDBObject("/history/object", data3);
@@ -177,7 +195,7 @@ public class JPATestIT {
             ci.add(v3);
             ci.add(utils.createRandomTestObject("/useless/5"));
 
-            time4 = db.commit(ci);
+            revision4 = db.commit(ci);
         } catch (EDBException ex) {
             fail("Error: " + ex.toString());
         }
@@ -200,18 +218,18 @@ public class JPATestIT {
         assertThat(history.get(2).getString("Lock"), is("Smith"));
         assertThat(history.get(2).getString("Cat"), is("Dog"));
 
-        checkTimeStamps(Arrays.asList(time1, time2, time3, time4));
+        checkRevisions(Arrays.asList(revision1, revision2, revision3, revision4));
     }
 
     @Test
     public void testHistoryOfDeletion_shouldWork() throws Exception {
         JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
         ci.add(utils.createRandomTestObject("/deletion/1"));
-        long time1 = db.commit(ci);
+        long revision1 = db.commit(ci);
 
         ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
         ci.delete("/deletion/1");
-        long time2 = db.commit(ci);
+        long revision2 = db.commit(ci);
 
         List<EDBObject> history = db.getHistory("/deletion/1");
 
@@ -219,16 +237,111 @@ public class JPATestIT {
         assertThat(history.get(0).isDeleted(), is(false));
         assertThat(history.get(1).isDeleted(), is(true));
 
-        checkTimeStamps(Arrays.asList(time1, time2));
+        checkRevisions(Arrays.asList(revision1, revision2));
+    }
+
+    @Test
+    public void testGetHeadAfterUpdateAndDeletion_shouldContainOnlyNewestActiveObjects() throws Exception {
+        EDBObject v1 = new EDBObject("/head/object/1");
+        v1.put("Key", "Value 1");
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(v1);
+        ci.add(utils.createRandomTestObject("/head/object/2"));
+        db.commit(ci);
+
+        EDBObject v2 = new EDBObject("/head/object/1");
+        v2.put("Key", "Value 2");
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(v2);
+        ci.delete("/head/object/2");
+        db.commit(ci);
+
+        int found = 0;
+        for (EDBObject object : db.getHead()) {
+            assertThat(object.getOID().equals("/head/object/2"), is(false));
+            if (object.getOID().equals("/head/object/1")) {
+                assertThat(object.getString("Key"), is("Value 2"));
+                found++;
+            }
+        }
+        assertThat(found, is(1));
+        assertThat(db.getObject("/head/object/2").isDeleted(), is(true));
+    }
+
+    @Test
+    public void testIterateHeadAndGetHeadPages_shouldReturnWholeHead() throws Exception {
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(utils.createRandomTestObject("/iterate/object/1"));
+        ci.add(utils.createRandomTestObject("/iterate/object/2"));
+        ci.add(utils.createRandomTestObject("/iterate/object/3"));
+        db.commit(ci);
+
+        int headSize = db.getHead().size();
+        int iterated = 0;
+        Iterator<EDBObject> iterator = db.iterateHead();
+        while (iterator.hasNext()) {
+            iterator.next();
+            iterated++;
+        }
+        int paged = 0;
+        List<EDBObject> page;
+        do {
+            page = db.getHead(paged, 2);
+            paged += page.size();
+        } while (page.size() == 2);
+
+        assertThat(iterated, is(headSize));
+        assertThat(paged, is(headSize));
+    }
+
+    @Test
+    public void testIterateQueryWithCommitsWhileIterating_shouldReturnStateOfItsStart() throws Exception {
+        EDBObject i1 = new EDBObject("/pinned/object/1");
+        i1.put("PinnedStatus", "OPEN");
+        EDBObject i2 = new EDBObject("/pinned/object/2");
+        i2.put("PinnedStatus", "OPEN");
+        EDBObject i3 = new EDBObject("/pinned/object/3");
+        i3.put("PinnedStatus", "CLOSED");
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(i1);
+        ci.add(i2);
+        ci.add(i3);
+        db.commit(ci);
+
+        HashMap<String, Object> query = new HashMap<String, Object>();
+        query.put("PinnedStatus", "OPEN");
+        Iterator<EDBObject> iterator = db.iterateQuery(query);
+
+        EDBObject i3open = new EDBObject("/pinned/object/3");
+        i3open.put("PinnedStatus", "OPEN");
+        EDBObject i2closed = new EDBObject("/pinned/object/2");
+        i2closed.put("PinnedStatus", "CLOSED");
+        EDBObject i4 = new EDBObject("/pinned/object/4");
+        i4.put("PinnedStatus", "OPEN");
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(i4);
+        ci.add(i2closed);
+        ci.add(i3open);
+        ci.delete("/pinned/object/1");
+        db.commit(ci);
+
+        List<String> oids = new ArrayList<String>();
+        while (iterator.hasNext()) {
+            EDBObject object = iterator.next();
+            oids.add(object.getOID());
+            assertThat(object.getString("PinnedStatus"), is("OPEN"));
+        }
+        assertThat(oids, is(Arrays.asList("/pinned/object/1", "/pinned/object/2")));
+        assertThat(db.query(query).size(), is(2));
     }
 
     @SuppressWarnings("unchecked")
     @Test
     public void testGetLog_shouldWork() throws Exception {
-        long time1 = 0;
-        long time2 = 0;
-        long time3 = 0;
-        long time4 = 0;
+        long revision1 = 0;
+        long revision2 = 0;
+        long revision3 = 0;
+        long revision4 = 0;
         try {
             HashMap<String, Object> data1 = new HashMap<String, Object>();
             data1.put("Burger", "Salad");
@@ -240,7 +353,7 @@ public class JPATestIT {
             ci.add(utils.createRandomTestObject("/deletion/test/1"));
             ci.add(v1);
 
-            time1 = db.commit(ci);
+            revision1 = db.commit(ci);
 
             HashMap<String, Object> data2 = (HashMap<String, Object>) data1.clone();
             data2.put("Burger", "Meat");
@@ -249,13 +362,13 @@ public class JPATestIT {
             ci.add(utils.createRandomTestObject("/useless/test/2"));
             ci.delete("/deletion/test/1");
             ci.add(v2);
-            time2 = db.commit(ci);
+            revision2 = db.commit(ci);
 
             HashMap<String, Object> data3 = (HashMap<String, Object>) data2.clone();
             ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
             ci.add(utils.createRandomTestObject("/useless/test/3"));
             ci.add(utils.createRandomTestObject("/useless/test/4"));
-            time3 = db.commit(ci);
+            revision3 = db.commit(ci);
 
             data3.put("Cheese", "Milk");
 
@@ -264,16 +377,81 @@ public class JPATestIT {
             ci.add(v3);
             ci.add(utils.createRandomTestObject("/useless/test/5"));
 
-            time4 = db.commit(ci);
+            revision4 = db.commit(ci);
         } catch (Exception ex) {
             ex.printStackTrace();
             fail("getHistory failed, didn't even get to try getLog: " + ex.toString());
         }
 
-        List<EDBLogEntry> log = db.getLog("/history/test/object", time1, time4);
+        List<EDBLogEntry> log = db.getLogByRevision("/history/test/object", revision1, revision4);
+        assertThat(log.size(), is(3));
+        assertThat(log.get(0).getCommit().getRevisionNumber(), is(revision1));
+        assertThat(log.get(1).getCommit().getRevisionNumber(), is(revision2));
+        assertThat(log.get(2).getCommit().getRevisionNumber(), is(revision4));
+        assertThat(log.get(2).getObject().getString("Cheese"), is("Milk"));
+
+        checkRevisions(Arrays.asList(revision1, revision2, revision3, revision4));
+    }
+
+    @Test
+    public void testGetLogOfVersionsOfOneCommit_shouldReturnEveryVersionWithItsCommit() throws Exception {
+        EDBObject first = new EDBObject("/log/shared");
+        first.put("Value", "first");
+        EDBObject second = new EDBObject("/log/shared");
+        second.put("Value", "second");
+        JPACommit ci = db.createCommit("Blub", "Testing");
+        ci.add(first);
+        ci.add(second);
+        long revision1 = db.commit(ci);
+
+        EDBObject third = new EDBObject("/log/shared");
+        third.put("Value", "third");
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(third);
+        long revision2 = db.commit(ci);
+        long time2 = ci.getTimestamp();
+
+        List<EDBLogEntry> log = db.getLogByRevision("/log/shared", revision1, revision2);
         assertThat(log.size(), is(3));
+        assertThat(log.get(0).getCommit().getRevisionNumber(), is(revision1));
+        assertThat(log.get(1).getCommit().getRevisionNumber(), is(revision1));
+        assertThat(log.get(2).getCommit().getRevisionNumber(), is(revision2));
+        List<Object> values = Arrays.asList(log.get(0).getObject().get("Value"), log.get(1).getObject().get("Value"));
+        assertThat(values.contains("first"), is(true));
+        assertThat(values.contains("second"), is(true));
+        assertThat(log.get(2).getObject().get("Value"), is((Object) "third"));
+        assertThat(db.getLog("/log/shared", 0L, time2).size(), is(3));
+
+        checkRevisions(Arrays.asList(revision1, revision2));
+    }
+
+    @Test
+    public void testGetLogOfManyVersions_shouldReturnTheVersionsInOrder() throws Exception {
+        List<Long> revisions = new ArrayList<Long>();
+        long lastTimestamp = 0;
+        for (int i = 0; i < 60; i++) {
+            EDBObject object = new EDBObject("/log/many");
+            object.put("Value", i);
+            JPACommit ci = db.createCommit("Blub", "Testing");
+            ci.add(object);
+            if (i % 10 == 0) {
+                ci.add(utils.createRandomTestObject("/log/many/other/" + i));
+            }
+            revisions.add(db.commit(ci));
+            lastTimestamp = ci.getTimestamp();
+        }
+
+        List<EDBLogEntry> log = db.getLog("/log/many", 0L, lastTimestamp);
+        assertThat(log.size(), is(60));
+        for (int i = 0; i < log.size(); i++) {
+            assertThat(log.get(i).getCommit().getRevisionNumber(), is(revisions.get(i)));
+            assertThat(log.get(i).getObject().get("Value"), is((Object) i));
+        }
+        log = db.getLogByRevision("/log/many", revisions.get(20), revisions.get(29));
+        assertThat(log.size(), is(10));
+        assertThat(log.get(0).getObject().get("Value"), is((Object) 20));
 
-        checkTimeStamps(Arrays.asList(time1, time2, time3, time4));
+        checkRevisions(revisions);
     }
 
     @SuppressWarnings("serial")
@@ -287,7 +465,7 @@ public class JPATestIT {
             EDBObject v1 = new EDBObject("/test/query1", data1);
             JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
             ci.add(v1);
-            long time1 = db.commit(ci);
+            long revision1 = db.commit(ci);
 
             HashMap<String, Object> data2 = new HashMap<String, Object>();
             data2.put("Cow", "Milk");
@@ -295,7 +473,7 @@ public class JPATestIT {
             v1 = new EDBObject("/test/query2", data2);
             ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
             ci.add(v1);
-            long time2 = db.commit(ci);
+            long revision2 = db.commit(ci);
 
             List<EDBObject> list1 = db.query("A", "B");
             List<EDBObject> list2 = db.query(new HashMap<String, Object>() {
@@ -324,7 +502,7 @@ public class JPATestIT {
             assertThat(list3.size(), is(2));
             assertThat(list4.size(), is(0));
 
-            checkTimeStamps(Arrays.asList(time1, time2));
+            checkRevisions(Arrays.asList(revision1, revision2));
 
             // removed because of the by jpa not supported regex command
             // list = db.query(new HashMap<String, Object>() {
@@ -339,12 +517,230 @@ public class JPATestIT {
         }
     }
 
+    @Test
+    public void testQueryWithRanges_shouldCompareTypedValues() throws Exception {
+        EDBObject v1 = new EDBObject("/test/range1");
+        v1.put("RangeNumber", 5);
+        v1.put("RangeDate", new Date(1000L));
+        v1.put("RangeDecimal", new BigDecimal("1.25"));
+        EDBObject v2 = new EDBObject("/test/range2");
+        v2.put("RangeNumber", 50);
+        v2.put("RangeDate", new Date(5000L));
+        v2.put("RangeDecimal", new BigDecimal("12.5"));
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(v1);
+        ci.add(v2);
+        db.commit(ci);
+
+        List<EDBObject> list1 = db.query("RangeNumber", EDBRange.greaterThan(10));
+        List<EDBObject> list2 = db.query("RangeNumber", EDBRange.between(1, 100));
+        List<EDBObject> list3 = db.query("RangeDate", EDBRange.lessThan(new Date(2000L)));
+        List<EDBObject> list4 = db.query("RangeNumber", EDBRange.lessThan(4.5));
+        List<EDBObject> list5 = db.query("RangeDecimal", EDBRange.greaterThan(new BigDecimal("2")));
+        List<EDBObject> list6 = db.query("RangeDate", new Date(5000L));
+
+        assertThat(list1.size(), is(1));
+        assertThat(list1.get(0).getOID(), is("/test/range2"));
+        assertThat(list1.get(0).get("RangeNumber"), is((Object) 50));
+        assertThat(list2.size(), is(2));
+        assertThat(list3.size(), is(1));
+        assertThat((Date) list3.get(0).get("RangeDate"), is(new Date(1000L)));
+        assertThat(list4.size(), is(0));
+        assertThat(list5.size(), is(1));
+        assertThat(list5.get(0).get("RangeDecimal"), is((Object) new BigDecimal("12.5")));
+        assertThat(list6.size(), is(1));
+        assertThat(list6.get(0).getOID(), is("/test/range2"));
+        assertThat(new JPAEntry("RangeDate", new Date(5000L)).getStringValue(), is("1970-01-01T00:00:05.000Z"));
+    }
+
+    @Test
+    public void testQueryWithIndexedKeys_shouldReturnOnlyCurrentVersions() throws Exception {
+        db.setIndexedKeys(Arrays.asList("IndexedDomain"));
+        try {
+            EDBObject v1 = new EDBObject("/test/indexed1");
+            v1.put("IndexedDomain", "domainA");
+            v1.put("Value", "first");
+            EDBObject v2 = new EDBObject("/test/indexed2");
+            v2.put("IndexedDomain", "domainA");
+            v2.put("Value", "second");
+            JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+            ci.add(v1);
+            ci.add(v2);
+            db.commit(ci);
+
+            EDBObject v3 = new EDBObject("/test/indexed2");
+            v3.put("IndexedDomain", "domainB");
+            v3.put("Value", "second");
+            ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+            ci.add(v3);
+            db.commit(ci);
+
+            HashMap<String, Object> query = new HashMap<String, Object>();
+            query.put("IndexedDomain", "domainA");
+            List<EDBObject> list1 = db.query(query);
+            query.put("Value", "second");
+            List<EDBObject> list2 = db.query(query);
+            query.put("IndexedDomain", "domainB");
+            List<EDBObject> list3 = db.query(query, 0, 1);
+            query.put("IndexedDomain", "domainC");
+            List<EDBObject> list4 = db.query(query);
+
+            assertThat(list1.size(), is(1));
+            assertThat(list1.get(0).getOID(), is("/test/indexed1"));
+            assertThat(list2.size(), is(0));
+            assertThat(list3.size(), is(1));
+            assertThat(list3.get(0).getOID(), is("/test/indexed2"));
+            assertThat(list4.size(), is(0));
+
+            // the index entries of the first of two versions of an oid in the same commit have to be replaced too
+            EDBObject v4 = new EDBObject("/test/indexed1");
+            v4.put("IndexedDomain", "domainC");
+            EDBObject v5 = new EDBObject("/test/indexed1");
+            v5.put("IndexedDomain", "domainD");
+            ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+            ci.add(v4);
+            ci.add(v5);
+            db.commit(ci);
+
+            assertThat(db.query("IndexedDomain", "domainA").size(), is(0));
+            assertThat(db.query("IndexedDomain", "domainC").size(), is(0));
+            assertThat(db.query("IndexedDomain", "domainD").size(), is(1));
+        } finally {
+            db.setIndexedKeys(new ArrayList<String>());
+        }
+    }
+
+    @Test
+    public void testQueryWithRedeclaredIndexedKey_shouldNotUseStaleIndexEntries() throws Exception {
+        db.setIndexedKeys(Arrays.asList("RedeclaredDomain"));
+        try {
+            EDBObject v1 = new EDBObject("/test/redeclared");
+            v1.put("RedeclaredDomain", "domainA");
+            JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+            ci.add(v1);
+            db.commit(ci);
+            assertThat(db.query("RedeclaredDomain", "domainA").size(), is(1));
+
+            db.setIndexedKeys(new ArrayList<String>());
+            EDBObject v2 = new EDBObject("/test/redeclared");
+            v2.put("RedeclaredDomain", "domainB");
+            ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+            ci.add(v2);
+            db.commit(ci);
+
+            db.setIndexedKeys(Arrays.asList("RedeclaredDomain"));
+            assertThat(db.query("RedeclaredDomain", "domainA").size(), is(0));
+            List<EDBObject> result = db.query("RedeclaredDomain", "domainB");
+            assertThat(result.size(), is(1));
+            assertThat(result.get(0).getOID(), is("/test/redeclared"));
+        } finally {
+            db.setIndexedKeys(new ArrayList<String>());
+        }
+    }
+
+    @Test
+    public void testQueryAtTimestamp_shouldCheckOnlyTheVersionsOfThatTime() throws Exception {
+        EDBObject t1 = new EDBObject("/test/pointintime1");
+        t1.put("TicketStatus", "OPEN");
+        EDBObject t2 = new EDBObject("/test/pointintime2");
+        t2.put("TicketStatus", "CLOSED");
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(t1);
+        ci.add(t2);
+        db.commit(ci);
+        long time1 = ci.getTimestamp();
+        waitForNextTimestamp(time1);
+
+        EDBObject t3 = new EDBObject("/test/pointintime1");
+        t3.put("TicketStatus", "CLOSED");
+        EDBObject t4 = new EDBObject("/test/pointintime2");
+        t4.put("TicketStatus", "OPEN");
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(t3);
+        ci.add(t4);
+        db.commit(ci);
+        long time2 = ci.getTimestamp();
+        waitForNextTimestamp(time2);
+
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.delete("/test/pointintime2");
+        db.commit(ci);
+        long time3 = ci.getTimestamp();
+
+        HashMap<String, Object> query = new HashMap<String, Object>();
+        query.put("TicketStatus", "OPEN");
+        List<EDBObject> open1 = db.query(query, time1);
+        List<EDBObject> open2 = db.query(query, time2);
+        List<EDBObject> open3 = db.query(query, time3);
+        Iterator<EDBObject> iterator = db.iterateQuery(query, time2);
+
+        assertThat(open1.size(), is(1));
+        assertThat(open1.get(0).getOID(), is("/test/pointintime1"));
+        assertThat(open2.size(), is(1));
+        assertThat(open2.get(0).getOID(), is("/test/pointintime2"));
+        assertThat(open3.size(), is(0));
+        assertThat(iterator.next().getOID(), is("/test/pointintime2"));
+        assertThat(iterator.hasNext(), is(false));
+        assertThat(db.query(query, time1 - 1000000).size(), is(0));
+    }
+
+    @Test
+    public void testGetHeadWithSnapshots_shouldApplyChangesSinceSnapshot() throws Exception {
+        db.setSnapshotInterval(2);
+        EDBObject s1 = new EDBObject("/test/snapshot1");
+        s1.put("Value", "first");
+        JPACommit ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(s1);
+        db.commit(ci);
+        long time1 = ci.getTimestamp();
+        waitForNextTimestamp(time1);
+
+        EDBObject s2 = new EDBObject("/test/snapshot2");
+        s2.put("Value", "second");
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(s2);
+        db.commit(ci);
+        long time2 = ci.getTimestamp();
+        waitForNextTimestamp(time2);
+
+        EDBObject s3 = new EDBObject("/test/snapshot1");
+        s3.put("Value", "changed");
+        ci = db.createCommit(utils.getRandomCommitter(), utils.getRandomRole());
+        ci.add(s3);
+        ci.delete("/test/snapshot2");
+        db.commit(ci);
+        long time3 = ci.getTimestamp();
+        db.awaitSnapshots();
+        db.setSnapshotInterval(0);
+
+        HashMap<String, EDBObject> head1 = getSnapshotTestObjects(db.getHead(time1));
+        HashMap<String, EDBObject> head2 = getSnapshotTestObjects(db.getHead(time2));
+        HashMap<String, EDBObject> head3 = getSnapshotTestObjects(db.getHead(time3));
+
+        assertThat(head1.size(), is(1));
+        assertThat(head1.get("/test/snapshot1").getString("Value"), is("first"));
+        assertThat(head2.size(), is(2));
+        assertThat(head2.get("/test/snapshot1").getString("Value"), is("first"));
+        assertThat(head3.size(), is(1));
+        assertThat(head3.get("/test/snapshot1").getString("Value"), is("changed"));
+    }
+
+    private HashMap<String, EDBObject> getSnapshotTestObjects(List<EDBObject> head) {
+        HashMap<String, EDBObject> result = new HashMap<String, EDBObject>();
+        for (EDBObject object : head) {
+            if (object.getOID().startsWith("/test/snapshot")) {
+                result.put(object.getOID(), object);
+            }
+        }
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testDiff_shouldWork() throws Exception {
-        long time1 = 0;
-        long time2 = 0;
-        long time3 = 0;
+        long revision1 = 0;
+        long revision2 = 0;
+        long revision3 = 0;
         try {
             HashMap<String, Object> data1 = new HashMap<String, Object>();
             data1.put("KeyA", "Value A 1");
@@ -353,7 +749,7 @@ public class JPATestIT {
             EDBObject v1 = new EDBObject("/diff/object", data1);
             JPACommit ci = db.createCommit("Blub", "Testing");
             ci.add(v1);
-            time1 = db.commit(ci);
+            revision1 = db.commit(ci);
 
             HashMap<String, Object> data2 = (HashMap<String, Object>) data1.clone();
 
@@ -362,7 +758,7 @@ public class JPATestIT {
             EDBObject v2 = new EDBObject("/diff/object", data2);
             ci = db.createCommit("Blub", "Testing");
             ci.add(v2);
-            time2 = db.commit(ci);
+            revision2 = db.commit(ci);
 
             HashMap<String, Object> data3 = (HashMap<String, Object>) data2.clone();
 
@@ -371,22 +767,131 @@ public class JPATestIT {
             EDBObject v3 = new EDBObject("/diff/object", data3);
             ci = db.createCommit("Blub", "Testing");
             ci.add(v3);
-            time3 = db.commit(ci);
+            revision3 = db.commit(ci);
         } catch (EDBException ex) {
             fail("Failed to prepare commits for comparison!" + ex.getLocalizedMessage());
         }
 
-        checkTimeStamps(Arrays.asList(time1, time2, time3));
+        checkRevisions(Arrays.asList(revision1, revision2, revision3));
 
-        Diff diffAb = db.getDiff(time1, time2);
-        Diff diffBc = db.getDiff(time2, time3);
-        Diff diffAc = db.getDiff(time1, time3);
+        Diff diffAb = db.getDiffByRevision(revision1, revision2);
+        Diff diffBc = db.getDiffByRevision(revision2, revision3);
+        Diff diffAc = db.getDiffByRevision(revision1, revision3);
 
         assertThat(diffAb.getDifferenceCount(), is(1));
         assertThat(diffBc.getDifferenceCount(), is(1));
         assertThat(diffAc.getDifferenceCount(), is(1));
     }
 
+    @Test
+    public void testIncrementalDiff_shouldOnlyContainChangedObjectsAndLoadFullStates() throws Exception {
+        EDBObject unchanged = new EDBObject("/incdiff/unchanged");
+        unchanged.put("KeyA", "Value A");
+        EDBObject changed = new EDBObject("/incdiff/changed");
+        changed.put("KeyA", "Value A 1");
+        JPACommit ci = db.createCommit("Blub", "Testing");
+        ci.add(unchanged);
+        ci.add(changed);
+        db.commit(ci);
+        long time1 = ci.getTimestamp();
+        waitForNextTimestamp(time1);
+
+        changed = new EDBObject("/incdiff/changed");
+        changed.put("KeyA", "Value A 2");
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(changed);
+        db.commit(ci);
+        long time2 = ci.getTimestamp();
+
+        Diff diff = db.getDiff(time2, time1);
+
+        assertThat(diff.getDifferenceCount(), is(1));
+        assertThat(diff.getDiff("/incdiff/changed").getDiffMap().get("KeyA").getAfter(), is((Object) "Value A 2"));
+        assertThat(diff.getStartCommit().getTimestamp(), is(time1));
+        assertThat(containsOID(diff.getStartState(), "/incdiff/unchanged"), is(true));
+        assertThat(containsOID(diff.getEndState(), "/incdiff/unchanged"), is(true));
+    }
+
+    private boolean containsOID(List<EDBObject> objects, String oid) {
+        for (EDBObject object : objects) {
+            if (object.getOID().equals(oid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testGetObjectWithCache_shouldReturnCommittedVersions() throws Exception {
+        db.setCacheSize(10);
+        EDBObject cached = new EDBObject("/cache/object");
+        cached.put("KeyA", "Value A 1");
+        JPACommit ci = db.createCommit("Blub", "Testing");
+        ci.add(cached);
+        db.commit(ci);
+
+        EDBObject first = db.getObject("/cache/object");
+        first.put("KeyA", "changed by caller");
+        EDBObject second = db.getObject("/cache/object");
+
+        cached = new EDBObject("/cache/object");
+        cached.put("KeyA", "Value A 2");
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(cached);
+        db.commit(ci);
+        EDBObject third = db.getObjects(Arrays.asList("/cache/object")).get(0);
+        long hits = db.getObjectCache().getHits();
+        db.setCacheSize(0);
+
+        assertThat(second.getString("KeyA"), is("Value A 1"));
+        assertThat(third.getString("KeyA"), is("Value A 2"));
+        assertThat(hits, is(3L));
+    }
+
+    @Test
+    public void testMetrics_shouldRecordOnlyWhileEnabled() throws Exception {
+        EDBMetrics metrics = db.getMetrics();
+        LatencyHistogram commits = metrics.getLatency(EDBMetrics.Operation.COMMIT);
+        LatencyHistogram queries = metrics.getLatency(EDBMetrics.Operation.QUERY);
+        LatencyHistogram statements = metrics.getLatency(EDBMetrics.Operation.STATEMENT);
+        metrics.reset();
+        EDBObject object = new EDBObject("/metrics/object");
+        object.put("KeyA", "Metrics A");
+        object.put("KeyB", "Metrics B");
+        JPACommit ci = db.createCommit("Blub", "Testing");
+        ci.add(object);
+        ci.add(new EDBObject("/metrics/object2"));
+        db.commit(ci);
+        long disabledCommits = commits.getCount();
+        long disabledStatements = statements.getCount();
+
+        metrics.setEnabled(true);
+        try {
+            object = new EDBObject("/metrics/object");
+            object.put("KeyA", "Metrics A 2");
+            object.put("KeyB", "Metrics B 2");
+            ci = db.createCommit("Blub", "Testing");
+            ci.add(object);
+            ci.delete("/metrics/object2");
+            db.commit(ci);
+            List<EDBObject> result = db.query("KeyA", "Metrics A 2");
+            assertThat(result.size(), is(1));
+        } finally {
+            metrics.setEnabled(false);
+        }
+
+        assertThat(disabledCommits, is(0L));
+        assertThat(disabledStatements, is(0L));
+        assertThat(commits.getCount(), is(1L));
+        assertThat(metrics.getWrittenObjects(), is(2L));
+        assertThat(commits.getRows(), is(metrics.getWrittenRows()));
+        assertThat(metrics.getWrittenRows() > metrics.getWrittenEntries() + 2, is(true));
+        assertThat(commits.getPercentile99Millis() <= commits.getMaxMillis(), is(true));
+        assertThat(queries.getCount(), is(1L));
+        assertThat(queries.getRows(), is(1L));
+        assertThat(statements.getCount(), greaterThan(0L));
+    }
+
     @Test
     public void testGetResurrectedOIDs_shouldWork() throws Exception {
         HashMap<String, Object> data1 = new HashMap<String, Object>();
@@ -394,26 +899,134 @@ public class JPATestIT {
         EDBObject v1 = new EDBObject("/ress/object", data1);
         JPACommit ci = db.createCommit("Blub", "Testing");
         ci.add(v1);
-        long time1 = db.commit(ci);
+        long revision1 = db.commit(ci);
 
         v1 = new EDBObject("/ress/object2", data1);
         ci = db.createCommit("Blub", "Testing");
         ci.add(v1);
         ci.delete("/ress/object");
-        long time2 = db.commit(ci);
+        long revision2 = db.commit(ci);
 
         v1 = new EDBObject("/ress/object", data1);
         ci = db.createCommit("Blub", "Testing");
         ci.delete("/ress/object2");
         ci.add(v1);
-        long time3 = db.commit(ci);
+        long revision3 = db.commit(ci);
+        long time3 = ci.getTimestamp();
+
+        v1 = new EDBObject("/ress/object", data1);
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(v1);
+        long revision4 = db.commit(ci);
 
         List<String> oids = db.getResurrectedOIDs();
 
         assertThat(oids.contains("/ress/object"), is(true));
         assertThat(oids.contains("/ress/object2"), is(false));
+        assertThat(oids.indexOf("/ress/object"), is(oids.lastIndexOf("/ress/object")));
+        assertThat(db.getResurrectedOIDs(time3, time3).contains("/ress/object"), is(true));
+        assertThat(db.getResurrectedOIDs(null, time3 - 1).contains("/ress/object"), is(false));
+
+        checkRevisions(Arrays.asList(revision1, revision2, revision3, revision4));
+    }
 
-        checkTimeStamps(Arrays.asList(time1, time2, time3));
+    @Test
+    public void testResurrectionsOfCommits_shouldBeRecordedAtTheirTimestamps() throws Exception {
+        HashMap<String, Object> data = new HashMap<String, Object>();
+        data.put("KeyA", "Value A 1");
+        EDBObject object = new EDBObject("/ress/recorded", data);
+        JPACommit ci = db.createCommit("Blub", "Testing");
+        ci.add(object);
+        db.commit(ci);
+
+        ci = db.createCommit("Blub", "Testing");
+        ci.delete("/ress/recorded");
+        db.commit(ci);
+        waitForNextTimestamp(ci.getTimestamp());
+
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(new EDBObject("/ress/recorded", data));
+        db.commit(ci);
+        long resurrection1 = ci.getTimestamp();
+        waitForNextTimestamp(ci.getTimestamp());
+
+        // an update of the living oid is no resurrection
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(new EDBObject("/ress/recorded", data));
+        db.commit(ci);
+        long update = ci.getTimestamp();
+        waitForNextTimestamp(ci.getTimestamp());
+
+        ci = db.createCommit("Blub", "Testing");
+        ci.delete("/ress/recorded");
+        db.commit(ci);
+        waitForNextTimestamp(ci.getTimestamp());
+
+        ci = db.createCommit("Blub", "Testing");
+        ci.add(new EDBObject("/ress/recorded", data));
+        db.commit(ci);
+        long resurrection2 = ci.getTimestamp();
+
+        assertThat(db.getResurrectedOIDs(null, resurrection1 - 1).contains("/ress/recorded"), is(false));
+        assertThat(db.getResurrectedOIDs(resurrection1, resurrection1).contains("/ress/recorded"), is(true));
+        assertThat(db.getResurrectedOIDs(update, update).contains("/ress/recorded"), is(false));
+        assertThat(db.getResurrectedOIDs(resurrection2, resurrection2).contains("/ress/recorded"), is(true));
+        List<String> oids = db.getResurrectedOIDs(resurrection1, resurrection2);
+        assertThat(oids.indexOf("/ress/recorded"), is(oids.lastIndexOf("/ress/recorded")));
+    }
+
+    @Test
+    public void testMigrationOfResurrections_shouldBuildThemUpOutOfTheHistory() throws Exception {
+        String url = "jdbc:h2:" + new File(tempFolder.getRoot(), "migration").getPath();
+        Properties props = new Properties();
+        props.setProperty("openjpa.ConnectionURL", url);
+        JPADatabase database = new JPADatabase();
+        database.open(props);
+        long resurrection;
+        try {
+            HashMap<String, Object> data = new HashMap<String, Object>();
+            data.put("KeyA", "Value A 1");
+            EDBObject object = new EDBObject("/ress/migrated", data);
+            JPACommit ci = database.createCommit("Blub", "Testing");
+            ci.add(object);
+            ci.add(new EDBObject("/ress/unchanged", data));
+            database.commit(ci);
+
+            ci = database.createCommit("Blub", "Testing");
+            ci.delete("/ress/migrated");
+            database.commit(ci);
+            waitForNextTimestamp(ci.getTimestamp());
+
+            ci = database.createCommit("Blub", "Testing");
+            ci.add(new EDBObject("/ress/migrated", data));
+            database.commit(ci);
+            resurrection = ci.getTimestamp();
+        } finally {
+            database.close();
+        }
+
+        // turns the database into one of an EDB which didn't record the resurrections yet
+        Connection connection = DriverManager.getConnection(url);
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("DELETE FROM JPAResurrection");
+            statement.executeUpdate("UPDATE JPAHeadObject SET RESURRECTIONS = NULL");
+            statement.close();
+        } finally {
+            connection.close();
+        }
+
+        database = new JPADatabase();
+        database.open(props);
+        try {
+            List<String> oids = database.getResurrectedOIDs();
+            assertThat(oids.size(), is(1));
+            assertThat(oids.get(0), is("/ress/migrated"));
+            assertThat(database.getResurrectedOIDs(null, resurrection - 1).isEmpty(), is(true));
+            assertThat(database.getResurrectedOIDs(resurrection, resurrection).size(), is(1));
+        } finally {
+            database.close();
+        }
     }
 
     @Test(expected = EDBException.class)
@@ -449,12 +1062,595 @@ public class JPATestIT {
         EDBObject obj = db.getObject("testdomain/testconnector/createevent/2");
 
         String name = (String) obj.get("name");
-        Integer version = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version = (Integer) obj.get("edbVersion");
 
         assertThat(name, is("blub"));
         assertThat(version, is(1));
     }
 
+    @Test
+    public void testSendEDBCreateEventsWithGroupCommit_shouldReportErrorsToTheirCallers() throws Exception {
+        TestModel existing = new TestModel();
+        existing.setEdbId("groupcommit/existing");
+        EDBInsertEvent existingEvent = new EDBInsertEvent(existing);
+        enrichEDBEvent(existingEvent);
+        db.processEDBInsertEvent(existingEvent);
+
+        db.setGroupCommitWindow(300);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Exception[] errors = new Exception[4];
+        Thread[] threads = new Thread[errors.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            final TestModel model = new TestModel();
+            model.setEdbId(i == 0 ? "groupcommit/existing" : "groupcommit/" + i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    EDBInsertEvent event = new EDBInsertEvent(model);
+                    enrichEDBEvent(event);
+                    try {
+                        start.await();
+                        db.processEDBInsertEvent(event);
+                    } catch (Exception e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        db.setGroupCommitWindow(0);
+
+        assertThat(errors[0] instanceof EDBException, is(true));
+        for (int i = 1; i < errors.length; i++) {
+            assertThat(errors[i] == null, is(true));
+            assertThat(db.getObject("testdomain/testconnector/groupcommit/" + i), notNullValue());
+        }
+    }
+
+    @Test
+    public void testSendEDBCreateEventsWithFailingGroupCommit_shouldOnlyFailTheGuiltyEvent() throws Exception {
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            tooLong.append('x');
+        }
+        db.setGroupCommitWindow(300);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Exception[] errors = new Exception[4];
+        Thread[] threads = new Thread[errors.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            final TestModel model = new TestModel();
+            model.setEdbId("groupcommit/failing/" + i);
+            // the value doesn't fit into its column, so the whole group commit fails in the database
+            model.setName(i == 2 ? tooLong.toString() : "name " + i);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    EDBInsertEvent event = new EDBInsertEvent(model);
+                    enrichEDBEvent(event);
+                    try {
+                        start.await();
+                        db.processEDBInsertEvent(event);
+                    } catch (Exception e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        db.setGroupCommitWindow(0);
+
+        assertThat(errors[2] instanceof EDBException, is(true));
+        for (int i = 0; i < errors.length; i++) {
+            if (i != 2) {
+                assertThat(errors[i] == null, is(true));
+                assertThat(db.getObject("testdomain/testconnector/groupcommit/failing/" + i), notNullValue());
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCommitsOfDisjointOids_shouldAllSucceed() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Exception[] errors = new Exception[4];
+        Thread[] threads = new Thread[errors.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < 5; j++) {
+                            EDBObject object = new EDBObject("/concurrent/" + index);
+                            object.put("Value", j);
+                            JPACommit ci = db.createCommit("Blub", "Testing");
+                            ci.add(object);
+                            db.commit(ci);
+                        }
+                    } catch (Exception e) {
+                        errors[index] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < errors.length; i++) {
+            assertThat(errors[i] == null, is(true));
+            assertThat(db.getObject("/concurrent/" + i).get("Value"), is((Object) 4));
+            assertThat(db.getHistory("/concurrent/" + i).size(), is(5));
+        }
+    }
+
+    @Test
+    public void testBurstOfCommits_shouldBeOrderedByRevision() throws Exception {
+        long lastRevision = 0;
+        long lastTimestamp = 0;
+        for (int i = 0; i < 20; i++) {
+            EDBObject object = new EDBObject("/revision/burst");
+            object.put("Value", i);
+            JPACommit ci = db.createCommit("Blub", "Testing");
+            ci.add(object);
+            long revision = db.commit(ci);
+            assertThat(revision, is(ci.getRevisionNumber()));
+            assertThat(revision, greaterThan(lastRevision));
+            assertThat(ci.getTimestamp() >= lastTimestamp, is(true));
+            lastRevision = revision;
+            lastTimestamp = ci.getTimestamp();
+        }
+
+        List<EDBObject> history = db.getHistory("/revision/burst");
+        assertThat(history.size(), is(20));
+        for (int i = 0; i < history.size(); i++) {
+            assertThat(history.get(i).get("Value"), is((Object) i));
+        }
+        assertThat(db.getCommit(lastTimestamp).getRevisionNumber(), is(lastRevision));
+        assertThat(db.getCommitByRevision(lastRevision).getTimestamp(), is(lastTimestamp));
+        assertThat(db.getLog("/revision/burst", 0L, lastTimestamp).size(), is(20));
+        // the commits may share their timestamps, but every revision identifies exactly one state
+        List<EDBLogEntry> log = db.getLogByRevision("/revision/burst", lastRevision - 1, lastRevision);
+        assertThat(log.size(), is(2));
+        assertThat(log.get(0).getObject().get("Value"), is((Object) 18));
+        for (EDBObject object : db.getHeadByRevision(lastRevision - 1)) {
+            if (object.getOID().equals("/revision/burst")) {
+                assertThat(object.get("Value"), is((Object) 18));
+            }
+        }
+        Diff diff = db.getDiffByRevision(lastRevision - 1, lastRevision);
+        assertThat(diff.getDifferenceCount(), is(1));
+    }
+
+    @Test
+    public void testCompactHistory_shouldKeepRetainedAndTaggedVersions() throws Exception {
+        File archive = tempFolder.newFolder("edb-archive-test");
+        db.setRetentionVersions(2);
+        db.setArchiveDirectory(archive.getPath());
+        try {
+            for (int i = 0; i < 5; i++) {
+                EDBObject object = new EDBObject("/compaction/object");
+                object.put("Value", i);
+                JPACommit ci = db.createCommit("Blub", "Testing");
+                ci.add(object);
+                db.commit(ci);
+                if (i == 1) {
+                    db.createTag("compaction-tag");
+                }
+            }
+            while (db.compactHistory(2) == 2) {
+                continue;
+            }
+
+            List<EDBObject> history = db.getHistory("/compaction/object");
+            assertThat(history.size(), is(3));
+            assertThat(history.get(0).get("Value"), is((Object) 1));
+            assertThat(history.get(1).get("Value"), is((Object) 3));
+            assertThat(history.get(2).get("Value"), is((Object) 4));
+            assertThat(db.getObject("/compaction/object").get("Value"), is((Object) 4));
+            for (EDBObject object : db.getTaggedState("compaction-tag")) {
+                if (object.getOID().equals("/compaction/object")) {
+                    assertThat(object.get("Value"), is((Object) 1));
+                }
+            }
+
+            db.setRetentionVersions(0);
+            for (File file : archive.listFiles()) {
+                assertThat(file.getName().endsWith(".gz"), is(true));
+                db.importArchive(file.getPath());
+            }
+            history = db.getHistory("/compaction/object");
+            assertThat(history.size(), is(5));
+            for (int i = 0; i < history.size(); i++) {
+                assertThat(history.get(i).get("Value"), is((Object) i));
+            }
+        } finally {
+            db.setRetentionVersions(0);
+            db.setArchiveDirectory(null);
+        }
+    }
+
+    @Test
+    public void testCompactHistory_shouldKeepTaggedDeltaVersionsReadable() throws Exception {
+        db.setFullVersionInterval(10);
+        db.setRetentionVersions(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                EDBObject object = new EDBObject("/compaction/delta");
+                object.put("Value", i);
+                object.put("Key" + i, "value" + i);
+                JPACommit ci = db.createCommit("Blub", "Testing");
+                ci.add(object);
+                db.commit(ci);
+                if (i == 2) {
+                    db.createTag("compaction-delta-tag");
+                }
+            }
+            EDBObject tagged = getTaggedObject("compaction-delta-tag", "/compaction/delta");
+            EDBObject current = db.getObject("/compaction/delta");
+
+            while (db.compactHistory(2) > 0) {
+                continue;
+            }
+
+            List<EDBObject> history = db.getHistory("/compaction/delta");
+            assertThat(history.size(), is(3));
+            for (int i = 0; i < history.size(); i++) {
+                assertThat(history.get(i).get("Key" + (i + 2)), is((Object) ("value" + (i + 2))));
+            }
+            assertThat(tagged.get("Key2"), is((Object) "value2"));
+            assertThat(getTaggedObject("compaction-delta-tag", "/compaction/delta"), is(tagged));
+            assertThat(db.getObject("/compaction/delta"), is(current));
+        } finally {
+            db.setRetentionVersions(0);
+            db.setFullVersionInterval(0);
+        }
+    }
+
+    private EDBObject getTaggedObject(String tag, String oid) {
+        for (EDBObject object : db.getTaggedState(tag)) {
+            if (object.getOID().equals(oid)) {
+                return object;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testBulkImport_shouldInsertAllModelsInOneCommit() throws Exception {
+        List<OpenEngSBModel> models = new ArrayList<OpenEngSBModel>();
+        for (int i = 0; i < 25; i++) {
+            TestModel model = new TestModel();
+            model.setName("bulk" + i);
+            model.setEdbId("bulkimport/" + i);
+            models.add(model);
+        }
+        EDBBatchEvent source = new EDBBatchEvent();
+        enrichEDBEvent(source);
+        final List<Long> progress = new ArrayList<Long>();
+        db.setBulkImportChunkSize(10);
+        try {
+            long revision = db.bulkImport(source, models.iterator(), true, new EDBImportListener() {
+                @Override
+                public void onProgress(long importedObjects, long elapsedMillis) {
+                    progress.add(importedObjects);
+                }
+            });
+
+            assertThat(progress, is(Arrays.asList(10L, 20L, 25L)));
+            EDBObject object = db.getObject("testdomain/testconnector/bulkimport/24");
+            assertThat(object.getString("name"), is("bulk24"));
+            assertThat(object.getTimestamp(), is(db.getCommitByRevision(revision).getTimestamp()));
+            assertThat(db.getHistory("testdomain/testconnector/bulkimport/0").size(), is(1));
+            assertThat(db.getCommitByRevision(revision).getOIDs().size(), is(25));
+        } finally {
+            db.setBulkImportChunkSize(5000);
+        }
+
+        TestModel existing = new TestModel();
+        existing.setEdbId("bulkimport/0");
+        TestModel fresh = new TestModel();
+        fresh.setEdbId("bulkimport/new");
+        int headSize = db.getHead().size();
+        try {
+            db.bulkImport(source, Arrays.<OpenEngSBModel> asList(fresh, existing).iterator(), false, null);
+            fail("importing an existing oid should fail");
+        } catch (EDBException e) {
+            // expected
+        }
+        assertThat(db.getHead().size(), is(headSize));
+        assertThat(db.getHistory("testdomain/testconnector/bulkimport/0").size(), is(1));
+        assertThat(db.getHistory("testdomain/testconnector/bulkimport/new").size(), is(0));
+
+        TestModel duplicate = new TestModel();
+        duplicate.setEdbId("bulkimport/duplicate");
+        db.setBulkImportChunkSize(1);
+        try {
+            db.bulkImport(source, Arrays.<OpenEngSBModel> asList(duplicate, duplicate).iterator(), true, null);
+            fail("importing an oid twice should fail");
+        } catch (EDBException e) {
+            // expected
+        } finally {
+            db.setBulkImportChunkSize(5000);
+        }
+        assertThat(db.getHead().size(), is(headSize));
+        assertThat(db.getHistory("testdomain/testconnector/bulkimport/duplicate").size(), is(0));
+    }
+
+    @Test
+    public void testDeltaVersions_shouldReturnFullStates() throws Exception {
+        db.setFullVersionInterval(3);
+        try {
+            EDBObject object = new EDBObject("/delta/object");
+            object.put("name", "first");
+            object.put("size", 1);
+            object.put("color", "red");
+            JPACommit ci = db.createCommit("TestCommit", "Role");
+            ci.add(object);
+            db.commit(ci);
+            for (int i = 2; i <= 5; i++) {
+                object = new EDBObject("/delta/object");
+                object.put("name", "first");
+                object.put("size", i);
+                if (i < 4) {
+                    object.put("color", "red");
+                }
+                ci = db.createCommit("TestCommit", "Role");
+                ci.add(object);
+                db.commit(ci);
+            }
+
+            EDBObject current = db.getObject("/delta/object");
+            assertThat(current.getString("name"), is("first"));
+            assertThat((Integer) current.get("size"), is(5));
+            assertThat(current.containsKey("color"), is(false));
+
+            List<EDBObject> history = db.getHistory("/delta/object");
+            assertThat(history.size(), is(5));
+            for (int i = 0; i < 5; i++) {
+                assertThat(history.get(i).getString("name"), is("first"));
+                assertThat((Integer) history.get(i).get("size"), is(i + 1));
+                assertThat(history.get(i).containsKey("color"), is(i < 3));
+            }
+
+            assertThat(db.query("name", "first").size(), is(1));
+            assertThat(db.query("size", 5).size(), is(1));
+            assertThat(db.query("size", 4).size(), is(0));
+            assertThat(db.query("color", "red").size(), is(0));
+        } finally {
+            db.setFullVersionInterval(0);
+        }
+    }
+
+    @Test
+    public void testPayloadEncoding_shouldRestoreTypedValuesAndKeepIndexedKeysQueryable() throws Exception {
+        db.setIndexedKeys(Arrays.asList("payloadDomain"));
+        db.setPayloadEncoding(true);
+        try {
+            Date date = new Date(1234567L);
+            EDBObject object = new EDBObject("/payload/object");
+            object.put("payloadDomain", "domainP");
+            object.put("name", "payload");
+            object.put("size", 42);
+            object.put("weight", 2.5d);
+            object.put("active", true);
+            object.put("created", date);
+            object.put("data", new byte[]{ 1, 2, 3 });
+            EDBObject other = new EDBObject("/payload/other");
+            other.put("payloadDomain", "domainQ");
+            other.put("name", "other");
+            JPACommit ci = db.createCommit("TestCommit", "Role");
+            ci.add(object);
+            ci.add(other);
+            db.commit(ci);
+
+            EDBObject loaded = db.getHistory("/payload/object").get(0);
+            assertThat(loaded.getString("name"), is("payload"));
+            assertThat((Integer) loaded.get("size"), is(42));
+            assertThat((Double) loaded.get("weight"), is(2.5d));
+            assertThat((Boolean) loaded.get("active"), is(true));
+            assertThat((Date) loaded.get("created"), is(date));
+            assertThat(Arrays.equals((byte[]) loaded.get("data"), new byte[]{ 1, 2, 3 }), is(true));
+            assertThat(db.getObject("/payload/other").getString("name"), is("other"));
+
+            List<EDBObject> result = db.query("payloadDomain", "domainP");
+            assertThat(result.size(), is(1));
+            assertThat((Integer) result.get(0).get("size"), is(42));
+            try {
+                db.query("name", "payload");
+                fail("querying a key which is not indexed should fail while objects are saved as payload");
+            } catch (EDBException e) {
+                // expected
+            }
+        } finally {
+            db.setPayloadEncoding(false);
+            db.setIndexedKeys(new ArrayList<String>());
+            // the other tests query keys which are not indexed
+            JPACommit ci = db.createCommit("TestCommit", "Role");
+            ci.delete("/payload/object");
+            ci.delete("/payload/other");
+            db.commit(ci);
+        }
+        assertThat(db.query("name", "payload").size(), is(0));
+    }
+
+    @Test
+    public void testChangeFeed_shouldDeliverCommitsInOrderAndReplayFromRevision() throws Exception {
+        final List<EDBChange> live = new ArrayList<EDBChange>();
+        EDBChangeListener liveListener = new EDBChangeListener() {
+            @Override
+            public void onChange(EDBChange change) {
+                live.add(change);
+            }
+        };
+        final List<EDBChange> replayed = new ArrayList<EDBChange>();
+        EDBChangeListener replayListener = new EDBChangeListener() {
+            @Override
+            public void onChange(EDBChange change) {
+                replayed.add(change);
+            }
+        };
+        db.addChangeListener(liveListener, null);
+        try {
+            JPACommit ci = db.createCommit("TestCommit", "Role");
+            ci.add(new EDBObject("/changefeed/1"));
+            db.commit(ci);
+            ci = db.createCommit("TestCommit", "Role");
+            EDBObject updated = new EDBObject("/changefeed/1");
+            updated.put("key", "value");
+            ci.add(updated);
+            db.commit(ci);
+            ci = db.createCommit("TestCommit", "Role");
+            ci.delete("/changefeed/1");
+            db.commit(ci);
+
+            assertThat(live.size(), is(3));
+            assertThat(live.get(0).getInserts(), is(Arrays.asList("/changefeed/1")));
+            assertThat(live.get(1).getUpdates(), is(Arrays.asList("/changefeed/1")));
+            assertThat(live.get(2).getDeletions(), is(Arrays.asList("/changefeed/1")));
+            assertThat(live.get(1).getRevisionNumber(), greaterThan(live.get(0).getRevisionNumber()));
+            assertThat(live.get(2).getRevisionNumber(), greaterThan(live.get(1).getRevisionNumber()));
+
+            db.addChangeListener(replayListener, live.get(0).getRevisionNumber() - 1);
+            assertThat(replayed.size(), is(3));
+            for (int i = 0; i < 3; i++) {
+                assertThat(replayed.get(i).getRevisionNumber(), is(live.get(i).getRevisionNumber()));
+            }
+            assertThat(replayed.get(0).getInserts(), is(Arrays.asList("/changefeed/1")));
+            assertThat(replayed.get(1).getUpdates(), is(Arrays.asList("/changefeed/1")));
+            assertThat(replayed.get(2).getDeletions(), is(Arrays.asList("/changefeed/1")));
+
+            ci = db.createCommit("TestCommit", "Role");
+            ci.add(new EDBObject("/changefeed/2"));
+            db.commit(ci);
+            assertThat(live.size(), is(4));
+            assertThat(replayed.size(), is(4));
+        } finally {
+            db.removeChangeListener(liveListener);
+            db.removeChangeListener(replayListener);
+        }
+    }
+
+    @Test
+    public void testSendEDBBatchEventInSlices_shouldResumeAfterLastCommittedSlice() throws Exception {
+        TestModel existing = new TestModel();
+        existing.setName("existing");
+        existing.setEdbId("slicedbatch/existing");
+        EDBInsertEvent event = new EDBInsertEvent(existing);
+        enrichEDBEvent(event);
+        db.processEDBInsertEvent(event);
+
+        EDBBatchEvent batch = new EDBBatchEvent();
+        enrichEDBEvent(batch);
+        for (int i = 1; i <= 3; i++) {
+            TestModel model = new TestModel();
+            model.setName("sliced" + i);
+            model.setEdbId("slicedbatch/" + i);
+            batch.addModelInsert(model);
+        }
+        batch.addModelInsert(existing);
+
+        db.setBatchSliceSize(2);
+        try {
+            try {
+                db.processEDBBatchEvent(batch);
+                fail("the insert of an existing object has to fail");
+            } catch (EDBException e) {
+                // expected, the second slice inserts an existing object
+            }
+            assertThat(batch.getBatchId(), notNullValue());
+            assertThat(db.getObject("testdomain/testconnector/slicedbatch/2").getString("name"), is("sliced2"));
+            assertThat(db.getHistory("testdomain/testconnector/slicedbatch/3").size(), is(0));
+
+            TestModel replacement = new TestModel();
+            replacement.setName("sliced4");
+            replacement.setEdbId("slicedbatch/4");
+            batch.getInserts().set(3, replacement);
+            db.processEDBBatchEvent(batch);
+        } finally {
+            db.setBatchSliceSize(0);
+        }
+
+        assertThat(db.getObject("testdomain/testconnector/slicedbatch/3").getString("name"), is("sliced3"));
+        assertThat(db.getObject("testdomain/testconnector/slicedbatch/4").getString("name"), is("sliced4"));
+        assertThat(db.getHistory("testdomain/testconnector/slicedbatch/1").size(), is(1));
+    }
+
+    @Test
+    public void testCompactOIDs_shouldShortenNewPrefixesAndKeepExistingOIDs() throws Exception {
+        TestModel legacy = new TestModel();
+        legacy.setName("legacy");
+        legacy.setEdbId("compactoid/legacy");
+        EDBInsertEvent event = new EDBInsertEvent(legacy);
+        enrichEDBEvent(event, "legacydomain", "legacyconnector");
+        db.processEDBInsertEvent(event);
+
+        db.setCompactOIDs(true);
+        try {
+            TestModel model = new TestModel();
+            model.setName("compact");
+            model.setEdbId("compactoid/1");
+            event = new EDBInsertEvent(model);
+            enrichEDBEvent(event, "compactdomain", "compactconnector");
+            db.processEDBInsertEvent(event);
+            model.setName("updated");
+            EDBUpdateEvent update = new EDBUpdateEvent(model);
+            enrichEDBEvent(update, "compactdomain", "compactconnector");
+            db.processEDBUpdateEvent(update);
+
+            TestModel generated = new TestModel();
+            generated.setName("generated");
+            event = new EDBInsertEvent(generated);
+            enrichEDBEvent(event, "compactdomain", "compactconnector");
+            db.processEDBInsertEvent(event);
+
+            legacy.setName("legacy2");
+            update = new EDBUpdateEvent(legacy);
+            enrichEDBEvent(update, "legacydomain", "legacyconnector");
+            db.processEDBUpdateEvent(update);
+        } finally {
+            db.setCompactOIDs(false);
+        }
+
+        EDBObject compact = db.getObject("compactdomain/compactconnector/compactoid/1");
+        assertThat(compact.getString("name"), is("updated"));
+        assertThat(compact.getOID(), is("compactdomain/compactconnector/compactoid/1"));
+        assertThat(db.getHistory("compactdomain/compactconnector/compactoid/1").size(), is(2));
+        EDBObject generatedObject = db.query("name", "generated").get(0);
+        assertThat(generatedObject.getOID().startsWith("compactdomain/compactconnector/"), is(true));
+        assertThat(generatedObject.getOID().length() < "compactdomain/compactconnector/".length() + 20, is(true));
+        assertThat(db.getObject(generatedObject.getOID()).getString("name"), is("generated"));
+
+        EDBObject direct = new EDBObject("compactdomain/compactconnector/compactoid/direct");
+        direct.put("name", "direct");
+        JPACommit ci = db.createCommit("TestCommit", "Role");
+        ci.add(direct);
+        db.commit(ci);
+        assertThat(direct.getOID(), is("compactdomain/compactconnector/compactoid/direct"));
+        assertThat(db.getObject("compactdomain/compactconnector/compactoid/direct").getString("name"), is("direct"));
+        EDBObject existing = db.getObject("legacydomain/legacyconnector/compactoid/legacy");
+        assertThat(existing.getString("name"), is("legacy2"));
+        assertThat(existing.getOID(), is("legacydomain/legacyconnector/compactoid/legacy"));
+    }
+
+    private void enrichEDBEvent(EDBEvent event, String domainId, String connectorId) {
+        enrichEDBEvent(event);
+        event.setDomainId(domainId);
+        event.setConnectorId(connectorId);
+    }
+
     @Test
     public void testSendEDBBatchEvent_shouldWork() throws Exception {
         TestModel model = new TestModel();
@@ -467,7 +1663,7 @@ public class JPATestIT {
         EDBObject obj = db.getObject("testdomain/testconnector/batchevent/1");
 
         String name1 = (String) obj.get("name");
-        Integer version1 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version1 = (Integer) obj.get("edbVersion");
 
         model.setName("blab");
         EDBBatchEvent e = new EDBBatchEvent();
@@ -484,12 +1680,12 @@ public class JPATestIT {
         obj = db.getObject("testdomain/testconnector/batchevent/1");
 
         String name2 = (String) obj.get("name");
-        Integer version2 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version2 = (Integer) obj.get("edbVersion");
 
         obj = db.getObject("testdomain/testconnector/batchevent/2");
 
         String name3 = (String) obj.get("name");
-        Integer version3 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version3 = (Integer) obj.get("edbVersion");
 
         assertThat(name1, is("blub"));
         assertThat(version1, is(1));
@@ -501,6 +1697,71 @@ public class JPATestIT {
         assertThat(version3, is(1));
     }
 
+    @Test
+    public void testSendEDBBatchEventWithExistingAndNewModels_shouldResolveVersionsOfAllModels() throws Exception {
+        TestModel updated = new TestModel();
+        updated.setName("v1");
+        updated.setEdbId("lookupbatch/updated");
+        SubModel sub = new SubModel();
+        sub.setName("sub1");
+        sub.setEdbId("lookupbatch/sub");
+        updated.setSubModel(sub);
+        TestModel deleted = new TestModel();
+        deleted.setName("deleted");
+        deleted.setEdbId("lookupbatch/deleted");
+        EDBBatchEvent setup = new EDBBatchEvent();
+        enrichEDBEvent(setup);
+        setup.addModelInsert(updated);
+        setup.addModelInsert(deleted);
+        db.processEDBBatchEvent(setup);
+
+        updated.setName("v2");
+        EDBUpdateEvent update = new EDBUpdateEvent(updated);
+        enrichEDBEvent(update);
+        db.processEDBUpdateEvent(update);
+
+        EDBBatchEvent batch = new EDBBatchEvent();
+        enrichEDBEvent(batch);
+        updated.setName("v3");
+        sub.setName("sub3");
+        batch.addModelUpdate(updated);
+        batch.addModelDelete(deleted);
+        for (int i = 1; i <= 3; i++) {
+            TestModel model = new TestModel();
+            model.setName("new" + i);
+            model.setEdbId("lookupbatch/new/" + i);
+            batch.addModelInsert(model);
+        }
+        db.processEDBBatchEvent(batch);
+
+        EDBObject obj = db.getObject("testdomain/testconnector/lookupbatch/updated");
+        assertThat(obj.getString("name"), is("v3"));
+        assertThat(obj.get("edbVersion"), is((Object) 3));
+        obj = db.getObject("testdomain/testconnector/lookupbatch/sub");
+        assertThat(obj.getString("name"), is("sub3"));
+        assertThat(db.getObject("testdomain/testconnector/lookupbatch/deleted").isDeleted(), is(true));
+        for (int i = 1; i <= 3; i++) {
+            obj = db.getObject("testdomain/testconnector/lookupbatch/new/" + i);
+            assertThat(obj.getString("name"), is("new" + i));
+            assertThat(obj.get("edbVersion"), is((Object) 1));
+        }
+
+        EDBBatchEvent invalid = new EDBBatchEvent();
+        enrichEDBEvent(invalid);
+        updated.setName("v4");
+        invalid.addModelUpdate(updated);
+        invalid.addModelDelete(deleted);
+        try {
+            db.processEDBBatchEvent(invalid);
+            fail("the deletion of an already deleted object has to fail");
+        } catch (EDBException e) {
+            // expected, the whole batch is rejected
+        }
+        obj = db.getObject("testdomain/testconnector/lookupbatch/updated");
+        assertThat(obj.getString("name"), is("v3"));
+        assertThat(obj.get("edbVersion"), is((Object) 3));
+    }
+
     @Test(expected = EDBException.class)
     public void testSendEDBDeleteEventWithNonExistingOid_shouldThrowError() throws Exception {
         TestModel model = new TestModel();
@@ -521,7 +1782,7 @@ public class JPATestIT {
         EDBObject obj = db.getObject("testdomain/testconnector/updateevent/2");
 
         String name1 = (String) obj.get("name");
-        Integer version1 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version1 = (Integer) obj.get("edbVersion");
 
         model.setName("blab");
 
@@ -532,7 +1793,7 @@ public class JPATestIT {
         obj = db.getObject("testdomain/testconnector/updateevent/2");
 
         String name2 = (String) obj.get("name");
-        Integer version2 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version2 = (Integer) obj.get("edbVersion");
 
         assertThat(name1, is("blub"));
         assertThat(version1, is(1));
@@ -540,6 +1801,29 @@ public class JPATestIT {
         assertThat(version2, is(2));
     }
 
+    @Test
+    public void testSendEDBUpdateEventsMultipleTimes_shouldIncreaseVersion() throws Exception {
+        TestModel model = new TestModel();
+        model.setName("blub");
+        model.setEdbId("updateevent/5");
+        EDBInsertEvent event = new EDBInsertEvent(model);
+        enrichEDBEvent(event);
+        db.processEDBInsertEvent(event);
+
+        for (String name : Arrays.asList("blab", "blob")) {
+            model.setName(name);
+            EDBUpdateEvent update = new EDBUpdateEvent(model);
+            enrichEDBEvent(update);
+            db.processEDBUpdateEvent(update);
+        }
+
+        EDBObject obj = db.getObject("testdomain/testconnector/updateevent/5");
+        Integer version = (Integer) obj.get("edbVersion");
+
+        assertThat((String) obj.get("name"), is("blob"));
+        assertThat(version, is(3));
+    }
+
     @Test(expected = EDBException.class)
     public void testSendEDBUpdateEvent_shouldResolveInNoConflict() throws Exception {
         TestModel model = new TestModel();
@@ -552,7 +1836,7 @@ public class JPATestIT {
         EDBObject obj = db.getObject("testdomain/testconnector/updateevent/3");
 
         String name1 = (String) obj.get("name");
-        Integer version1 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version1 = (Integer) obj.get("edbVersion");
 
         model.addOpenEngSBModelEntry(new OpenEngSBModelEntry("edbVersion", 0, Integer.class));
 
@@ -564,7 +1848,7 @@ public class JPATestIT {
         obj = db.getObject("testdomain/testconnector/updateevent/3");
 
         String name2 = (String) obj.get("name");
-        Integer version2 = Integer.parseInt((String) obj.get("edbVersion"));
+        Integer version2 = (Integer) obj.get("edbVersion");
 
         assertThat(name1, is("blub"));
         assertThat(version1, is(1));
@@ -589,6 +1873,55 @@ public class JPATestIT {
         db.processEDBUpdateEvent(update);
     }
 
+    @Test
+    public void testSendEDBUpdateEventWithMergeUpdates_shouldMergeOnlyDisjointKeys() throws Exception {
+        db.setMergeUpdates(true);
+        try {
+            TestModel model = createMergeTestModel("blub", "OPEN", null);
+            EDBInsertEvent event = new EDBInsertEvent(model);
+            enrichEDBEvent(event);
+            db.processEDBInsertEvent(event);
+            long merged = db.getMergedUpdateCount();
+            long rejected = db.getRejectedUpdateCount();
+
+            EDBUpdateEvent update = new EDBUpdateEvent(createMergeTestModel("first", "OPEN", 1));
+            enrichEDBEvent(update);
+            db.processEDBUpdateEvent(update);
+            update = new EDBUpdateEvent(createMergeTestModel("blub", "CLOSED", 1));
+            enrichEDBEvent(update);
+            db.processEDBUpdateEvent(update);
+            try {
+                update = new EDBUpdateEvent(createMergeTestModel("third", "OPEN", 1));
+                enrichEDBEvent(update);
+                db.processEDBUpdateEvent(update);
+                fail("the update of a key which was changed in between has to be rejected");
+            } catch (EDBException e) {
+                // expected
+            }
+
+            EDBObject obj = db.getObject("testdomain/testconnector/mergeevent/1");
+            assertThat(obj.getString("name"), is("first"));
+            assertThat(obj.getString("status"), is("CLOSED"));
+            assertThat((Integer) obj.get("edbVersion"), is(3));
+            db.getMetrics().reset();
+            assertThat(db.getMergedUpdateCount(), is(merged + 1));
+            assertThat(db.getRejectedUpdateCount(), is(rejected + 1));
+        } finally {
+            db.setMergeUpdates(false);
+        }
+    }
+
+    private TestModel createMergeTestModel(String name, String status, Integer version) {
+        TestModel model = new TestModel();
+        model.setName(name);
+        model.setEdbId("mergeevent/1");
+        model.addOpenEngSBModelEntry(new OpenEngSBModelEntry("status", status, String.class));
+        if (version != null) {
+            model.addOpenEngSBModelEntry(new OpenEngSBModelEntry("edbVersion", version, Integer.class));
+        }
+        return model;
+    }
+
     @Test
     public void testSupportOfSimpleSubModels_shouldWork() {
         TestModel model = new TestModel();
@@ -646,11 +1979,22 @@ public class JPATestIT {
     }
 
     /**
-     * iterates through the list of timestamps and checks if every timestamp is bigger than 0
+     * waits until the clock has passed the given timestamp, so the next commit gets a higher timestamp
+     */
+    private void waitForNextTimestamp(long timestamp) throws InterruptedException {
+        while (System.currentTimeMillis() <= timestamp) {
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * iterates through the list of revisions and checks if every revision is bigger than the one before and than 0
      */
-    private void checkTimeStamps(List<Long> timestamps) {
-        for (Long timestamp : timestamps) {
-            assertThat(timestamp, greaterThan((long) 0));
+    private void checkRevisions(List<Long> revisions) {
+        long last = 0;
+        for (Long revision : revisions) {
+            assertThat(revision, greaterThan(last));
+            last = revision;
         }
     }
 }
@@ -24,6 +24,7 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -202,6 +203,33 @@ public class EKBService implements EngineeringKnowledgeBaseService {
         return convertEDBObjectsToModelObjects(model, edbService.query(queryMap));
     }
 
+    @Override
+    public <T extends OpenEngSBModel> List<T> queryForModels(Class<T> model, Map<String, Object> queryMap,
+            int offset, int limit) {
+        return convertEDBObjectsToModelObjects(model, edbService.query(queryMap, offset, limit));
+    }
+
+    @Override
+    public <T extends OpenEngSBModel> Iterator<T> iterateModels(final Class<T> model, Map<String, Object> queryMap) {
+        final Iterator<EDBObject> objects = edbService.iterateQuery(queryMap);
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return objects.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return convertEDBObjectToModel(model, objects.next());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("models can't be removed from this iterator");
+            }
+        };
+    }
+
     public void setEdbService(EngineeringDatabaseService edbService) {
         this.edbService = edbService;
     }
@@ -28,6 +28,8 @@ import static org.mockito.Mockito.when;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Before;
@@ -485,4 +487,23 @@ public class EKBServiceTest {
         assertThat(testExists, is(true));
         assertThat(testValue, nullValue());
     }
+
+    @Test
+    public void testIterateModels_shouldConvertEveryObject() {
+        EDBObject object1 = new EDBObject("iterateoid1");
+        object1.put("name", "first");
+        object1.put("sub", "suboid1");
+        EDBObject object2 = new EDBObject("iterateoid2");
+        object2.put("name", "second");
+        object2.put("sub", "suboid1");
+        HashMap<String, Object> query = new HashMap<String, Object>();
+        query.put("name", "*");
+        when(edbService.iterateQuery(query)).thenReturn(Arrays.asList(object1, object2).iterator());
+
+        Iterator<TestModel2> models = service.iterateModels(TestModel2.class, query);
+
+        assertThat(models.next().getName(), is("first"));
+        assertThat(models.next().getName(), is("second"));
+        assertThat(models.hasNext(), is(false));
+    }
 }